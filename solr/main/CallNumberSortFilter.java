@@ -3,7 +3,7 @@ package edu.cornell.library.integration.solr;
 import java.io.IOException;
 //import java.lang.invoke.MethodHandles;
 import java.text.Normalizer;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 
 import org.apache.lucene.analysis.TokenFilter;
@@ -21,11 +21,16 @@ public final class CallNumberSortFilter extends TokenFilter {
 
 //  private static final Logger log = LoggerFactory.getLogger(MethodHandles.lookup().lookupClass());
   private final CharTermAttribute termAttr = addAttribute(CharTermAttribute.class);
-  private final List<String> prefixes;
+  private final PrefixTrie prefixes;
+  private final StringBuilder sortForm = new StringBuilder(64);
 
   protected CallNumberSortFilter(TokenStream input, List<String> prefixes) {
+    this(input, new PrefixTrie(prefixes));
+  }
+
+  protected CallNumberSortFilter(TokenStream input, PrefixTrie prefixes) {
     super(input);
-    this.prefixes = Collections.unmodifiableList(prefixes);
+    this.prefixes = prefixes;
   }
 
   @Override
@@ -33,58 +38,176 @@ public final class CallNumberSortFilter extends TokenFilter {
 
     if (!this.input.incrementToken()) return false;
 
-    String outputValue = sortForm(this.termAttr,this.prefixes);
+    this.sortForm.setLength(0);
+    sortForm(this.termAttr,this.prefixes,this.sortForm);
     this.termAttr.setEmpty();
-    this.termAttr.append(outputValue);
+    this.termAttr.append(this.sortForm);
     return true;
   }
 
   public static String sortForm( CharSequence callNumber, List<String> prefixes ) {
-
-    String lc = Normalizer.normalize(callNumber, Normalizer.Form.NFD)
-        .toLowerCase().trim()
-        // periods not followed by digits aren't decimals and must go
-        .replaceAll("\\.(?!\\d)", " ").replaceAll("\\s+"," ");
-
-    if (lc.isEmpty()) return lc;
-
-    return stripPrefixes(lc,prefixes)
-        // all remaining non-alphanumeric (incl decimals) must go
-        .replaceAll("[^a-z\\d\\.]+", " ")
-        // separate alphabetic and numeric sections
-        .replaceAll("([a-z])(\\d)", "$1 $2")
-        .replaceAll("(\\d)([a-z])", "$1 $2")
-        // zero pad first integer number component if preceded by
-        // not more than one alphabetic block
-        .replaceAll("^\\s*([a-z]*\\s*)(\\d+)", "$100000000$2")
-        .replaceAll("^([a-z]*\\s*)0*(\\d{9})", "$1$2")
-
-        .trim();
+    StringBuilder sb = new StringBuilder(64);
+    sortForm(callNumber,new PrefixTrie(prefixes),sb);
+    return sb.toString();
   }
 
-  private static String stripPrefixes(String callnum, List<String> prefixes) {
+  /**
+   * Append the sort form of callNumber to out. The call number is normalized in a single pass,
+   * with prefixes matched through the trie, and the work is done in out itself, so nothing is
+   * allocated beyond any growth of out. (Call numbers that aren't plain ASCII are first NFD
+   * normalized into a new String, as before.)
+   */
+  public static void sortForm( CharSequence callNumber, PrefixTrie prefixes, StringBuilder out ) {
+
+    CharSequence lc = callNumber;
+    boolean plainAscii = asciiLowerCase;
+    for (int i = 0; plainAscii && i < lc.length(); i++)
+      if ( lc.charAt(i) >= 0x80 ) plainAscii = false;
+    if ( ! plainAscii )
+      lc = Normalizer.normalize(callNumber, Normalizer.Form.NFD).toLowerCase();
+
+    int begin = 0, end = lc.length();
+    while ( begin < end && lc.charAt(begin) <= ' ' ) begin++;
+    while ( end > begin && lc.charAt(end-1) <= ' ' ) end--;
+    if ( begin == end ) return;
+
+    // periods not followed by digits aren't decimals and must go; whitespace runs become one space
+    int base = out.length();
+    boolean space = false;
+    for (int i = begin; i < end; i++) {
+      char c = lc.charAt(i);
+      if ( c == '.' && ! ( i+1 < end && isDigit(lc.charAt(i+1)) ) ) c = ' ';
+      else if ( c >= 'A' && c <= 'Z' ) c += 'a'-'A';
+      if ( isWhitespace(c) ) {
+        if ( space ) continue;
+        c = ' ';
+        space = true;
+      } else
+        space = false;
+      out.append(c);
+    }
+    int cleaned = out.length();
+    int from = ( prefixes == null ) ? base : prefixes.strip(out, base, cleaned);
+
+    // all remaining non-alphanumeric (incl decimals) must go, and alphabetic and numeric
+    // sections are separated
+    char last = ' ';
+    boolean gap = false;
+    for (int i = from; i < cleaned; i++) {
+      char c = out.charAt(i);
+      if ( ! isLetter(c) && ! isDigit(c) && c != '.' ) { gap = true; continue; }
+      if ( out.length() > cleaned &&
+          ( gap || isLetter(last) && isDigit(c) || isDigit(last) && isLetter(c) ) )
+        out.append(' ');
+      out.append(c);
+      last = c;
+      gap = false;
+    }
+    out.delete(base, cleaned);
+
+    // zero pad first integer number component if preceded by
+    // not more than one alphabetic block
+    int len = out.length();
+    int number = base;
+    while ( number < len && isLetter(out.charAt(number)) ) number++;
+    if ( number < len && out.charAt(number) == ' ' ) number++;
+    int numberEnd = number;
+    while ( numberEnd < len && isDigit(out.charAt(numberEnd)) ) numberEnd++;
+    if ( numberEnd == number ) return;
+    int significant = number;
+    while ( significant < numberEnd && out.charAt(significant) == '0' ) significant++;
+    if ( numberEnd - significant >= 9 )
+      out.delete(number, significant);
+    else if ( numberEnd - number >= 9 )
+      out.delete(number, numberEnd - 9);
+    else
+      out.insert(number, zeros, 0, 9 - (numberEnd - number));
+  }
 
-    if (prefixes == null || prefixes.isEmpty())
-      return callnum;
+  /**
+   * Call number prefixes, matched against a call number in a single walk. Where more than one
+   * prefix matches, the one listed first is used, as when the list was checked in order, so a
+   * longer prefix should be listed ahead of any shorter prefix it extends.
+   */
+  public static final class PrefixTrie {
+
+    public PrefixTrie( List<String> prefixes ) {
+      this.empty = ( prefixes == null || prefixes.isEmpty() );
+      if ( this.empty ) return;
+      for (int order = 0; order < prefixes.size(); order++) {
+        Node n = this.root;
+        String prefix = prefixes.get(order);
+        for (int i = 0; i < prefix.length(); i++)
+          n = n.add(prefix.charAt(i));
+        if ( n.order < 0 ) n.order = order;
+      }
+    }
+
+    /**
+     * Skip past the prefixes and the punctuation following them at the start of s[from,end),
+     * repeating until no more are found.
+     * @return the position of the remaining call number
+     */
+    int strip( CharSequence s, int from, int end ) {
+      if ( this.empty ) return from;
+      int previous;
+      do {
+        previous = from;
+        int matched = match(s, from, end);
+        if ( matched > 0 ) from += matched;
+        while ( from < end && " ,;#+".indexOf(s.charAt(from)) != -1 ) from++;
+      } while ( from < end && from != previous );
+      return from;
+    }
+
+    private int match( CharSequence s, int from, int end ) {
+      int bestOrder = Integer.MAX_VALUE, bestLength = -1;
+      Node n = this.root;
+      for (int i = from; n != null; i++) {
+        if ( n.order >= 0 && n.order < bestOrder ) {
+          bestOrder = n.order;
+          bestLength = i - from;
+        }
+        n = ( i < end ) ? n.get(s.charAt(i)) : null;
+      }
+      return bestLength;
+    }
 
-    String previouscallnum;
+    private final Node root = new Node();
+    private final boolean empty;
 
-    do {
+    private static class Node {
+      char[] keys = new char[0];
+      Node[] children = new Node[0];
+      int order = -1;
 
-      previouscallnum = callnum;
-      PREF: for (String prefix : prefixes) {
-        if (callnum.startsWith(prefix)) {
-          callnum = callnum.substring(prefix.length());
-          break PREF;
-        }
+      Node get( char c ) {
+        for (int i = 0; i < this.keys.length; i++)
+          if ( this.keys[i] == c ) return this.children[i];
+        return null;
       }
 
-      while (callnum.length() > 0 && -1 < " ,;#+".indexOf(callnum.charAt(0))) {
-        callnum = callnum.substring(1);
+      Node add( char c ) {
+        Node child = get(c);
+        if ( child != null ) return child;
+        child = new Node();
+        this.keys = Arrays.copyOf(this.keys, this.keys.length+1);
+        this.children = Arrays.copyOf(this.children, this.children.length+1);
+        this.keys[this.keys.length-1] = c;
+        this.children[this.children.length-1] = child;
+        return child;
       }
+    }
+  }
 
-    } while (callnum.length() > 0 && ! callnum.equals(previouscallnum)); 
-
-    return callnum;
+  private static boolean isLetter( char c ) { return c >= 'a' && c <= 'z'; }
+  private static boolean isDigit( char c )  { return c >= '0' && c <= '9'; }
+  private static boolean isWhitespace( char c ) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\013' || c == '\f' || c == '\r';
   }
+
+  // String.toLowerCase() only matches the ASCII shortcut outside of Turkic locales
+  private static final boolean asciiLowerCase =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toLowerCase().equals("abcdefghijklmnopqrstuvwxyz");
+  private static final char[] zeros = "000000000".toCharArray();
 }
@@ -54,6 +54,7 @@ public class CallNumberSortFilterFactory
   extends TokenFilterFactory implements ResourceLoaderAware {
 
   private List<String> prefixes;
+  private CallNumberSortFilter.PrefixTrie prefixTrie = new CallNumberSortFilter.PrefixTrie(null);
   private final String prefixFile;
 
   public CallNumberSortFilterFactory(Map<String,String> args) {
@@ -63,7 +64,7 @@ public class CallNumberSortFilterFactory
 
   @Override
   public TokenStream create(TokenStream input) {
-    return new CallNumberSortFilter(input, this.prefixes);
+    return new CallNumberSortFilter(input, this.prefixTrie);
   }
 
   @Override
@@ -78,6 +79,7 @@ public class CallNumberSortFilterFactory
       this.prefixes = new ArrayList<>();
       for (String s : temp)
         this.prefixes.add(s.toLowerCase().replaceAll("\\.(?!\\d) *"," "));
+      this.prefixTrie = new CallNumberSortFilter.PrefixTrie(this.prefixes);
     }
   }
 
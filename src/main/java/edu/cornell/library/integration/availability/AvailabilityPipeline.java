@@ -0,0 +1,316 @@
+package edu.cornell.library.integration.availability;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.AuthenticationException;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+
+import edu.cornell.library.integration.availability.ProcessAvailabilityQueue.BibToUpdate;
+import edu.cornell.library.integration.availability.ProcessAvailabilityQueue.UpdateResults;
+import edu.cornell.library.integration.changes.Change;
+import edu.cornell.library.integration.folio.FolioClient;
+import edu.cornell.library.integration.folio.Locations;
+import edu.cornell.library.integration.folio.ReferenceData;
+
+/**
+ * Availability indexing as four stages connected by bounded queues, so that slow Solr writes
+ * don't hold up database reads and the reverse:
+ * <ol>
+ * <li>claim: lock bibs from availQueue (availabilityClaimThreads)</li>
+ * <li>assemble: build the Solr documents from the inventory database (availabilityWorkers)</li>
+ * <li>write: buffered writes to Solr (availabilitySolrWriters)</li>
+ * <li>acknowledge: remove written bibs from availQueue and unlock them (availabilityAckThreads)</li>
+ * </ol>
+ * Each queue holds at most availabilityQueueCapacity bibs, so a stage that falls behind blocks
+ * the stages feeding it.
+ */
+class AvailabilityPipeline {
+
+  private final Properties prop;
+  private final FolioClient folio;
+  private final SolrClient solr;
+  private final SolrClient callNumberSolr;
+  private final Locations locations;
+  private final ReferenceData holdingsNoteTypes;
+  private final ReferenceData callNumberTypes;
+  private final ReferenceData statCodes;
+
+  private final int claimThreads;
+  private final int assembleThreads;
+  private final int writeThreads;
+  private final int ackThreads;
+  private final int claimBatch;
+  private final int solrBatch;
+  private final long solrBatchMillis;
+  private final AtomicInteger remainingIterations;
+
+  private final BlockingQueue<BibToUpdate> claimed;
+  private final BlockingQueue<BibToUpdate> assembled;
+  private final BlockingQueue<BibToUpdate> written;
+
+  // Passed down the queues to tell the next stage that its upstream stage has finished
+  private static final BibToUpdate END = new BibToUpdate("END", new HashSet<>());
+
+  AvailabilityPipeline( Properties prop, int iterations, FolioClient folio,
+      SolrClient solr, SolrClient callNumberSolr, Locations locations,
+      ReferenceData holdingsNoteTypes, ReferenceData callNumberTypes, ReferenceData statCodes) {
+    this.prop = prop;
+    this.folio = folio;
+    this.solr = solr;
+    this.callNumberSolr = callNumberSolr;
+    this.locations = locations;
+    this.holdingsNoteTypes = holdingsNoteTypes;
+    this.callNumberTypes = callNumberTypes;
+    this.statCodes = statCodes;
+
+    this.claimThreads = positiveInt(prop, "availabilityClaimThreads", 1);
+    this.assembleThreads = positiveInt(prop, "availabilityWorkers", 1);
+    this.writeThreads = positiveInt(prop, "availabilitySolrWriters", 1);
+    this.ackThreads = positiveInt(prop, "availabilityAckThreads", 1);
+    this.claimBatch = positiveInt(prop, "availabilityClaimBatch", 1);
+    this.solrBatch = positiveInt(prop, "availabilitySolrBatch", 1);
+    this.solrBatchMillis = 1_000 * Long.valueOf(prop.getProperty("availabilitySolrBatchSeconds","10"));
+    this.remainingIterations = new AtomicInteger(iterations);
+
+    int capacity = positiveInt(prop, "availabilityQueueCapacity", 100);
+    this.claimed = new ArrayBlockingQueue<>(capacity);
+    this.assembled = new ArrayBlockingQueue<>(capacity);
+    this.written = new ArrayBlockingQueue<>(capacity);
+  }
+
+  int claimedDepth()   { return this.claimed.size(); }
+  int assembledDepth() { return this.assembled.size(); }
+  int writtenDepth()   { return this.written.size(); }
+
+  Map<String,Integer> stageDepths() {
+    Map<String,Integer> depths = new LinkedHashMap<>();
+    depths.put("claimed", claimedDepth());
+    depths.put("assembled", assembledDepth());
+    depths.put("written", writtenDepth());
+    return depths;
+  }
+
+  void run()
+      throws IOException, SQLException, InterruptedException, SolrServerException, AuthenticationException {
+
+    int threadCount = this.claimThreads + this.assembleThreads + this.writeThreads + this.ackThreads;
+    ExecutorService threads = Executors.newFixedThreadPool(threadCount);
+    ExecutorCompletionService<Void> results = new ExecutorCompletionService<>(threads);
+    ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor();
+    monitor.scheduleAtFixedRate(
+        () -> System.out.println("Availability pipeline queue depths: "+stageDepths()), 1, 1, TimeUnit.MINUTES);
+
+    AtomicInteger activeClaimers = new AtomicInteger(this.claimThreads);
+    AtomicInteger activeAssemblers = new AtomicInteger(this.assembleThreads);
+    AtomicInteger activeWriters = new AtomicInteger(this.writeThreads);
+    for (int i = 1; i <= this.claimThreads; i++) {
+      final int claimerNumber = i;
+      results.submit(() -> {
+        try { claim(claimerNumber); }
+        finally { if (activeClaimers.decrementAndGet() == 0) end(this.claimed, this.assembleThreads); }
+        return null; });
+    }
+    for (int i = 1; i <= this.assembleThreads; i++)
+      results.submit(() -> {
+        try { assemble(); }
+        finally { if (activeAssemblers.decrementAndGet() == 0) end(this.assembled, this.writeThreads); }
+        return null; });
+    for (int i = 1; i <= this.writeThreads; i++)
+      results.submit(() -> {
+        try { write(); }
+        finally { if (activeWriters.decrementAndGet() == 0) end(this.written, this.ackThreads); }
+        return null; });
+    for (int i = 1; i <= this.ackThreads; i++)
+      results.submit(() -> { acknowledge(); return null; });
+    threads.shutdown();
+
+    try {
+      for (int i = 0; i < threadCount; i++)
+        results.take().get();
+    } catch (ExecutionException e) {
+      threads.shutdownNow();
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException)            throw (IOException) cause;
+      if (cause instanceof SQLException)           throw (SQLException) cause;
+      if (cause instanceof SolrServerException)    throw (SolrServerException) cause;
+      if (cause instanceof AuthenticationException) throw (AuthenticationException) cause;
+      if (cause instanceof InterruptedException)   throw (InterruptedException) cause;
+      throw new RuntimeException(cause);
+    } finally {
+      monitor.shutdownNow();
+    }
+  }
+
+  private void claim( int claimerNumber ) throws SQLException, SolrServerException, IOException, InterruptedException {
+
+    try (Connection inventoryDB = inventoryConnection();
+        // Queue rows being claimed by other threads are skipped rather than waited on. Several
+        // rows may share an hrid, so read past the claim batch size.
+        PreparedStatement readQStmt = inventoryDB.prepareStatement
+            ("SELECT availQueue.hrid, priority"+
+             "  FROM availQueue"+
+             "  LEFT JOIN bibLock ON availQueue.hrid = bibLock.hrid"+
+             " WHERE bibLock.date IS NULL"+
+             " ORDER BY priority, record_date LIMIT "+(this.claimBatch*this.claimThreads)+
+             " FOR UPDATE OF availQueue SKIP LOCKED");
+        PreparedStatement createLockStmt = inventoryDB.prepareStatement
+            ("INSERT INTO bibLock (hrid) values (?)");
+        PreparedStatement oldLocksCleanupStmt = inventoryDB.prepareStatement
+            ("DELETE FROM bibLock WHERE date < DATE_SUB( NOW(), INTERVAL 15 MINUTE)");
+        ) {
+
+      while (this.remainingIterations.getAndDecrement() > 0) {
+        List<BibToUpdate> bibs = ProcessAvailabilityQueue.claimBibs(
+            inventoryDB, readQStmt, createLockStmt, this.claimBatch);
+
+        if ( bibs == null ) {
+          // Only one claimer needs to do housekeeping while the queue is empty
+          if ( claimerNumber == 1 ) {
+            oldLocksCleanupStmt.executeUpdate();
+            ProcessAvailabilityQueue.queueRecordsNotRecentlyUpdated(inventoryDB,this.solr);
+          } else
+            Thread.sleep(1_000);
+          continue;
+        }
+        // Candidates were all claimed elsewhere; give them a moment to move through
+        if ( bibs.isEmpty() ) {
+          Thread.sleep(100);
+          continue;
+        }
+
+        // Count each claimed bib as an iteration
+        this.remainingIterations.addAndGet(1 - bibs.size());
+        for ( BibToUpdate bib : bibs )
+          this.claimed.put(bib);
+      }
+    }
+  }
+
+  private void assemble()
+      throws SQLException, IOException, InterruptedException, AuthenticationException {
+
+    try (Connection inventoryDB = inventoryConnection();
+        Connection classificationDB = DriverManager.getConnection(
+            this.prop.getProperty("databaseURLCallNos"),this.prop.getProperty("databaseUserCallNos"),
+            this.prop.getProperty("databasePassCallNos"));
+        PreparedStatement queueGen = inventoryDB.prepareStatement
+            ("INSERT INTO generationQueue ( hrid, priority, cause, record_date )"
+                + " VALUES (?,?,?,NOW())");
+        ) {
+
+      try {
+        for ( BibToUpdate bib = this.claimed.take(); bib != END; bib = this.claimed.take() ) {
+          UpdateResults result = ProcessAvailabilityQueue.buildSolrDocuments(
+              this.folio,inventoryDB,classificationDB,this.locations,
+              this.holdingsNoteTypes, this.callNumberTypes, this.statCodes, bib, bib.priority);
+
+          switch (result) {
+          case SUCCESS:
+            this.assembled.put(bib);
+            break;
+          case NOBIBDATA:
+            // Nothing to write to Solr, so it can be dequeued right away
+            System.out.println(bib.bibId +" lacks processed bib data. Redirecting to gen queue.");
+            queueGen.setString(1, bib.bibId);
+            queueGen.setInt(2,bib.priority);
+            Set<String> changes = new HashSet<>();
+            for (Change c : bib.changes)  changes.add(c.toString());
+            queueGen.setString(3, "Redirected from availability <"+String.join("; ",changes)+">");
+            queueGen.executeUpdate();
+            this.written.put(bib);
+            break;
+          case FAILURE:
+            // Left queued and locked, to be retried when the lock expires
+          }
+        }
+      } finally {
+        WorksAndInventory.releaseStatements(inventoryDB);
+      }
+    }
+  }
+
+  private void write() throws IOException, InterruptedException {
+
+    SolrWriteBuffer buffer = new SolrWriteBuffer(
+        this.solr, this.callNumberSolr, this.solrBatch, this.solrBatchMillis);
+    long pollMillis = Math.max(1, Math.min(this.solrBatchMillis, 1_000));
+    while (true) {
+      BibToUpdate bib = this.assembled.poll(pollMillis, TimeUnit.MILLISECONDS);
+      if ( bib == END ) break;
+      if ( bib != null ) buffer.add(bib);
+      if ( buffer.isFlushDue() ) forward(buffer.flush());
+    }
+    forward(buffer.flush());
+  }
+
+  private void forward( List<BibToUpdate> writtenBibs ) throws InterruptedException {
+    if ( writtenBibs == null ) return;
+    for ( BibToUpdate bib : writtenBibs )
+      this.written.put(bib);
+  }
+
+  private void acknowledge() throws SQLException, InterruptedException {
+
+    try (Connection inventoryDB = inventoryConnection();
+        PreparedStatement unlockStmt = inventoryDB.prepareStatement
+            ("DELETE FROM bibLock WHERE id = ?");
+        PreparedStatement clearFromQueueStmt = inventoryDB.prepareStatement
+            ("DELETE FROM availQueue WHERE id = ?");
+        ) {
+
+      int ends = 0;
+      while ( ends == 0 ) {
+        List<BibToUpdate> drained = new ArrayList<>();
+        drained.add(this.written.take());
+        this.written.drainTo(drained);
+        List<BibToUpdate> bibs = new ArrayList<>();
+        for ( BibToUpdate bib : drained )
+          if ( bib == END ) ends++; else bibs.add(bib);
+        CallNumberBrowse.storeIndexedHashes(inventoryDB, bibs);
+        ProcessAvailabilityQueue.acknowledge(bibs, clearFromQueueStmt, unlockStmt);
+      }
+      // Leave any other acknowledgers' end markers for them
+      end(this.written, ends - 1);
+    }
+  }
+
+  private Connection inventoryConnection() throws SQLException {
+    return DriverManager.getConnection(
+        this.prop.getProperty("databaseURLCurrent"),this.prop.getProperty("databaseUserCurrent"),
+        this.prop.getProperty("databasePassCurrent"));
+  }
+
+  private static void end( BlockingQueue<BibToUpdate> queue, int consumers ) throws InterruptedException {
+    for (int i = 0; i < consumers; i++)
+      queue.put(END);
+  }
+
+  private static int positiveInt( Properties prop, String name, int defaultValue ) {
+    int value = Integer.valueOf(prop.getProperty(name,String.valueOf(defaultValue)));
+    if (value < 1)
+      throw new IllegalArgumentException(name+" must be at least 1.");
+    return value;
+  }
+}
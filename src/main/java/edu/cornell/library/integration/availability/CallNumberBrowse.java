@@ -2,6 +2,8 @@ package edu.cornell.library.integration.availability;
 
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -13,11 +15,15 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.apache.solr.common.SolrInputDocument;
 
+import edu.cornell.library.integration.availability.ProcessAvailabilityQueue.BibToUpdate;
+import edu.cornell.library.integration.folio.ChangeDetector;
 import edu.cornell.library.integration.folio.Holding;
 import edu.cornell.library.integration.folio.Holdings.HoldingSet;
 
@@ -134,6 +140,76 @@ class CallNumberBrowse {
   }
 
 
+  /**
+   * Compare bib's new browse documents with the content hashes stored for the browse documents
+   * last written to Solr, leaving on bib only the documents that are new or changed, and the ids
+   * of those dropped. The stored hashes include a row for the bib itself. Without it, nothing is
+   * known of what the bib has in Solr, so all of its browse documents are replaced.
+   */
+  static void compareToIndexed(
+      Connection inventory, BibToUpdate bib, Collection<SolrInputDocument> browseDocs ) throws SQLException {
+    Map<String,String> indexed = new HashMap<>();
+    try ( PreparedStatement stmt = inventory.prepareStatement(
+        "SELECT id, contentHash FROM callNumberBrowseHash WHERE hrid = ?") ) {
+      stmt.setString(1, bib.bibId);
+      try ( ResultSet rs = stmt.executeQuery() ) {
+        while ( rs.next() ) indexed.put(rs.getString(1), rs.getString(2));
+      }
+    }
+
+    Map<String,String> hashes = new TreeMap<>();
+    List<SolrInputDocument> changed = new ArrayList<>();
+    for ( SolrInputDocument doc : browseDocs ) {
+      String id = (String) doc.getFieldValue("id");
+      String hash = browseDocumentHash(doc);
+      hashes.put(id, hash);
+      if ( ! hash.equals(indexed.get(id)) ) changed.add(doc);
+    }
+    List<String> dropped = new ArrayList<>();
+    for ( String id : indexed.keySet() )
+      if ( ! id.equals(bib.bibId) && ! hashes.containsKey(id) ) dropped.add(id);
+    hashes.put(bib.bibId, ChangeDetector.contentHash(String.join(" ", hashes.values())));
+
+    bib.callnumReplaceAll = ! indexed.containsKey(bib.bibId);
+    bib.callnumDocs = ( bib.callnumReplaceAll ) ? browseDocs : changed;
+    bib.callnumDeletes = ( bib.callnumReplaceAll ) ? new ArrayList<>() : dropped;
+    bib.callnumHashes = ( bib.callnumReplaceAll || ! changed.isEmpty() || ! dropped.isEmpty() ) ? hashes : null;
+  }
+
+  /**
+   * Store the browse document hashes of bibs whose browse documents were written to Solr.
+   */
+  static void storeIndexedHashes( Connection inventory, Collection<BibToUpdate> bibs ) throws SQLException {
+    try ( PreparedStatement clear = inventory.prepareStatement(
+            "DELETE FROM callNumberBrowseHash WHERE hrid = ?");
+        PreparedStatement insert = inventory.prepareStatement(
+            "INSERT INTO callNumberBrowseHash (id, hrid, contentHash) VALUES (?,?,?)") ) {
+      boolean any = false;
+      for ( BibToUpdate bib : bibs ) {
+        if ( bib.callnumHashes == null ) continue;
+        any = true;
+        clear.setString(1, bib.bibId);
+        clear.addBatch();
+        for ( Entry<String,String> e : bib.callnumHashes.entrySet() ) {
+          insert.setString(1, e.getKey());
+          insert.setString(2, bib.bibId);
+          insert.setString(3, e.getValue());
+          insert.addBatch();
+        }
+      }
+      if ( ! any ) return;
+      clear.executeBatch();
+      insert.executeBatch();
+    }
+  }
+
+  static String browseDocumentHash( SolrInputDocument doc ) {
+    StringBuilder sb = new StringBuilder();
+    for ( String field : new TreeSet<>(doc.getFieldNames()) )
+      sb.append(field).append('=').append(doc.getFieldValues(field)).append('\n');
+    return ChangeDetector.contentHash(sb.toString());
+  }
+
   private static String generateCitation(SolrInputDocument doc) {
     StringBuilder citation = new StringBuilder();
     if (doc.containsKey("author_display")) {
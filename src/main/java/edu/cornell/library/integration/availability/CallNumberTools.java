@@ -5,13 +5,16 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.sql.Connection;
-import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.text.Normalizer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -29,7 +32,7 @@ public class CallNumberTools {
           if (! line.isEmpty()) p.add(line);
         }
       }
-      prefixes = p;
+      prefixes = new PrefixTrie(p);
     }
   }
 
@@ -37,32 +40,115 @@ public class CallNumberTools {
     if (classificationDB == null) return null;
     if ( prefixes == null )
       loadPrefixes("callnumberprefixes.txt");
+    ClassificationIndex index = classifications;
+    if ( index == null )
+      index = loadClassifications(classificationDB);
 
-      Matcher m = lcClass.matcher(sortForm(callNum,prefixes));
-    if (m.matches()) {
-      if ( classificationQ == null )
-        classificationQ = classificationDB.prepareStatement(
-            "  select label from classification"
-            + " where ? between low_letters and high_letters"
-            + "   and ? between low_numbers and high_numbers"
-            + " order by high_letters desc, high_numbers desc");
-      classificationQ.setString(1, m.group(1));
-      classificationQ.setString(2, m.group(2));
-
-      try ( ResultSet rs = classificationQ.executeQuery() ) {
-        List<String> parts = new ArrayList<>();
+    Matcher m = lcClass.matcher(sortForm(callNum,prefixes));
+    if (m.matches())
+      return String.join(" > ", index.labels(m.group(1), m.group(2)));
+    return null;
+
+  }
+
+  /**
+   * The classification table is small and doesn't change, so it's read once from the first
+   * connection offered, and all later lookups are made in memory.
+   */
+  private static synchronized ClassificationIndex loadClassifications(Connection classificationDB)
+      throws SQLException {
+    if ( classifications == null ) {
+      List<ClassificationIndex.Range> ranges = new ArrayList<>();
+      try ( Statement stmt = classificationDB.createStatement();
+          ResultSet rs = stmt.executeQuery(
+              "SELECT low_letters, high_letters, low_numbers, high_numbers, label FROM classification") ) {
         while ( rs.next() )
-          parts.add(rs.getString(1));
-        return String.join(" > ", parts);
+          ranges.add(new ClassificationIndex.Range(rs.getString(1), rs.getString(2),
+              rs.getDouble(3), rs.getDouble(4), rs.getString(5)));
       }
+      classifications = new ClassificationIndex(ranges);
+    }
+    return classifications;
+  }
+
+  /**
+   * LC classification ranges, indexed on their class letters. The distinct low and high letter
+   * values divide the letters into slots, each either a single value or the gap between two
+   * values, and each slot lists the ranges covering it, in label order (high letters descending,
+   * then high numbers descending). A lookup is then a binary search for the slot, and a check of
+   * the class number against the few ranges found there.
+   */
+  static class ClassificationIndex {
 
+    static class Range {
+      final String lowLetters;
+      final String highLetters;
+      final double lowNumbers;
+      final double highNumbers;
+      final String label;
+      Range(String lowLetters, String highLetters, double lowNumbers, double highNumbers, String label) {
+        this.lowLetters = lowLetters.trim().toLowerCase();
+        this.highLetters = highLetters.trim().toLowerCase();
+        this.lowNumbers = lowNumbers;
+        this.highNumbers = highNumbers;
+        this.label = label;
+      }
     }
-    return null;
 
+    ClassificationIndex(List<Range> ranges) {
+      TreeSet<String> bounds = new TreeSet<>();
+      for (Range r : ranges) { bounds.add(r.lowLetters); bounds.add(r.highLetters); }
+      this.bounds = bounds.toArray(new String[0]);
+
+      List<Range> ordered = new ArrayList<>(ranges);
+      ordered.sort(Comparator.comparing((Range r) -> r.highLetters).reversed()
+          .thenComparing(Comparator.comparingDouble((Range r) -> r.highNumbers).reversed()));
+      List<List<Range>> slots = new ArrayList<>();
+      for (int i = 0; i <= 2 * this.bounds.length; i++) slots.add(new ArrayList<>());
+      for (Range r : ordered) {
+        int from = slot(r.lowLetters), to = slot(r.highLetters);
+        for (int i = from; i <= to; i++) slots.get(i).add(r);
+      }
+      this.slots = new Range[slots.size()][];
+      for (int i = 0; i < this.slots.length; i++)
+        this.slots[i] = slots.get(i).toArray(new Range[0]);
+    }
+
+    /**
+     * @param letters lower case class letters
+     * @param numbers class number, compared numerically as the database did: up to any second
+     *   decimal point, and as zero if empty
+     * @return the labels of the ranges containing the class, broadest first
+     */
+    List<String> labels(String letters, String numbers) {
+      double number = classNumber(numbers);
+      List<String> labels = new ArrayList<>();
+      for (Range r : this.slots[slot(letters)])
+        if ( r.lowNumbers <= number && number <= r.highNumbers )
+          labels.add(r.label);
+      return labels;
+    }
+
+    private int slot(String letters) {
+      int i = Arrays.binarySearch(this.bounds, letters);
+      return ( i >= 0 ) ? 2 * i + 1 : 2 * ( -i - 1 );
+    }
+
+    private static double classNumber(String numbers) {
+      int point = numbers.indexOf('.');
+      int secondPoint = ( point == -1 ) ? -1 : numbers.indexOf('.', point + 1);
+      String n = ( secondPoint == -1 ) ? numbers : numbers.substring(0, secondPoint);
+      if ( n.isEmpty() || n.equals(".") ) return 0;
+      return Double.parseDouble(n);
+    }
+
+    private final String[] bounds;
+    private final Range[][] slots;
   }
+
   private static Pattern lcClass = Pattern.compile("([a-z]{1,3}) ?([0-9\\.]{0,15}).*");
-  private static PreparedStatement classificationQ = null;
-  private static List<String> prefixes = null;
+  private static volatile ClassificationIndex classifications = null;
+  private static PrefixTrie prefixes = null;
   //  private static Pattern lcClass = Pattern.compile("([A-Za-z]{1,3}) ?\\.?([0-9]{1,6})[^0-9]\\.*");
 
   public static String getNumberAfterFirstLetters( String callNumberSortForm ) {
@@ -79,55 +165,178 @@ public class CallNumberTools {
   }
 
   static String sortForm( CharSequence callNumber, List<String> prefixes ) {
+    return sortForm(callNumber,new PrefixTrie(prefixes));
+  }
 
-    String lc = Normalizer.normalize(callNumber, Normalizer.Form.NFD)
-        .toLowerCase().trim()
-        // periods not followed by digits aren't decimals and must go
-        .replaceAll("\\.(?!\\d)", " ").replaceAll("\\s+"," ");
-
-    if (lc.isEmpty()) return lc;
-
-    return stripPrefixes(lc,prefixes)
-        // all remaining non-alphanumeric (incl decimals) must go
-        .replaceAll("[^a-z\\d\\.]+", " ")
-        // separate alphabetic and numeric sections
-        .replaceAll("([a-z])(\\d)", "$1 $2")
-        .replaceAll("(\\d)([a-z])", "$1 $2")
-        // zero pad first integer number component if preceded by
-        // not more than one alphabetic block
-        .replaceAll("^\\s*([a-z]*\\s*)(\\d+)", "$100000000$2")
-        .replaceAll("^([a-z]*\\s*)0*(\\d{9})", "$1$2")
-
-        .trim();
+  static String sortForm( CharSequence callNumber, PrefixTrie prefixes ) {
+    StringBuilder sb = sortBuffers.get();
+    sb.setLength(0);
+    sortForm(callNumber,prefixes,sb);
+    return sb.toString();
   }
 
+  /**
+   * Append the sort form of callNumber to out. The call number is normalized in a single pass,
+   * with prefixes matched through the trie, and the work is done in out itself, so nothing is
+   * allocated beyond any growth of out. (Call numbers that aren't plain ASCII are first NFD
+   * normalized into a new String, as before.)
+   */
+  public static void sortForm( CharSequence callNumber, PrefixTrie prefixes, StringBuilder out ) {
+
+    CharSequence lc = callNumber;
+    boolean plainAscii = asciiLowerCase;
+    for (int i = 0; plainAscii && i < lc.length(); i++)
+      if ( lc.charAt(i) >= 0x80 ) plainAscii = false;
+    if ( ! plainAscii )
+      lc = Normalizer.normalize(callNumber, Normalizer.Form.NFD).toLowerCase();
+
+    int begin = 0, end = lc.length();
+    while ( begin < end && lc.charAt(begin) <= ' ' ) begin++;
+    while ( end > begin && lc.charAt(end-1) <= ' ' ) end--;
+    if ( begin == end ) return;
+
+    // periods not followed by digits aren't decimals and must go; whitespace runs become one space
+    int base = out.length();
+    boolean space = false;
+    for (int i = begin; i < end; i++) {
+      char c = lc.charAt(i);
+      if ( c == '.' && ! ( i+1 < end && isDigit(lc.charAt(i+1)) ) ) c = ' ';
+      else if ( c >= 'A' && c <= 'Z' ) c += 'a'-'A';
+      if ( isWhitespace(c) ) {
+        if ( space ) continue;
+        c = ' ';
+        space = true;
+      } else
+        space = false;
+      out.append(c);
+    }
+    int cleaned = out.length();
+    int from = ( prefixes == null ) ? base : prefixes.strip(out, base, cleaned);
 
-  private static String stripPrefixes(String callnum, List<String> prefixes) {
+    // all remaining non-alphanumeric (incl decimals) must go, and alphabetic and numeric
+    // sections are separated
+    char last = ' ';
+    boolean gap = false;
+    for (int i = from; i < cleaned; i++) {
+      char c = out.charAt(i);
+      if ( ! isLetter(c) && ! isDigit(c) && c != '.' ) { gap = true; continue; }
+      if ( out.length() > cleaned &&
+          ( gap || isLetter(last) && isDigit(c) || isDigit(last) && isLetter(c) ) )
+        out.append(' ');
+      out.append(c);
+      last = c;
+      gap = false;
+    }
+    out.delete(base, cleaned);
 
-    if (prefixes == null || prefixes.isEmpty())
-      return callnum;
+    // zero pad first integer number component if preceded by
+    // not more than one alphabetic block
+    int len = out.length();
+    int number = base;
+    while ( number < len && isLetter(out.charAt(number)) ) number++;
+    if ( number < len && out.charAt(number) == ' ' ) number++;
+    int numberEnd = number;
+    while ( numberEnd < len && isDigit(out.charAt(numberEnd)) ) numberEnd++;
+    if ( numberEnd == number ) return;
+    int significant = number;
+    while ( significant < numberEnd && out.charAt(significant) == '0' ) significant++;
+    if ( numberEnd - significant >= 9 )
+      out.delete(number, significant);
+    else if ( numberEnd - number >= 9 )
+      out.delete(number, numberEnd - 9);
+    else
+      out.insert(number, zeros, 0, 9 - (numberEnd - number));
+  }
 
-    String previouscallnum;
+  /**
+   * Call number prefixes, matched against a call number in a single walk. Where more than one
+   * prefix matches, the one listed first is used, as when the list was checked in order, so a
+   * longer prefix should be listed ahead of any shorter prefix it extends.
+   */
+  public static final class PrefixTrie {
 
-    do {
+    public PrefixTrie( List<String> prefixes ) {
+      this.empty = ( prefixes == null || prefixes.isEmpty() );
+      if ( this.empty ) return;
+      for (int order = 0; order < prefixes.size(); order++) {
+        Node n = this.root;
+        String prefix = prefixes.get(order);
+        for (int i = 0; i < prefix.length(); i++)
+          n = n.add(prefix.charAt(i));
+        if ( n.order < 0 ) n.order = order;
+      }
+    }
 
-      previouscallnum = callnum;
-      PREF: for (String prefix : prefixes) {
-        if (callnum.startsWith(prefix)) {
-          callnum = callnum.substring(prefix.length());
-          break PREF;
+    /**
+     * Skip past the prefixes and the punctuation following them at the start of s[from,end),
+     * repeating until no more are found.
+     * @return the position of the remaining call number
+     */
+    int strip( CharSequence s, int from, int end ) {
+      if ( this.empty ) return from;
+      int previous;
+      do {
+        previous = from;
+        int matched = match(s, from, end);
+        if ( matched > 0 ) from += matched;
+        while ( from < end && " ,;#+".indexOf(s.charAt(from)) != -1 ) from++;
+      } while ( from < end && from != previous );
+      return from;
+    }
+
+    private int match( CharSequence s, int from, int end ) {
+      int bestOrder = Integer.MAX_VALUE, bestLength = -1;
+      Node n = this.root;
+      for (int i = from; n != null; i++) {
+        if ( n.order >= 0 && n.order < bestOrder ) {
+          bestOrder = n.order;
+          bestLength = i - from;
         }
+        n = ( i < end ) ? n.get(s.charAt(i)) : null;
       }
+      return bestLength;
+    }
+
+    private final Node root = new Node();
+    private final boolean empty;
+
+    private static class Node {
+      char[] keys = new char[0];
+      Node[] children = new Node[0];
+      int order = -1;
 
-      while (callnum.length() > 0 && -1 < " ,;#+".indexOf(callnum.charAt(0))) {
-        callnum = callnum.substring(1);
+      Node get( char c ) {
+        for (int i = 0; i < this.keys.length; i++)
+          if ( this.keys[i] == c ) return this.children[i];
+        return null;
       }
 
-    } while (callnum.length() > 0 && ! callnum.equals(previouscallnum)); 
+      Node add( char c ) {
+        Node child = get(c);
+        if ( child != null ) return child;
+        child = new Node();
+        this.keys = Arrays.copyOf(this.keys, this.keys.length+1);
+        this.children = Arrays.copyOf(this.children, this.children.length+1);
+        this.keys[this.keys.length-1] = c;
+        this.children[this.children.length-1] = child;
+        return child;
+      }
+    }
+  }
 
-    return callnum;
+  private static boolean isLetter( char c ) { return c >= 'a' && c <= 'z'; }
+  private static boolean isDigit( char c )  { return c >= '0' && c <= '9'; }
+  private static boolean isWhitespace( char c ) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\013' || c == '\f' || c == '\r';
   }
 
+  // String.toLowerCase() only matches the ASCII shortcut outside of Turkic locales
+  private static final boolean asciiLowerCase =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZ".toLowerCase().equals("abcdefghijklmnopqrstuvwxyz");
+  private static final char[] zeros = "000000000".toCharArray();
+  private static final ThreadLocal<StringBuilder> sortBuffers =
+      ThreadLocal.withInitial(() -> new StringBuilder(64));
+
   public static List<String> getCollectionFlags(Set<String> callNumbers)
       throws IOException {
     List<String> flags = new ArrayList<>();
@@ -80,6 +80,8 @@ public class DeleteFromSolr {
             ("DELETE FROM itemRecsSolr WHERE mfhd_id = ?");
         PreparedStatement deleteFromPMD = inventoryDB.prepareStatement
             ("DELETE FROM processedMarcData WHERE hrid = ?");
+        PreparedStatement deleteBrowseHashes = inventoryDB.prepareStatement
+            ("DELETE FROM callNumberBrowseHash WHERE hrid = ?");
         PreparedStatement getHoldingIds = inventoryDB.prepareStatement
             ("SELECT mfhd_id FROM mfhdRecsSolr WHERE bib_id = ?");
         PreparedStatement queueHeadingsUpdate = inventoryDB.prepareStatement
@@ -140,6 +142,8 @@ public class DeleteFromSolr {
           // Delete solr Fields Data
           deleteFromPMD.setString(1, bibId);
           deleteFromPMD.addBatch();
+          deleteBrowseHashes.setString(1, bibId);
+          deleteBrowseHashes.addBatch();
 
           // Delete from Delete Queue
           deleteFromQ.setString(1,bibId);
@@ -165,6 +169,7 @@ public class DeleteFromSolr {
         deleteFromMRS.executeBatch();
         deleteFromIRS.executeBatch();
         deleteFromPMD.executeBatch();
+        deleteBrowseHashes.executeBatch();
         queueHeadingsUpdate.executeBatch();
         System.out.println( countFound+" deleted");
       } while ( countFound > 0 );
@@ -4,8 +4,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.sql.BatchUpdateException;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
@@ -20,10 +20,12 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -39,13 +41,10 @@ import org.apache.solr.client.solrj.SolrClient;
 import org.apache.solr.client.solrj.SolrQuery;
 import org.apache.solr.client.solrj.SolrQuery.ORDER;
 import org.apache.solr.client.solrj.SolrServerException;
-import org.apache.solr.client.solrj.impl.BaseHttpSolrClient.RemoteSolrException;
 import org.apache.solr.client.solrj.impl.Http2SolrClient;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrInputDocument;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 import edu.cornell.library.integration.availability.MultivolumeAnalysis.MultiVolFlag;
 import edu.cornell.library.integration.changes.Change;
 import edu.cornell.library.integration.folio.BoundWith;
@@ -56,12 +55,13 @@ import edu.cornell.library.integration.folio.ItemReference;
 import edu.cornell.library.integration.folio.Items;
 import edu.cornell.library.integration.folio.Items.Item;
 import edu.cornell.library.integration.folio.Items.ItemList;
-import edu.cornell.library.integration.folio.LoanTypes;
 import edu.cornell.library.integration.folio.Locations;
 import edu.cornell.library.integration.folio.FolioClient;
+import edu.cornell.library.integration.folio.FolioRecords;
+import edu.cornell.library.integration.folio.FolioRecords.InstanceRecord;
 import edu.cornell.library.integration.folio.OpenOrder;
 import edu.cornell.library.integration.folio.ReferenceData;
-import edu.cornell.library.integration.folio.ServicePoints;
+import edu.cornell.library.integration.folio.ReferenceDataRegistry;
 
 public class ProcessAvailabilityQueue {
 
@@ -78,34 +78,7 @@ public class ProcessAvailabilityQueue {
       try ( InputStream is = new FileInputStream(f) ) { prop.load( is ); }
     } else System.out.println("File does not exist: "+configFile);
 
-    try (Connection inventoryDB = DriverManager.getConnection(
-            prop.getProperty("databaseURLCurrent"),prop.getProperty("databaseUserCurrent"),
-            prop.getProperty("databasePassCurrent"));
-        Connection classificationDB = DriverManager.getConnection(
-            prop.getProperty("databaseURLCallNos"),prop.getProperty("databaseUserCallNos"),
-            prop.getProperty("databasePassCallNos"));
-        PreparedStatement readQStmt = inventoryDB.prepareStatement
-            ("SELECT availQueue.hrid, priority"+
-             "  FROM availQueue"+
-             "  LEFT JOIN bibLock ON availQueue.hrid = bibLock.hrid"+
-             " WHERE bibLock.date IS NULL"+
-             " ORDER BY priority, record_date LIMIT 1");
-        PreparedStatement deqStmt = inventoryDB.prepareStatement
-            ("DELETE FROM availQueue WHERE hrid = ?");
-        PreparedStatement allForBib = inventoryDB.prepareStatement
-            ("SELECT id, cause, record_date FROM availQueue WHERE hrid = ?");
-        PreparedStatement createLockStmt = inventoryDB.prepareStatement
-            ("INSERT INTO bibLock (hrid) values (?)",Statement.RETURN_GENERATED_KEYS);
-        PreparedStatement unlockStmt = inventoryDB.prepareStatement
-            ("DELETE FROM bibLock WHERE id = ?");
-        PreparedStatement oldLocksCleanupStmt = inventoryDB.prepareStatement
-            ("DELETE FROM bibLock WHERE date < DATE_SUB( NOW(), INTERVAL 15 MINUTE)");
-        PreparedStatement clearFromQueueStmt = inventoryDB.prepareStatement
-            ("DELETE FROM availQueue WHERE id = ?");
-        PreparedStatement queueGen = inventoryDB.prepareStatement
-            ("INSERT INTO generationQueue ( hrid, priority, cause, record_date )"
-                + " VALUES (?,?,?,NOW())");
-        Http2SolrClient solr = new Http2SolrClient
+    try (Http2SolrClient solr = new Http2SolrClient
             .Builder(prop.getProperty("solrUrl")+"/"+prop.getProperty("blacklightSolrCore"))
             .withBasicAuthCredentials(prop.getProperty("solrUser"),prop.getProperty("solrPassword")).build();
         Http2SolrClient callNumberSolr = new Http2SolrClient
@@ -114,95 +87,122 @@ public class ProcessAvailabilityQueue {
         ) {
 
       FolioClient folio = new FolioClient(prop,"Folio");
-      Locations locations = new Locations(folio);
-      ReferenceData holdingsNoteTypes = new ReferenceData(folio, "/holdings-note-types","name");
-      ReferenceData callNumberTypes = new ReferenceData(folio, "/call-number-types","name");
-      ReferenceData statCodes = new ReferenceData(folio,"/statistical-codes","code");
-      LoanTypes.initialize(folio);
-      ServicePoints.initialize(folio);
-      Items.initialize(folio, locations);
-
-      for (int i = 0; i < 500_000; i++){
-        BibToUpdate bib = null;
-        Set<Integer> ids = new HashSet<>();
-        Integer priority = null;
-        List<Integer> lockIds = new ArrayList<>();
-        try (  ResultSet rs = readQStmt.executeQuery() ) {
-
-          BIB: while ( rs.next() ) {
-
-            // batch only within a single priority level
-            if (priority == null)
-              priority = rs.getInt("priority");
-            else if ( priority < rs.getInt("priority"))
-              break;
-            String bibId = rs.getString("hrid");
-
-            // Attempt to lock bib, and skip if fails
-            createLockStmt.setString(1,bibId);
-            try {
-              createLockStmt.executeUpdate();
-            } catch (SQLException e) {
-              System.out.println("Tried to lock instance "+bibId);
-              continue BIB;
-            }
-
-            // Get all queue items for selected bib
-            allForBib.setString(1, bibId);
-            try ( ResultSet rs2 = allForBib.executeQuery() ) {
-              Set<Change> changes = new HashSet<>();
-              while (rs2.next()) {
-                changes.add(new Change(Change.Type.RECORD,null,rs2.getString("cause"),
-                                       rs2.getTimestamp("record_date"),null));
-                int id = rs2.getInt("id");
-                ids.add(id);
-              }
-              bib = new BibToUpdate(bibId,changes);
-            }
-            try ( ResultSet generatedKeys = createLockStmt.getGeneratedKeys() ) {
-              if (generatedKeys.next()) lockIds.add( generatedKeys.getInt(1) );
-            }
-          }
+      ReferenceDataRegistry referenceData = ReferenceDataRegistry.start(folio, prop);
+
+      new AvailabilityPipeline(prop, 500_000, folio, solr, callNumberSolr,
+          referenceData.locations(), referenceData.holdingsNoteTypes(),
+          referenceData.callNumberTypes(), referenceData.statisticalCodes()).run();
+    }
+  }
+
+  static void acknowledge( List<BibToUpdate> completed,
+      PreparedStatement clearFromQueueStmt, PreparedStatement unlockStmt) throws SQLException {
+    if ( completed == null || completed.isEmpty() ) return;
+    for (BibToUpdate bib : completed)
+      for (int id : bib.queueIds) {
+        clearFromQueueStmt.setInt(1, id);
+        clearFromQueueStmt.addBatch();
+      }
+    clearFromQueueStmt.executeBatch();
+    for (BibToUpdate bib : completed) {
+      unlockStmt.setInt(1, bib.lockId);
+      unlockStmt.addBatch();
+    }
+    unlockStmt.executeBatch();
+  }
+
+  /**
+   * Claim up to claimBatch distinct instances from the queue, all at the most urgent queued
+   * priority. The bibLock rows and the queue rows for the whole batch are handled in a single
+   * transaction.
+   * @return null if the queue is empty, or an empty list if every candidate was already locked
+   *         by another worker.
+   */
+  static List<BibToUpdate> claimBibs( Connection inventoryDB,
+      PreparedStatement readQStmt, PreparedStatement createLockStmt, int claimBatch) throws SQLException {
+
+    inventoryDB.setAutoCommit(false);
+    try {
+
+      List<String> candidates = new ArrayList<>();
+      Integer priority = null;
+      try (  ResultSet rs = readQStmt.executeQuery() ) {
+        while ( rs.next() ) {
+          // batch only within a single priority level
+          if (priority == null)
+            priority = rs.getInt("priority");
+          else if ( priority < rs.getInt("priority"))
+            break;
+          String bibId = rs.getString("hrid");
+          if ( ! candidates.contains(bibId) ) candidates.add(bibId);
+          if ( candidates.size() == claimBatch ) break;
         }
+      }
+      if ( priority == null ) {
+        inventoryDB.commit();
+        return null;
+      }
 
-        if ( bib == null ) {
-          oldLocksCleanupStmt.executeUpdate();
-          queueRecordsNotRecentlyUpdated(inventoryDB,solr);
-        } else {
-          UpdateResults updateSuccess = updateBibInSolr(
-              folio,inventoryDB,classificationDB,solr,callNumberSolr,locations,
-              holdingsNoteTypes, callNumberTypes, statCodes, bib, priority);
-//          if (priority != null && priority <= 5)
-//            solr.blockUntilFinished();
-          if ( ! updateSuccess.equals(UpdateResults.FAILURE) ) {
-            for (int id : ids) {
-              clearFromQueueStmt.setInt(1, id);
-              clearFromQueueStmt.addBatch();
-            }
-            clearFromQueueStmt.executeBatch();
-            for (int lockId : lockIds) {
-              unlockStmt.setInt(1, lockId);
-              unlockStmt.addBatch();
-            }
-            unlockStmt.executeBatch();
-            if ( updateSuccess.equals(UpdateResults.NOBIBDATA) ) {
-              System.out.println(bib.bibId +" lacks processed bib data. Redirecting to gen queue.");
-              queueGen.setString(1, bib.bibId);
-              queueGen.setInt(2,priority);
-              Set<String> changes = new HashSet<>();
-              for (Change c : bib.changes)  changes.add(c.toString());
-              queueGen.setString(3, "Redirected from availability <"+String.join("; ",changes)+">");
-              queueGen.executeUpdate();
-            }
+      // Attempt to lock bibs, and skip any that fail
+      for ( String bibId : candidates ) {
+        createLockStmt.setString(1,bibId);
+        createLockStmt.addBatch();
+      }
+      int[] lockResults;
+      try {
+        lockResults = createLockStmt.executeBatch();
+      } catch (BatchUpdateException e) {
+        lockResults = e.getUpdateCounts();
+        createLockStmt.clearBatch();
+      }
+      Map<String,BibToUpdate> claimed = new LinkedHashMap<>();
+      for ( int i = 0; i < candidates.size(); i++ ) {
+        String bibId = candidates.get(i);
+        if ( i < lockResults.length && lockResults[i] != Statement.EXECUTE_FAILED )
+          claimed.put(bibId, new BibToUpdate(bibId, new HashSet<>(), priority));
+        else
+          System.out.println("Tried to lock instance "+bibId);
+      }
+      if ( claimed.isEmpty() ) {
+        inventoryDB.commit();
+        return new ArrayList<>();
+      }
+
+      // Get the locks and all queue items for the selected bibs
+      try ( PreparedStatement allForBibs = inventoryDB.prepareStatement(
+          "SELECT bibLock.hrid, bibLock.id AS lockId, availQueue.id, cause, record_date"+
+          "  FROM bibLock"+
+          "  LEFT JOIN availQueue ON availQueue.hrid = bibLock.hrid"+
+          " WHERE bibLock.hrid IN ("+String.join(",",Collections.nCopies(claimed.size(),"?"))+")") ) {
+        int param = 1;
+        for ( String bibId : claimed.keySet() )
+          allForBibs.setString(param++, bibId);
+        try ( ResultSet rs = allForBibs.executeQuery() ) {
+          while ( rs.next() ) {
+            BibToUpdate bib = claimed.get(rs.getString("hrid"));
+            bib.lockId = rs.getInt("lockId");
+            int id = rs.getInt("id");
+            if ( rs.wasNull() ) continue;
+            bib.queueIds.add(id);
+            bib.changes.add(new Change(Change.Type.RECORD,null,rs.getString("cause"),
+                                       rs.getTimestamp("record_date"),null));
           }
         }
       }
-//      solr.blockUntilFinished();
+
+      inventoryDB.commit();
+      return new ArrayList<>(claimed.values());
+
+    } catch (SQLException e) {
+      inventoryDB.rollback();
+      throw e;
+    } finally {
+      inventoryDB.setAutoCommit(true);
     }
   }
 
 
-  private static void queueRecordsNotRecentlyUpdated(Connection inventory, SolrClient solr)
+  static void queueRecordsNotRecentlyUpdated(Connection inventory, SolrClient solr)
       throws SQLException, SolrServerException, IOException {
 
     // Confirm that queue is actually empty
@@ -286,17 +286,20 @@ public class ProcessAvailabilityQueue {
       "       callnumber_solr_fields,  otherids_solr_fields" + 
       "  FROM processedMarcData"+
       " WHERE hrid = ?";
-  static UpdateResults updateBibInSolr(
+  /**
+   * Build the main-core and call number browse Solr documents for changedBib, leaving them on
+   * changedBib for the Solr write stage.
+   */
+  static UpdateResults buildSolrDocuments(
       FolioClient folio, Connection inventory, Connection classificationDB,
-      SolrClient solr, SolrClient callNumberSolr,Locations locations,ReferenceData holdingsNoteTypes,
+      Locations locations,ReferenceData holdingsNoteTypes,
       ReferenceData callNumberTypes, ReferenceData statCodes, BibToUpdate changedBib, Integer priority)
       throws SQLException, IOException, InterruptedException, AuthenticationException {
 
     Set<SolrInputDocument> callnumSolrDocs = new HashSet<>();
     String bibId = changedBib.bibId;
     SolrInputDocument doc = null;
-    Map<String,Object> instance = null;
-    String instanceId = null;
+    InstanceRecord instance = null;
 
     try (PreparedStatement pstmt = inventory.prepareStatement(solrFieldsDataQuery)){
 
@@ -315,10 +318,8 @@ public class ProcessAvailabilityQueue {
 
         instanceByHrid.setString(1, bibId);
         try ( ResultSet rs1 = instanceByHrid.executeQuery() ) {
-          while (rs1.next()) {
-            instanceId = rs1.getString("id");
-            instance = mapper.readValue( rs1.getString("content"), Map.class);
-          }
+          while (rs1.next())
+            instance = FolioRecords.read( rs1.getString("content"), InstanceRecord.class);
         }
       }
     }
@@ -327,7 +328,7 @@ public class ProcessAvailabilityQueue {
       System.out.printf("Instances not found for hrid %s\n",bibId);
       return UpdateResults.FAILURE;
     }
-    doc.addField("instance_id", instanceId);
+    doc.addField("instance_id", instance.id);
     HoldingSet holdings = Holdings.retrieveHoldingsByInstanceHrid(
         inventory,locations,holdingsNoteTypes,callNumberTypes, String.valueOf(bibId));
     ItemList items = Items.retrieveItemsForHoldings(folio, inventory, bibId, holdings);
@@ -469,18 +470,10 @@ public class ProcessAvailabilityQueue {
     System.out.println(bibId+" ("+doc.getFieldValue("title_display")+"): "+String.join("; ",
         changes)+" priority:"+priority);
 
-    try {
-
-      solr.add(doc);
-      callNumberSolr.deleteByQuery("bibid:"+bibId);
-      if ( ! callnumSolrDocs.isEmpty() && active )
-        callNumberSolr.add(callnumSolrDocs);
-    } catch (SolrServerException | RemoteSolrException e) {
-      System.out.printf("Error communicating with Solr server after processing.");
-      e.printStackTrace();
-      Thread.sleep(5000);
-      return UpdateResults.FAILURE;
-    }
+    // Existing call number browse documents are removed for the bib either way
+    if ( ! active ) callnumSolrDocs.clear();
+    changedBib.doc = doc;
+    CallNumberBrowse.compareToIndexed(inventory, changedBib, callnumSolrDocs);
     return UpdateResults.SUCCESS;
   }
 
@@ -542,9 +535,23 @@ public class ProcessAvailabilityQueue {
   public static class BibToUpdate implements Comparable<BibToUpdate>{
     final String bibId;
     final Set<Change> changes;
+    final Set<Integer> queueIds = new HashSet<>();
+    final Integer priority;
+    int lockId;
+    SolrInputDocument doc = null;
+    Collection<SolrInputDocument> callnumDocs = null;
+    // Unless all of the bib's browse documents are replaced, only callnumDocs are written
+    // and callnumDeletes deleted, with callnumHashes to be stored once that's done
+    boolean callnumReplaceAll = true;
+    List<String> callnumDeletes = new ArrayList<>();
+    Map<String,String> callnumHashes = null;
     public BibToUpdate(String bibId, Set<Change> changes) {
+      this(bibId, changes, null);
+    }
+    public BibToUpdate(String bibId, Set<Change> changes, Integer priority) {
       this.bibId = bibId;
       this.changes = changes;
+      this.priority = priority;
     }
     @Override public int compareTo(BibToUpdate o) {
       if ( o == null ) return -1;
@@ -556,6 +563,5 @@ public class ProcessAvailabilityQueue {
     }
     @Override public int hashCode() { return this.bibId.hashCode(); }
   }
-  private static ObjectMapper mapper = new ObjectMapper();
-  private static enum UpdateResults { SUCCESS, FAILURE, NOBIBDATA; }
+  static enum UpdateResults { SUCCESS, FAILURE, NOBIBDATA; }
 }
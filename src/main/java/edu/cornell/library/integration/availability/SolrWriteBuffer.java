@@ -0,0 +1,100 @@
+package edu.cornell.library.integration.availability;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.impl.BaseHttpSolrClient.RemoteSolrException;
+import org.apache.solr.client.solrj.util.ClientUtils;
+import org.apache.solr.common.SolrInputDocument;
+
+import edu.cornell.library.integration.availability.ProcessAvailabilityQueue.BibToUpdate;
+
+/**
+ * Collects main-core and call number browse documents across several bibs so they can be
+ * written to Solr in a few requests. A flush is due once maxBibs bibs are waiting, or once the
+ * oldest waiting bib has been held for maxWaitMillis. Only browse documents that changed are
+ * sent, and dropped ones are deleted by id, except for bibs whose browse documents are all
+ * replaced (see CallNumberBrowse.compareToIndexed).
+ */
+class SolrWriteBuffer {
+
+  private final SolrClient solr;
+  private final SolrClient callNumberSolr;
+  private final int maxBibs;
+  private final long maxWaitMillis;
+
+  private final List<BibToUpdate> bibs = new ArrayList<>();
+  private final List<SolrInputDocument> docs = new ArrayList<>();
+  private final List<SolrInputDocument> callnumDocs = new ArrayList<>();
+  private final List<String> callnumDeletes = new ArrayList<>();
+  private final List<String> replacedBibIds = new ArrayList<>();
+  private long oldestAdded = 0;
+
+  SolrWriteBuffer( SolrClient solr, SolrClient callNumberSolr, int maxBibs, long maxWaitMillis ) {
+    this.solr = solr;
+    this.callNumberSolr = callNumberSolr;
+    this.maxBibs = maxBibs;
+    this.maxWaitMillis = maxWaitMillis;
+  }
+
+  void add( BibToUpdate bib ) {
+    if ( this.bibs.isEmpty() ) this.oldestAdded = System.currentTimeMillis();
+    this.bibs.add(bib);
+    this.docs.add(bib.doc);
+    this.callnumDocs.addAll(bib.callnumDocs);
+    if ( bib.callnumReplaceAll )
+      this.replacedBibIds.add(bib.bibId);
+    else
+      this.callnumDeletes.addAll(bib.callnumDeletes);
+  }
+
+  int size() { return this.bibs.size(); }
+
+  boolean isFlushDue() {
+    if ( this.bibs.isEmpty() ) return false;
+    return this.bibs.size() >= this.maxBibs
+        || System.currentTimeMillis() - this.oldestAdded >= this.maxWaitMillis;
+  }
+
+  /**
+   * Write all buffered documents to Solr, with the call number browse changes of every buffered
+   * bib.
+   * @return the bibs written, which may now be removed from the queue, or null if the write
+   *         failed. Failed bibs are dropped from the buffer and left queued and locked, so they
+   *         are retried once their locks expire.
+   */
+  List<BibToUpdate> flush() throws IOException, InterruptedException {
+    if ( this.bibs.isEmpty() ) return new ArrayList<>();
+    List<BibToUpdate> written = new ArrayList<>(this.bibs);
+    try {
+      this.solr.add(this.docs);
+      if ( ! this.replacedBibIds.isEmpty() )
+        this.callNumberSolr.deleteByQuery(callNumberDeleteQuery(this.replacedBibIds));
+      if ( ! this.callnumDeletes.isEmpty() )
+        this.callNumberSolr.deleteById(this.callnumDeletes);
+      if ( ! this.callnumDocs.isEmpty() )
+        this.callNumberSolr.add(this.callnumDocs);
+    } catch (SolrServerException | RemoteSolrException e) {
+      System.out.printf("Error communicating with Solr server writing %d bibs.\n",written.size());
+      e.printStackTrace();
+      Thread.sleep(5000);
+      written = null;
+    }
+    this.bibs.clear();
+    this.docs.clear();
+    this.callnumDocs.clear();
+    this.callnumDeletes.clear();
+    this.replacedBibIds.clear();
+    return written;
+  }
+
+  static String callNumberDeleteQuery( Collection<String> bibIds ) {
+    List<String> escaped = new ArrayList<>();
+    for ( String bibId : bibIds ) escaped.add(ClientUtils.escapeQueryChars(bibId));
+    return "bibid:("+String.join(" OR ", escaped)+")";
+  }
+}
@@ -15,6 +15,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import org.apache.solr.common.SolrInputDocument;
@@ -57,7 +58,31 @@ public class WorksAndInventory {
   private final static String selectMRS = "SELECT mfhd_id, record_date FROM mfhdRecsSolr WHERE bib_id = ?";
   private final static String updateMRS = "REPLACE INTO mfhdRecsSolr (bib_id, mfhd_id, record_date) VALUES (?,?,?)";
   private final static String deleteMRS = "DELETE FROM mfhdRecsSolr WHERE bib_id = ? AND mfhd_id = ?";
-  private static Map<String,PreparedStatement> pstmts = new HashMap<>();
+  // Prepared statements are cached per connection, so parallel workers each use their own.
+  // Callers release a connection's statements before closing it; any left behind by a caller
+  // that didn't are dropped once their connection is found closed.
+  private static Map<Connection,Map<String,PreparedStatement>> pstmtsByConnection = new ConcurrentHashMap<>();
+  private static Map<String,PreparedStatement> pstmts( Connection inventory ) {
+    Map<String,PreparedStatement> pstmts = pstmtsByConnection.get(inventory);
+    if ( pstmts != null ) return pstmts;
+    pstmtsByConnection.keySet().removeIf(WorksAndInventory::isClosed);
+    return pstmtsByConnection.computeIfAbsent(inventory, c -> new HashMap<>());
+  }
+
+  /**
+   * Close and forget the statements prepared on inventory, to be called before the connection
+   * is closed.
+   */
+  public static void releaseStatements( Connection inventory ) {
+    Map<String,PreparedStatement> pstmts = pstmtsByConnection.remove(inventory);
+    if ( pstmts == null ) return;
+    for ( PreparedStatement pstmt : pstmts.values() )
+      try { pstmt.close(); } catch (SQLException e) { e.printStackTrace(); }
+  }
+
+  private static boolean isClosed( Connection c ) {
+    try { return c.isClosed(); } catch (@SuppressWarnings("unused") SQLException e) { return true; }
+  }
 
   public static void updateInventory(Connection inventory, SolrInputDocument doc)
       throws SQLException, JsonParseException, JsonMappingException, IOException {
@@ -66,12 +91,12 @@ public class WorksAndInventory {
     Versions recordDates = getRecordDates( doc );
 
     // Get old and new linking metadata (metadata needed for "other forms" links
-    if (! pstmts.containsKey("selectBRS")) pstmts.put("selectBRS", inventory.prepareStatement(selectBRS));
-    pstmts.get("selectBRS").setInt(1,Integer.valueOf(bibId));
+    if (! pstmts(inventory).containsKey("selectBRS")) pstmts(inventory).put("selectBRS", inventory.prepareStatement(selectBRS));
+    pstmts(inventory).get("selectBRS").setInt(1,Integer.valueOf(bibId));
 
     boolean newBib;
     LinkingMetadata oldMeta = null;
-    try (ResultSet rs = pstmts.get("selectBRS").executeQuery()) {
+    try (ResultSet rs = pstmts(inventory).get("selectBRS").executeQuery()) {
       newBib = ! rs.next();
       if ( ! newBib )
         oldMeta = getOldMetadata( rs );
@@ -82,11 +107,11 @@ public class WorksAndInventory {
 
 
     // Get old and new OCLC work associations
-    if (! pstmts.containsKey("selectB2W")) pstmts.put("selectB2W", inventory.prepareStatement(selectB2W));
-    pstmts.get("selectB2W").setString(1,bibId);
+    if (! pstmts(inventory).containsKey("selectB2W")) pstmts(inventory).put("selectB2W", inventory.prepareStatement(selectB2W));
+    pstmts(inventory).get("selectB2W").setString(1,bibId);
 
     Set<WorkLink> oldWorks = new HashSet<>();
-    try (ResultSet rs = pstmts.get("selectB2W").executeQuery()) {
+    try (ResultSet rs = pstmts(inventory).get("selectB2W").executeQuery()) {
       while (rs.next())
         oldWorks.add(new WorkLink(rs.getLong("oclc_id"),rs.getLong("work_id")));
     }
@@ -136,11 +161,11 @@ public class WorksAndInventory {
   }
 
   private static void updateHoldingsInInventory(String bibId, Versions recordDates, Connection inventory) throws SQLException {
-    if (! pstmts.containsKey("selectMRS")) pstmts.put("selectMRS", inventory.prepareStatement(selectMRS));
+    if (! pstmts(inventory).containsKey("selectMRS")) pstmts(inventory).put("selectMRS", inventory.prepareStatement(selectMRS));
 
     Map<Integer,Timestamp> previousHoldings = new HashMap<>();
-    pstmts.get("selectMRS").setInt(1, Integer.valueOf(bibId));
-    try ( ResultSet rs = pstmts.get("selectMRS").executeQuery()) {
+    pstmts(inventory).get("selectMRS").setInt(1, Integer.valueOf(bibId));
+    try ( ResultSet rs = pstmts(inventory).get("selectMRS").executeQuery()) {
       while (rs.next())
         previousHoldings.put(rs.getInt(1), rs.getTimestamp(2));
     }
@@ -159,21 +184,21 @@ public class WorksAndInventory {
   
         if ( ! update ) continue;
   
-        if (! pstmts.containsKey("updateMRS")) pstmts.put("updateMRS", inventory.prepareStatement(updateMRS));
-        pstmts.get("updateMRS").setInt(1, Integer.valueOf(bibId));
-        pstmts.get("updateMRS").setInt(2, mfhdId);
-        pstmts.get("updateMRS").setTimestamp(3, e.getValue());
-        pstmts.get("updateMRS").executeUpdate();
+        if (! pstmts(inventory).containsKey("updateMRS")) pstmts(inventory).put("updateMRS", inventory.prepareStatement(updateMRS));
+        pstmts(inventory).get("updateMRS").setInt(1, Integer.valueOf(bibId));
+        pstmts(inventory).get("updateMRS").setInt(2, mfhdId);
+        pstmts(inventory).get("updateMRS").setTimestamp(3, e.getValue());
+        pstmts(inventory).get("updateMRS").executeUpdate();
       }
 
     if ( previousHoldings.isEmpty()) return;
-    if (! pstmts.containsKey("deleteMRS")) pstmts.put("deleteMRS", inventory.prepareStatement(deleteMRS));
-    pstmts.get("deleteMRS").setInt(1, Integer.valueOf(bibId));
+    if (! pstmts(inventory).containsKey("deleteMRS")) pstmts(inventory).put("deleteMRS", inventory.prepareStatement(deleteMRS));
+    pstmts(inventory).get("deleteMRS").setInt(1, Integer.valueOf(bibId));
     for (Integer mfhdId : previousHoldings.keySet()) {
-      pstmts.get("deleteMRS").setInt(2, mfhdId);
-      pstmts.get("deleteMRS").addBatch();
+      pstmts(inventory).get("deleteMRS").setInt(2, mfhdId);
+      pstmts(inventory).get("deleteMRS").addBatch();
     }
-    pstmts.get("deleteMRS").executeBatch();
+    pstmts(inventory).get("deleteMRS").executeBatch();
   }
 
   private static void insertWorksFieldstoSolrDoc( String thisBibId, Set<WorkLink> works, SolrInputDocument doc, Connection inventory )
@@ -186,8 +211,8 @@ public class WorksAndInventory {
     if (bibIds.isEmpty()) return;
 
     for( String bibId : bibIds ) {
-      pstmts.get("selectBRS").setInt(1,Integer.valueOf(bibId));
-      try ( ResultSet rs = pstmts.get("selectBRS").executeQuery() ) {
+      pstmts(inventory).get("selectBRS").setInt(1,Integer.valueOf(bibId));
+      try ( ResultSet rs = pstmts(inventory).get("selectBRS").executeQuery() ) {
         while (rs.next()) {
           Map<String,Object> json = new HashMap<>();
           json.put("bibid", Integer.valueOf(bibId));
@@ -238,23 +263,23 @@ public class WorksAndInventory {
   }
 
   private static void insertConnectedBibsToAvailQueue( Set<String> bibs, String origBib, Connection inventory) throws SQLException {
-    if (! pstmts.containsKey("insertAvailQ")) pstmts.put("insertAvailQ", inventory.prepareStatement(insertAvailQ));
-    pstmts.get("insertAvailQ").setInt(2, 7);
-    pstmts.get("insertAvailQ").setString(3, "Title Link from b"+origBib);
+    if (! pstmts(inventory).containsKey("insertAvailQ")) pstmts(inventory).put("insertAvailQ", inventory.prepareStatement(insertAvailQ));
+    pstmts(inventory).get("insertAvailQ").setInt(2, 7);
+    pstmts(inventory).get("insertAvailQ").setString(3, "Title Link from b"+origBib);
     for ( String bib : bibs ) {
-      pstmts.get("insertAvailQ").setString(1, bib);
-      pstmts.get("insertAvailQ").addBatch();
+      pstmts(inventory).get("insertAvailQ").setString(1, bib);
+      pstmts(inventory).get("insertAvailQ").addBatch();
     }
-    pstmts.get("insertAvailQ").executeBatch();
+    pstmts(inventory).get("insertAvailQ").executeBatch();
 
   }
 
   private static Set<String> getBibsForWorks(Set<WorkLink> works, Connection inventory) throws SQLException {
     Set<String> bibs = new HashSet<>();
-    if (! pstmts.containsKey("selectB2W2")) pstmts.put("selectB2W2", inventory.prepareStatement(selectB2W2));
+    if (! pstmts(inventory).containsKey("selectB2W2")) pstmts(inventory).put("selectB2W2", inventory.prepareStatement(selectB2W2));
     for ( WorkLink w : works ) {
-      pstmts.get("selectB2W2").setLong(1, w.workId);
-      try ( ResultSet rs = pstmts.get("selectB2W2").executeQuery() ) {
+      pstmts(inventory).get("selectB2W2").setLong(1, w.workId);
+      try ( ResultSet rs = pstmts(inventory).get("selectB2W2").executeQuery() ) {
         while (rs.next())
           bibs.add(rs.getString(1));
       }
@@ -267,37 +292,37 @@ public class WorksAndInventory {
     // De-activate old works associations
     for ( WorkLink w : oldWorks )
       if ( ! works.contains(w)) {
-        if (! pstmts.containsKey("updateB2W")) pstmts.put("updateB2W", inventory.prepareStatement(updateB2W));
-        pstmts.get("updateB2W").setString(1, bibId);
-        pstmts.get("updateB2W").setLong(2, w.oclcId);
-        pstmts.get("updateB2W").setLong(3, w.workId);
-        pstmts.get("updateB2W").executeUpdate();
+        if (! pstmts(inventory).containsKey("updateB2W")) pstmts(inventory).put("updateB2W", inventory.prepareStatement(updateB2W));
+        pstmts(inventory).get("updateB2W").setString(1, bibId);
+        pstmts(inventory).get("updateB2W").setLong(2, w.oclcId);
+        pstmts(inventory).get("updateB2W").setLong(3, w.workId);
+        pstmts(inventory).get("updateB2W").executeUpdate();
       }
 
     // Add new works associations
     for ( WorkLink w : works )
       if ( ! oldWorks.contains(w)) {
-        if (! pstmts.containsKey("insertB2W")) pstmts.put("insertB2W", inventory.prepareStatement(insertB2W));
-        pstmts.get("insertB2W").setString(1, bibId);
-        pstmts.get("insertB2W").setLong(2, w.oclcId);
-        pstmts.get("insertB2W").setLong(3, w.workId);
-        pstmts.get("insertB2W").executeUpdate();
+        if (! pstmts(inventory).containsKey("insertB2W")) pstmts(inventory).put("insertB2W", inventory.prepareStatement(insertB2W));
+        pstmts(inventory).get("insertB2W").setString(1, bibId);
+        pstmts(inventory).get("insertB2W").setLong(2, w.oclcId);
+        pstmts(inventory).get("insertB2W").setLong(3, w.workId);
+        pstmts(inventory).get("insertB2W").executeUpdate();
       }
   }
 
   private static void updateIndexDate(String bibId, Timestamp recordDate, Connection inventory) throws SQLException {
 
-    if (! pstmts.containsKey("updateBRS")) pstmts.put("updateBRS", inventory.prepareStatement(updateBRS));
-    pstmts.get("updateBRS").setTimestamp(1, recordDate);
-    pstmts.get("updateBRS").setInt(2, Integer.valueOf(bibId));
-    pstmts.get("updateBRS").executeUpdate();
+    if (! pstmts(inventory).containsKey("updateBRS")) pstmts(inventory).put("updateBRS", inventory.prepareStatement(updateBRS));
+    pstmts(inventory).get("updateBRS").setTimestamp(1, recordDate);
+    pstmts(inventory).get("updateBRS").setInt(2, Integer.valueOf(bibId));
+    pstmts(inventory).get("updateBRS").executeUpdate();
   }
 
   private static void pushLinkingUpdate(LinkingMetadata meta, String bibId, Timestamp recordDate, Connection inventory) throws SQLException {
 
-    if (! pstmts.containsKey("replaceBRS")) pstmts.put("replaceBRS", inventory.prepareStatement(replaceBRS));
+    if (! pstmts(inventory).containsKey("replaceBRS")) pstmts(inventory).put("replaceBRS", inventory.prepareStatement(replaceBRS));
     @SuppressWarnings("resource")
-    PreparedStatement p = pstmts.get("replaceBRS");
+    PreparedStatement p = pstmts(inventory).get("replaceBRS");
     p.setInt(1, Integer.valueOf(bibId));
     p.setTimestamp(2, recordDate);
     p.setString(3, meta.title);
@@ -316,12 +341,12 @@ public class WorksAndInventory {
     Set<WorkLink> works = new HashSet<>();
     if ( oclcIds == null || oclcIds.isEmpty() ) return works;
 
-    if (! pstmts.containsKey("selectW2O")) pstmts.put("selectW2O", inventory.prepareStatement(selectW2O));
+    if (! pstmts(inventory).containsKey("selectW2O")) pstmts(inventory).put("selectW2O", inventory.prepareStatement(selectW2O));
     for ( String oclc : oclcIds.split(",") ) {
       if ( oclc.isEmpty() || oclc.length() > 18 ) continue;
       Long oclcId = Long.valueOf(oclc);
-      pstmts.get("selectW2O").setLong(1,oclcId);
-      try (ResultSet rs = pstmts.get("selectW2O").executeQuery()) {
+      pstmts(inventory).get("selectW2O").setLong(1,oclcId);
+      try (ResultSet rs = pstmts(inventory).get("selectW2O").executeQuery()) {
         while (rs.next())
           works.add(new WorkLink(oclcId,rs.getLong("work_id")));
       }
@@ -1,11 +1,9 @@
 package edu.cornell.library.integration.exports;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.Connection;
@@ -45,13 +43,13 @@ public class CC0Export {
       System.out.println("Bib count: "+bibs.size());
       int fileCount = 0;
       SimpleDateFormat format = new SimpleDateFormat("yyyy-MM");
-      String filenamePattern = "cornell-library-bibliographic_"+format.format(new Date())+"_pt%02d.marc.xml";
+      MarcFileWriter.Format outputFormat = MarcFileWriter.Format.fromConfig(prop);
+      String filenamePattern = "cornell-library-bibliographic_"+format.format(new Date())
+          +"_pt%02d"+((outputFormat.equals(MarcFileWriter.Format.XML))?".marc.xml":".mrc");
       int recordsPerFile = 300_000;
       int recordsThisFile = 0;
       Path outputFile = Paths.get(String.format(filenamePattern,++fileCount));
-      BufferedWriter writer = Files.newBufferedWriter(outputFile);
-      writer.write("<?xml version='1.0' encoding='UTF-8'?>"
-          + "<collection xmlns=\"http://www.loc.gov/MARC21/slim\">\n");
+      MarcFileWriter writer = new MarcFileWriter(outputFile, outputFormat);
 
       BIB: for(String bibid : bibs) {
 
@@ -80,22 +78,18 @@ public class CC0Export {
           }
 
         ExportUtils.cleanUnwantedDataFields(bibRec, null, Arrays.asList(new ExportUtils.FieldRange("857","999")),false);
-        writer.write(bibRec.toString("xml").replaceAll("^<\\?xml version=[\"']1.0[\"'] encoding=[\"']UTF-8[\"']\\?>", "")
-            .replace(" xmlns=\"http://www.loc.gov/MARC21/slim\"","")+"\n");
+        if ( ! writer.write(bibRec) ) {
+          System.out.printf("Skipping %8s: too long for binary MARC\n",bibid);
+          continue BIB;
+        }
         if ( ++recordsThisFile == recordsPerFile ) {
 //        if ( Files.size(outputFile) > 209715200L /*200MB*/ ) {
-          writer.write("</collection>\n");
-          writer.flush();
           writer.close();
           outputFile = Paths.get(String.format(filenamePattern,++fileCount));
-          writer = Files.newBufferedWriter(outputFile);
-          writer.write("<?xml version='1.0' encoding='UTF-8'?>"
-              + "<collection xmlns=\"http://www.loc.gov/MARC21/slim\">\n");
+          writer = new MarcFileWriter(outputFile, outputFormat);
           recordsThisFile = 0;
         }
       }
-      writer.write("</collection>\n");
-      writer.flush();
       writer.close();
 
     }
@@ -1,6 +1,5 @@
 package edu.cornell.library.integration.exports;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
@@ -34,11 +33,10 @@ import edu.cornell.library.integration.folio.Holdings.HoldingSet;
 import edu.cornell.library.integration.folio.Items;
 import edu.cornell.library.integration.folio.Items.Item;
 import edu.cornell.library.integration.folio.Items.ItemList;
-import edu.cornell.library.integration.folio.LoanTypes;
 import edu.cornell.library.integration.folio.Locations;
 import edu.cornell.library.integration.folio.FolioClient;
 import edu.cornell.library.integration.folio.ReferenceData;
-import edu.cornell.library.integration.folio.ServicePoints;
+import edu.cornell.library.integration.folio.ReferenceDataRegistry;
 import edu.cornell.library.integration.marc.ControlField;
 import edu.cornell.library.integration.marc.DataField;
 import edu.cornell.library.integration.marc.MarcRecord;
@@ -57,20 +55,17 @@ public class GoogleExport {
 
       FolioClient folio = new FolioClient(prop,"Folio");
 
-      Locations locations = new Locations(folio);
-      ReferenceData holdingsNoteTypes = new ReferenceData(folio, "/holdings-note-types","name");
-      ReferenceData callNumberTypes = new ReferenceData(folio, "/call-number-types","name");
-      LoanTypes.initialize(folio);
-      ServicePoints.initialize(folio);
-      Items.initialize(folio, locations);
+      ReferenceDataRegistry referenceData = ReferenceDataRegistry.start(folio, prop);
+      Locations locations = referenceData.locations();
+      ReferenceData holdingsNoteTypes = referenceData.holdingsNoteTypes();
+      ReferenceData callNumberTypes = referenceData.callNumberTypes();
 
       Set<String> bibs = ExportUtils.getBibsToExport(inventory);
       System.out.println("Bib count: "+bibs.size());
       int fileCount = 0;
-      Path outputFile = Paths.get(String.format("cornell-export-%d.xml",++fileCount));
-      BufferedWriter writer = Files.newBufferedWriter(outputFile);
-      writer.write("<?xml version='1.0' encoding='UTF-8'?>"
-          + "<collection xmlns=\"http://www.loc.gov/MARC21/slim\">\n");
+      MarcFileWriter.Format outputFormat = MarcFileWriter.Format.fromConfig(prop);
+      Path outputFile = Paths.get(String.format("cornell-export-%d%s",++fileCount,outputFormat.extension));
+      MarcFileWriter writer = new MarcFileWriter(outputFile, outputFormat);
 
       BIB: for (String bibid : bibs) {
 
@@ -127,20 +122,16 @@ public class GoogleExport {
               "Exporting %8s with %s items after elimination of %s master bound-withs\n",
               bibid, items, masterBWs);
 
-        writer.write(bibRec.toString("xml").replace("<?xml version='1.0' encoding='UTF-8'?>", "")
-            .replace(" xmlns=\"http://www.loc.gov/MARC21/slim\"","")+"\n");
+        if ( ! writer.write(bibRec) ) {
+          System.out.printf("Skipping %8s: too long for binary MARC\n",bibid);
+          continue BIB;
+        }
         if ( Files.size(outputFile) > 3113851290L /*2.9GB*/ ) {
-          writer.write("</collection>\n");
-          writer.flush();
           writer.close();
-          outputFile = Paths.get(String.format("cornell-export-%d.xml",++fileCount));
-          writer = Files.newBufferedWriter(outputFile);
-          writer.write("<?xml version='1.0' encoding='UTF-8'?>"
-              + "<collection xmlns=\"http://www.loc.gov/MARC21/slim\">\n");
+          outputFile = Paths.get(String.format("cornell-export-%d%s",++fileCount,outputFormat.extension));
+          writer = new MarcFileWriter(outputFile, outputFormat);
         }
       }
-      writer.write("</collection>\n");
-      writer.flush();
       writer.close();
 
     }
@@ -0,0 +1,68 @@
+package edu.cornell.library.integration.exports;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import edu.cornell.library.integration.marc.MarcRecord;
+
+/**
+ * An export file of MARC records, written either as a MARC XML collection or as binary MARC21.
+ * The format is chosen with the exportFormat property, as xml (the default) or marc.
+ */
+class MarcFileWriter implements Closeable {
+
+  enum Format {
+    XML(".xml"), MARC21(".mrc");
+
+    final String extension;
+    private Format(String extension) { this.extension = extension; }
+
+    static Format fromConfig( Properties prop ) {
+      String format = prop.getProperty("exportFormat","xml");
+      if ( format.equalsIgnoreCase("xml") )  return XML;
+      if ( format.equalsIgnoreCase("marc") ) return MARC21;
+      throw new IllegalArgumentException("exportFormat must be xml or marc, not "+format);
+    }
+  }
+
+  MarcFileWriter( Path file, Format format ) throws IOException {
+    this.out = new BufferedOutputStream(Files.newOutputStream(file), 65536);
+    if ( format.equals(Format.XML) ) {
+      this.xml = new BufferedWriter(new OutputStreamWriter(this.out, StandardCharsets.UTF_8), 65536);
+      this.xml.write("<?xml version='1.0' encoding='UTF-8'?>"
+          + "<collection xmlns=\"http://www.loc.gov/MARC21/slim\">\n");
+    } else
+      this.xml = null;
+  }
+
+  /**
+   * @return false if the record couldn't be written, because it is too long for binary MARC21
+   */
+  boolean write( MarcRecord rec ) throws IOException {
+    if ( this.xml == null )
+      return rec.writeMarc21(this.out);
+    rec.writeXml(this.xml);
+    this.xml.write('\n');
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    if ( this.xml != null ) {
+      this.xml.write("</collection>\n");
+      this.xml.close();
+    } else
+      this.out.close();
+  }
+
+  private final OutputStream out;
+  private final BufferedWriter xml;
+}
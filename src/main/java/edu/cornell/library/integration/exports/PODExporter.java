@@ -1,13 +1,18 @@
 package edu.cornell.library.integration.exports;
 
 import java.io.BufferedWriter;
-import java.io.DataOutputStream;
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -30,19 +35,15 @@ import java.util.TreeSet;
 
 import javax.naming.AuthenticationException;
 
-import org.apache.commons.io.FileUtils;
-
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import edu.cornell.library.integration.folio.DownloadMARC;
 import edu.cornell.library.integration.folio.Holding;
 import edu.cornell.library.integration.folio.Holdings;
 import edu.cornell.library.integration.folio.Items;
-import edu.cornell.library.integration.folio.LoanTypes;
 import edu.cornell.library.integration.folio.Locations;
-import edu.cornell.library.integration.folio.FolioClient;
 import edu.cornell.library.integration.folio.ReferenceData;
-import edu.cornell.library.integration.folio.ServicePoints;
+import edu.cornell.library.integration.folio.ReferenceDataRegistry;
 import edu.cornell.library.integration.folio.Holdings.HoldingSet;
 import edu.cornell.library.integration.folio.Items.Item;
 import edu.cornell.library.integration.folio.Items.ItemList;
@@ -73,15 +74,16 @@ public class PODExporter {
   private final String podUrl;
   private final String podToken;
 
-  public PODExporter ( Connection inventory, FolioClient folio, Properties prop )
-      throws IOException, SQLException, AuthenticationException {
-    
-    this.locations = new Locations(folio);
-    this.holdingsNoteTypes = new ReferenceData(folio, "/holdings-note-types","name");
-    this.callNumberTypes = new ReferenceData(folio, "/call-number-types","name");
-    Items.initialize(folio,this.locations);
-    ServicePoints.initialize(folio);
-    LoanTypes.initialize(folio);
+  /**
+   * Exporters working in parallel, each with its own inventory connection, can share one
+   * ReferenceDataRegistry.
+   */
+  public PODExporter ( Connection inventory, ReferenceDataRegistry referenceData, Properties prop )
+      throws SQLException {
+
+    this.locations = referenceData.locations();
+    this.holdingsNoteTypes = referenceData.holdingsNoteTypes();
+    this.callNumberTypes = referenceData.callNumberTypes();
 
     this.inventory = inventory;
     this.insertInstancePodStmt = inventory.prepareStatement(
@@ -120,40 +122,51 @@ public class PODExporter {
 
   public static String hexdigits = "0123456789abcdef";
   public void pushFileToPod( String filename, String contentType ) throws IOException {
+    postFile( this.podUrl, this.podToken, Paths.get(filename), contentType );
+  }
+
+  /**
+   * Upload file to POD as a multipart form. The request is sent with chunked streaming, and the
+   * file is copied from its channel into the request, so memory use doesn't grow with file size.
+   * For a text file of no more than maxLoggedBody bytes, the request body is also logged.
+   * @return the HTTP response code
+   */
+  static int postFile( String podUrl, String podToken, Path file, String contentType )
+      throws IOException {
     Random generator = new Random();
     StringBuilder boundaryBuilder = new StringBuilder();
     boundaryBuilder.append("----------------------------");
     for (int i = 0; i < 12; i++) boundaryBuilder.append(hexdigits.charAt(generator.nextInt(16)));
     String boundary = boundaryBuilder.toString();
-    final URL fullPath = new URL(this.podUrl);
+    final URL fullPath = new URL(podUrl);
     final HttpURLConnection c = (HttpURLConnection) fullPath.openConnection();
     c.setRequestMethod("POST");
     c.setDoOutput(true);
     c.setDoInput(true);
+    c.setChunkedStreamingMode(65536);
 //    c.setRequestProperty("User-Agent", "curl/7.29.0");
 //    c.setRequestProperty("Host", getHostFromUrl(this.podUrl));
     c.setRequestProperty("Accept", "*/*");
-    c.setRequestProperty("Authorization", "Bearer "+this.podToken);
+    c.setRequestProperty("Authorization", "Bearer "+podToken);
     c.setRequestProperty("Content-Type","multipart/form-data;boundary="+boundary);
-    StringBuilder logBuilder = new StringBuilder();
-    DataOutputStream writer = new DataOutputStream(c.getOutputStream());
-    logBuilder.append("--"+boundary+"\r\n");
-    writer.writeBytes("--"+boundary+"\r\n");
-    logBuilder.append("Content-Disposition: form-data; name=\"upload[files][]\"; filename=\""
-        +filename+"\"\r\n");
-    writer.writeBytes("Content-Disposition: form-data; name=\"upload[files][]\"; filename=\""
-        +filename+"\"\r\n");
-    logBuilder.append("Content-Type: "+contentType+"\r\n\r\n");
-    writer.writeBytes("Content-Type: "+contentType+"\r\n\r\n");
-    logBuilder.append(new String(FileUtils.readFileToByteArray(new File(filename)),StandardCharsets.UTF_8));
-    writer.write(FileUtils.readFileToByteArray(new File(filename)));
-    logBuilder.append("\r\n");
-    writer.writeBytes("\r\n");
-    logBuilder.append("--"+boundary+"--\r\n");
-    writer.writeBytes("--"+boundary+"--\r\n");
-    if ( contentType.equals("text/plain") )
-      System.out.println("["+logBuilder.toString()+"]");
-    writer.flush();
+    String head = "--"+boundary+"\r\n"
+        + "Content-Disposition: form-data; name=\"upload[files][]\"; filename=\""
+        + file.getFileName()+"\"\r\n"
+        + "Content-Type: "+contentType+"\r\n\r\n";
+    String tail = "\r\n--"+boundary+"--\r\n";
+    try ( OutputStream writer = c.getOutputStream();
+          FileChannel channel = FileChannel.open(file) ) {
+      writer.write(head.getBytes(StandardCharsets.UTF_8));
+      WritableByteChannel out = Channels.newChannel(writer);
+      long size = channel.size();
+      for ( long position = 0; position < size; )
+        position += channel.transferTo(position, size - position, out);
+      writer.write(tail.getBytes(StandardCharsets.UTF_8));
+      if ( contentType.equals("text/plain") )
+        System.out.println("["+head+(( size <= maxLoggedBody )
+            ? new String(Files.readAllBytes(file),StandardCharsets.UTF_8)
+            : String.format("(%d bytes)",size))+tail+"]");
+    }
     int respCode = c.getResponseCode();
     System.out.println(respCode);
     try (InputStream is = c.getInputStream() ){
@@ -170,7 +183,9 @@ public class PODExporter {
         if ( s.hasNext() ) System.out.println("Error message: "+s.next());
       }
     }
+    return respCode;
   }
+  private static final long maxLoggedBody = 65536;
 
   static String getHostFromUrl(String url) {
 
@@ -184,6 +199,17 @@ public class PODExporter {
   public UpdateType exportBib(
       String instanceHrid, BufferedWriter recordWriter, BufferedWriter deleteWriter)
           throws SQLException, IOException, AuthenticationException {
+    return exportBib( instanceHrid, recordWriter, deleteWriter, false );
+  }
+
+  /**
+   * @param deleteWriter may be null if deletes aren't needed, as for a full export
+   * @param fullExport if true, every POD-active bib is written, whether or not it has changed
+   *   since last exported
+   */
+  public UpdateType exportBib( String instanceHrid,
+      BufferedWriter recordWriter, BufferedWriter deleteWriter, boolean fullExport )
+          throws SQLException, IOException, AuthenticationException {
 
     PreviousBibStatus prevStatus = getPrevPodStatus(instanceHrid);
 
@@ -192,7 +218,7 @@ public class PODExporter {
       if (this.verbose) System.out.printf("Instance Has been deleted #%s\n",instanceHrid);
       deletePodInventoryForDeletedInstance(instanceHrid);
       if (prevStatus.active) {
-        deleteWriter.write(instanceHrid+'\n');
+        if ( deleteWriter != null ) deleteWriter.write(instanceHrid+'\n');
         return UpdateType.DELETE;
       }
       return UpdateType.NONE;
@@ -207,7 +233,7 @@ public class PODExporter {
       if (this.verbose) System.out.printf("Skipping non-MARC instance #%s\n",instanceHrid);
       updatePodInventoryForInactiveInstance(instance,null,instanceModdate);
       if (prevStatus.active) {
-        deleteWriter.write(instanceHrid+'\n');
+        if ( deleteWriter != null ) deleteWriter.write(instanceHrid+'\n');
         return UpdateType.DELETE;
       }
       return UpdateType.NONE;
@@ -219,7 +245,7 @@ public class PODExporter {
       if ( this.verbose ) System.out.println(instanceHrid+" inactive due to suppression.");
       updatePodInventoryForInactiveInstance(instance,bibRec.moddate,instanceModdate);
       if (prevStatus.active) {
-        deleteWriter.write(instanceHrid+'\n');
+        if ( deleteWriter != null ) deleteWriter.write(instanceHrid+'\n');
         return UpdateType.DELETE;
       }
       return UpdateType.NONE;
@@ -231,7 +257,7 @@ public class PODExporter {
         if ( this.verbose ) System.out.println(instanceHrid+" inactive due NoEx.");
         updatePodInventoryForInactiveInstance(instance,bibRec.moddate,instanceModdate);
         if (prevStatus.active) {
-          deleteWriter.write(instanceHrid+'\n');
+          if ( deleteWriter != null ) deleteWriter.write(instanceHrid+'\n');
           return UpdateType.DELETE;
         }
         return UpdateType.NONE;
@@ -247,7 +273,7 @@ public class PODExporter {
       if ( this.verbose ) System.out.println(instanceHrid+" inactive due to no active holdings.");
       updatePodInventoryForInactiveInstance(instance,bibRec.moddate,instanceModdate);
       if (prevStatus.active) {
-        deleteWriter.write(instanceHrid+'\n');
+        if ( deleteWriter != null ) deleteWriter.write(instanceHrid+'\n');
         return UpdateType.DELETE;
       }
       return UpdateType.NONE;
@@ -259,16 +285,15 @@ public class PODExporter {
         System.out.printf("Sending %s because bib marc newer. (%s => %s)\n",
             instanceHrid, prevStatus.moddate, bibRec.moddate);
     }
-    if ( ! prevStatus.active
+    if ( fullExport
+        || ! prevStatus.active
         || bibRec.moddate.after(prevStatus.moddate)
         || areActiveHoldingsChanged(instanceHrid,holdingsAndItems) ) {
 
       if ( this.verbose ) System.out.println("Writing "+instanceHrid+" to export.");
       updatePodInventoryForActiveInstance(instance,bibRec.moddate,instanceModdate,holdingsAndItems);
-      recordWriter.write(bibRec.toString("xml")
-          .replace("<?xml version='1.0' encoding='UTF-8'?>", "")
-          .replace("<?xml version=\"1.0\" encoding=\"UTF-8\"?>", "")
-          .replace(" xmlns=\"http://www.loc.gov/MARC21/slim\"","")+"\n");
+      bibRec.writeXml(recordWriter);
+      recordWriter.write('\n');
       return UpdateType.UPDATE;
     }
 
@@ -341,8 +366,8 @@ public class PODExporter {
         if ( h.location.name != null)
           f852.subfields.add(new Subfield(++sfId,'b',h.location.name));
       }
-      if ( h.rawFolioHolding != null ) {
-        Map<String,Object> raw = h.rawFolioHolding;
+      if ( h.rawFolioHolding() != null ) {
+        Map<String,Object> raw = h.rawFolioHolding();
 
         if ( raw.containsKey("callNumberPrefix") ) {
           String prefix = (((String)raw.get("callNumberPrefix")).replaceAll("\n", "")).trim();
@@ -382,8 +407,8 @@ public class PODExporter {
       }
       holdingRec.dataFields.add(f852);
 
-      if ( h.rawFolioHolding != null ) {
-        Map<String,Object> raw = h.rawFolioHolding;
+      if ( h.rawFolioHolding() != null ) {
+        Map<String,Object> raw = h.rawFolioHolding();
 
         if ( raw.containsKey("holdingsStatements") ) {
           List<Map<String,String>> a = (List<Map<String,String>>)raw.get("holdingsStatements");
@@ -451,15 +476,15 @@ public class PODExporter {
             f890.subfields.add(new Subfield(6,'e',item.enumeration));
           if ( item.chron != null && ! item.chron.isEmpty() )
             f890.subfields.add(new Subfield(7,'c',item.chron));
-          if ( item.rawFolioItem.containsKey("yearCaption") ) {
-            List<String> yearCaptions = (ArrayList)item.rawFolioItem.get("yearCaption");
+          if ( item.rawFolioItem().containsKey("yearCaption") ) {
+            List<String> yearCaptions = (ArrayList)item.rawFolioItem().get("yearCaption");
             List<String> nonNulls = new ArrayList<>();
             for (String s : yearCaptions) if (s != null && ! s.isEmpty()) nonNulls.add(s);
             if ( ! nonNulls.isEmpty() )
               f890.subfields.add(new Subfield(8,'y',String.join(" ", nonNulls)));
           }
-          if ( item.rawFolioItem.containsKey("numberOfPieces") ) {
-            Object pieces = item.rawFolioItem.get("numberOfPieces");
+          if ( item.rawFolioItem().containsKey("numberOfPieces") ) {
+            Object pieces = item.rawFolioItem().get("numberOfPieces");
             if ( pieces != null ) {
               if (pieces instanceof Integer) {
                 f890.subfields.add(new Subfield(9,'n',String.valueOf(pieces)));
@@ -547,7 +572,7 @@ public class PODExporter {
 
       this.insertHoldingPodStmt.setString(1, h.hrid);
       this.insertHoldingPodStmt.setString(2, instanceHrid);
-      Map<String,String> holdingMetadata = (Map<String,String>)h.rawFolioHolding.get("metadata");
+      Map<String,String> holdingMetadata = h.folioHolding.metadata;
       Timestamp holdingModdate = Timestamp.from(
           isoDT.parse(holdingMetadata.get("updatedDate"),Instant::from));
       this.insertHoldingPodStmt.setTimestamp(3, holdingModdate);
@@ -558,7 +583,7 @@ public class PODExporter {
       if ( items.containsKey(holdingUuid) ) for ( Item i : items.get(holdingUuid) ) {
         this.insertItemPodStmt.setString(1, i.hrid);
         this.insertItemPodStmt.setString(2, h.hrid);
-        Map<String,String> itemMetadata = (Map<String,String>)i.rawFolioItem.get("metadata");
+        Map<String,String> itemMetadata = i.folioItem.metadata;
         Timestamp itemModdate = ( itemMetadata == null )
             ? Timestamp.valueOf("2020-07-01 00:00:00")
             : Timestamp.from(isoDT.parse(itemMetadata.get("updatedDate"),Instant::from));
@@ -1,32 +1,61 @@
 package edu.cornell.library.integration.exports;
 
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 import javax.naming.AuthenticationException;
 
+import org.apache.commons.io.IOUtils;
+
 import edu.cornell.library.integration.exports.PODExporter.UpdateType;
 import edu.cornell.library.integration.folio.FolioClient;
+import edu.cornell.library.integration.folio.ReferenceDataRegistry;
 
+/**
+ * Full POD export, with the instance hrids split into podExportPartitions (default 64) ranges
+ * that are exported by podExportThreads (default 8) workers, each with its own inventory
+ * connection. Each partition is written to its own numbered gzip part, as a complete MARC XML
+ * collection. Once all are done, the parts are joined into cornell-full-[date].xml.gz, unless
+ * podExportNumberedParts is true.
+ *
+ * The partition ranges are saved to cornell-full-[date].partitions, and a part file only appears
+ * once its partition is complete, so an interrupted export can be resumed by running it again
+ * with the same date as its argument. Only the partitions without part files are exported.
+ */
 public class PODFullExport {
 
-  public static void main(String[] args) throws IOException, SQLException, AuthenticationException {
+  public static void main(String[] args)
+      throws IOException, SQLException, AuthenticationException, InterruptedException {
 
     Map<String, String> env = System.getenv();
     String configFile = env.get("configFile");
@@ -38,55 +67,199 @@ public class PODFullExport {
       try ( InputStream is = new FileInputStream(f) ) { prop.load( is ); }
     } else System.out.println("File does not exist: "+configFile);
 
-    try (Connection inventory = DriverManager.getConnection(prop.getProperty("databaseURLCurrent"),
-                   prop.getProperty("databaseUserCurrent"), prop.getProperty("databasePassCurrent")); ){
+    String exportDate;
+    if ( args.length > 0 )
+      exportDate = args[0];
+    else
+      exportDate = new SimpleDateFormat("yyyy-MM-dd").format(Calendar.getInstance().getTime());
+    String baseName = String.format("cornell-full-%s", exportDate);
+    int threadCount = Integer.valueOf(prop.getProperty("podExportThreads","8"));
+    int partitionCount = Integer.valueOf(prop.getProperty("podExportPartitions","64"));
+    boolean numberedParts = Boolean.valueOf(prop.getProperty("podExportNumberedParts","false"));
 
-      FolioClient folio = new FolioClient(prop,"Folio");
+    FolioClient folio = new FolioClient(prop,"Folio");
+    ReferenceDataRegistry referenceData = ReferenceDataRegistry.start(folio, prop);
 
-      PODExporter exporter = new PODExporter( inventory, folio , prop);
+    List<Partition> partitions;
+    try ( Connection inventory = inventoryConnection(prop) ) {
+      partitions = planPartitions(inventory, Paths.get(baseName+".partitions"), partitionCount);
+    }
+    ConcurrentLinkedQueue<Partition> remaining = new ConcurrentLinkedQueue<>();
+    for ( Partition p : partitions )
+      if ( Files.exists(p.file(baseName)) )
+        System.out.printf("Partition %d of %d already exported.\n", p.number+1, partitions.size());
+      else
+        remaining.add(p);
 
-      Set<String> bibs = getBibsToExport(inventory);
-      System.out.println("Bib count: "+bibs.size());
+    AtomicInteger recordsExported = new AtomicInteger();
+    AtomicInteger recordsProcessed = new AtomicInteger();
+    ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, threadCount));
+    List<Future<Void>> results = new ArrayList<>();
+    for ( int i = 0; i < threadCount; i++ )
+      results.add(workers.submit(() -> {
+        try ( Connection inventory = inventoryConnection(prop) ) {
+          PODExporter exporter = new PODExporter( inventory, referenceData, prop );
+          for ( Partition p = remaining.poll(); p != null; p = remaining.poll() ) {
+            int[] counts = exportPartition(exporter, inventory, p, baseName);
+            recordsExported.addAndGet(counts[0]);
+            recordsProcessed.addAndGet(counts[1]);
+            System.out.printf("Partition %d of %d: %d of %d records exported\n",
+                p.number+1, partitions.size(), counts[0], counts[1]);
+          }
+        }
+        return null;
+      }));
+    workers.shutdown();
+    boolean complete = true;
+    for ( Future<Void> result : results ) {
+      try {
+        result.get();
+      } catch (ExecutionException e) {
+        e.getCause().printStackTrace();
+        complete = false;
+      }
+    }
+    System.out.printf("%d of %d total records exported\n",recordsExported.get(),recordsProcessed.get());
+    if ( ! complete ) {
+      System.out.printf("Export incomplete. Run again with argument %s to resume.\n", exportDate);
+      System.exit(1);
+    }
 
+    if ( numberedParts ) return;
+    List<Path> parts = new ArrayList<>();
+    for ( Partition p : partitions ) parts.add(p.file(baseName));
+    concatenateParts(parts, Paths.get(baseName+".xml.gz"));
+    for ( Path part : parts ) Files.delete(part);
+    Files.delete(Paths.get(baseName+".partitions"));
+  }
 
-      Calendar cal = Calendar.getInstance();
-      SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
-      String today = sdf.format(cal.getTime());
-      try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(
-          String.format("cornell-full-%s.xml", today)))) {
+  static class Partition {
+    final int number;
+    final String fromHrid; // inclusive, or null for the first partition
+    final String toHrid;   // exclusive, or null for the last partition
+    Partition( int number, String fromHrid, String toHrid ) {
+      this.number = number;
+      this.fromHrid = fromHrid;
+      this.toHrid = toHrid;
+    }
+    Path file( String baseName ) {
+      return Paths.get(String.format("%s-%03d.xml.gz", baseName, this.number+1));
+    }
+  }
 
-        writer.write("<?xml version='1.0' encoding='UTF-8'?>"
-            + "<collection xmlns=\"http://www.loc.gov/MARC21/slim\">\n");
-        int recordsExported = 0;
-        int recordsProcessed = 0;
+  /**
+   * Read the partition ranges saved for this export, or divide the instance hrids into
+   * partitionCount ranges of about equal size and save them. The saved file has the first hrid of
+   * every partition after the first, one per line.
+   */
+  static List<Partition> planPartitions( Connection inventory, Path planFile, int partitionCount )
+      throws SQLException, IOException {
+    List<String> bounds;
+    if ( Files.exists(planFile) ) {
+      bounds = Files.readAllLines(planFile, StandardCharsets.UTF_8);
+      System.out.printf("Resuming export with %d partitions from %s\n", bounds.size()+1, planFile);
+    } else {
+      bounds = new ArrayList<>();
+      try ( Statement stmt = inventory.createStatement() ) {
+        int bibCount = 0;
+        try ( ResultSet rs = stmt.executeQuery("SELECT COUNT(*) FROM bibFolio") ) {
+          while ( rs.next() ) bibCount = rs.getInt(1);
+        }
+        System.out.println("Bib count: "+bibCount);
+        int partitionSize = Math.max(1, (bibCount + partitionCount - 1) / partitionCount);
+        stmt.setFetchSize(100_000);
+        try ( ResultSet rs = stmt.executeQuery("SELECT instanceHrid FROM bibFolio ORDER BY instanceHrid") ) {
+          for ( int row = 0; rs.next(); row++ )
+            if ( row > 0 && row % partitionSize == 0 ) bounds.add(rs.getString(1));
+        }
+      }
+      Path tmp = planFile.resolveSibling(planFile.getFileName()+".tmp");
+      Files.write(tmp, bounds, StandardCharsets.UTF_8);
+      Files.move(tmp, planFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    List<Partition> partitions = new ArrayList<>();
+    for ( int i = 0; i <= bounds.size(); i++ )
+      partitions.add(new Partition( i,
+          ( i == 0 ) ? null : bounds.get(i-1), ( i == bounds.size() ) ? null : bounds.get(i)));
+    return partitions;
+  }
 
-        for (String bibId : bibs) {
+  /**
+   * Export the bibs in partition p to its part file. The part is written under a temporary name
+   * and renamed when complete.
+   * @return the number of records exported, and the number processed
+   */
+  private static int[] exportPartition(
+      PODExporter exporter, Connection inventory, Partition p, String baseName )
+      throws SQLException, IOException, AuthenticationException {
 
-          recordsProcessed++;
-          if  (exporter.exportBib( bibId,writer,null).equals(UpdateType.UPDATE) )
-            recordsExported++;
-          if ( recordsProcessed % 100_000 == 0 )
-            System.out.printf("%d of %d records: (%s)\n",recordsExported,recordsProcessed,bibId);
+    List<String> bibs = partitionHrids(inventory, p);
 
-        }
-        writer.write("</collection>\n");
-        writer.flush();
-        writer.close();
-        System.out.printf("%d of %d total records exported\n",recordsExported,recordsProcessed);
-      }
+    Path part = p.file(baseName);
+    Path tmp = part.resolveSibling(part.getFileName()+".tmp");
+    int recordsExported = 0;
+    try ( OutputStream out = Files.newOutputStream(tmp) ) {
+      out.write(collectionStart);
+      GZIPOutputStream gz = new GZIPOutputStream(out, 65536);
+      BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(gz, StandardCharsets.UTF_8));
+      for ( String bibId : bibs )
+        if ( exporter.exportBib( bibId, writer, null, true ).equals(UpdateType.UPDATE) )
+          recordsExported++;
+      writer.flush();
+      gz.finish();
+      out.write(collectionEnd);
     }
+    Files.move(tmp, part, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return new int[] { recordsExported, bibs.size() };
   }
 
-  private static Set<String> getBibsToExport(Connection inventory) throws SQLException {
-    Set<String> bibs = new LinkedHashSet<>();
-    try ( Statement stmt = inventory.createStatement() ){
-      stmt.setFetchSize(1_000_000);
-      try ( ResultSet rs = stmt.executeQuery(
-          "SELECT instanceHrid FROM bibFolio ORDER BY RAND()")) {
-        while ( rs.next() ) bibs.add(rs.getString(1));
-      }
+  private static List<String> partitionHrids( Connection inventory, Partition p ) throws SQLException {
+    List<String> bibs = new ArrayList<>();
+    try ( PreparedStatement stmt = inventory.prepareStatement(
+        "SELECT instanceHrid FROM bibFolio WHERE instanceHrid >= ?"
+        + (( p.toHrid == null ) ? "" : " AND instanceHrid < ?") + " ORDER BY instanceHrid") ) {
+      stmt.setString(1, ( p.fromHrid == null ) ? "" : p.fromHrid);
+      if ( p.toHrid != null ) stmt.setString(2, p.toHrid);
+      try ( ResultSet rs = stmt.executeQuery() ) { while ( rs.next() ) bibs.add(rs.getString(1)); }
     }
     return bibs;
   }
 
+  /**
+   * Join part files into one MARC XML collection. Each part is a gzip member holding its records,
+   * between members holding the collection start and end tags, so the parts' record members can
+   * be copied into the target without being recompressed.
+   */
+  static void concatenateParts( List<Path> parts, Path target ) throws IOException {
+    Path tmp = target.resolveSibling(target.getFileName()+".tmp");
+    try ( OutputStream out = Files.newOutputStream(tmp) ) {
+      out.write(collectionStart);
+      for ( Path part : parts )
+        try ( InputStream in = Files.newInputStream(part) ) {
+          IOUtils.copyLarge(in, out, collectionStart.length,
+              Files.size(part) - collectionStart.length - collectionEnd.length);
+        }
+      out.write(collectionEnd);
+    }
+    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static Connection inventoryConnection( Properties prop ) throws SQLException {
+    return DriverManager.getConnection(prop.getProperty("databaseURLCurrent"),
+        prop.getProperty("databaseUserCurrent"), prop.getProperty("databasePassCurrent"));
+  }
+
+  private static byte[] gzipped( String s ) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try ( GZIPOutputStream gz = new GZIPOutputStream(bytes) ) {
+      gz.write(s.getBytes(StandardCharsets.UTF_8));
+    } catch (IOException e) {
+      throw new IllegalStateException(e); // not possible writing to memory
+    }
+    return bytes.toByteArray();
+  }
+
+  static final byte[] collectionStart = gzipped("<?xml version='1.0' encoding='UTF-8'?>"
+      + "<collection xmlns=\"http://www.loc.gov/MARC21/slim\">\n");
+  static final byte[] collectionEnd = gzipped("</collection>\n");
 }
@@ -3,9 +3,10 @@ package edu.cornell.library.integration.exports;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.Connection;
@@ -29,6 +30,7 @@ import javax.naming.AuthenticationException;
 
 import edu.cornell.library.integration.exports.PODExporter.UpdateType;
 import edu.cornell.library.integration.folio.FolioClient;
+import edu.cornell.library.integration.folio.ReferenceDataRegistry;
 
 public class PODIncrementalExport {
 
@@ -48,8 +50,9 @@ public class PODIncrementalExport {
         prop.getProperty("databaseUserCurrent"),prop.getProperty("databasePassCurrent")) ){
 
       FolioClient folio = new FolioClient(prop,"Folio");
+      ReferenceDataRegistry referenceData = ReferenceDataRegistry.start(folio, prop);
 
-      PODExporter exporter = new PODExporter( inventory, folio, prop );
+      PODExporter exporter = new PODExporter( inventory, referenceData, prop );
       exporter.verbose = true;
 
 
@@ -58,8 +61,10 @@ public class PODIncrementalExport {
       SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
       String today = sdf.format(cal.getTime());
 
-      String updatesFile = String.format("cornell-incr-%s.xml", today);
-      BufferedWriter writer = Files.newBufferedWriter(Paths.get(updatesFile));
+      // Records are compressed as they are written, so the XML is never on disk uncompressed
+      String updatesFile = String.format("cornell-incr-%s.xml.gz", today);
+      BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(
+          Files.newOutputStream(Paths.get(updatesFile)), 65536), StandardCharsets.UTF_8));
       writer.write("<?xml version='1.0' encoding='UTF-8'?>"
           + "<collection xmlns=\"http://www.loc.gov/MARC21/slim\">\n");
       int updateRecords = 0;
@@ -77,13 +82,12 @@ public class PODIncrementalExport {
         }
       }
 
-      if ( updateRecords > 0 ) {
-        writer.write("</collection>\n");
-        writer.flush();
-        writer.close();
-        String gzipFile = gzip( updatesFile );
-        exporter.pushFileToPod( gzipFile, "application/gzip");
-      }
+      writer.write("</collection>\n");
+      writer.close();
+      if ( updateRecords > 0 )
+        exporter.pushFileToPod( updatesFile, "application/gzip");
+      else
+        Files.delete(Paths.get(updatesFile));
       deletes.flush();
       deletes.close();
       System.out.printf("Updates and new MARC: %d\n", updateRecords);
@@ -94,22 +98,6 @@ public class PODIncrementalExport {
 
   }
 
-  private static String gzip(String file) throws IOException {
-    String gzipFile = file+".gz";
-    try (
-        FileInputStream fis = new FileInputStream(file);
-        FileOutputStream fos = new FileOutputStream(gzipFile);
-        GZIPOutputStream gzipOS = new GZIPOutputStream(fos);
-        ){
-
-        byte[] buffer = new byte[1024];
-        int len;
-        while((len=fis.read(buffer)) != -1){ gzipOS.write(buffer, 0, len); }
-    }
-    return gzipFile;
-}
-
-
   private static Set<String> identifyChangedRecords(Connection inventory) throws SQLException {
 
     Set<String> changedInstances = new HashSet<>();
@@ -23,6 +23,7 @@ import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import edu.cornell.library.integration.folio.Holdings.HoldingSet;
+import edu.cornell.library.integration.folio.InventorySnapshot.BarcodeItem;
 import edu.cornell.library.integration.folio.Items.Item;
 import edu.cornell.library.integration.folio.Items.ItemList;
 
@@ -39,6 +40,11 @@ public class BoundWith {
   private static Pattern barcodeP = Pattern.compile("^(31924\\d*)(.*)$");
   public static Map<String,BoundWith> fromNote( Connection inventory, String note, Holding holding )
       throws SQLException, JsonParseException, JsonMappingException, IOException {
+    return fromNote( new InventorySnapshot(inventory), note, holding );
+  }
+
+  public static Map<String,BoundWith> fromNote( InventorySnapshot inventory, String note, Holding holding )
+      throws SQLException, JsonParseException, JsonMappingException, IOException {
 
     String text = note.trim();
     int barcodePos = text.indexOf("31924");
@@ -63,24 +69,12 @@ public class BoundWith {
       barcodePos = text.indexOf("31924");
 
       // lookup item main item this is bound into
-      Item masterItem = Items.retrieveItemByBarcode(inventory, barcode, holding);
-      if (masterItem == null) continue;
-      String masterBibId = null;
-      String masterTitle = null;
-      try (PreparedStatement pstmt = inventory.prepareStatement(
-          "SELECT brs.bib_id, brs.title"
-          + " FROM itemFolio i, holdingFolio h, bibRecsSolr brs"
-          + " WHERE i.hrid = ? AND i.holdingHrid = h.hrid AND h.instanceHrid = brs.bib_id")) {
-        pstmt.setString(1, masterItem.hrid);
-        try (ResultSet rs = pstmt.executeQuery()) {
-          while (rs.next()) {
-            masterBibId = rs.getString("bib_id");
-            masterTitle = rs.getString("title").trim();
-          }
-        }
-      }
-      if (masterBibId == null) continue;
-      b.put(masterItem.hrid, new BoundWith(masterItem.id, masterBibId, masterTitle,
+      BarcodeItem master = inventory.itemByBarcode(barcode);
+      if (master == null) continue;
+      Item masterItem = new Item(inventory, master.rawItem, holding);
+      masterItem.id = master.id;
+      if (master.instanceHrid == null) continue;
+      b.put(masterItem.hrid, new BoundWith(masterItem.id, master.instanceHrid, master.instanceTitle,
         masterItem.enumeration, thisEnum, barcode, masterItem.status));
     }
 
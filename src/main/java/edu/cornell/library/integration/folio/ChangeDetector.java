@@ -1,17 +1,30 @@
 package edu.cornell.library.integration.folio;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -23,563 +36,500 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public class ChangeDetector {
 
   public static Map<String,Set<Change>> detectChangedInstances(
-      Connection inventory, FolioClient folio, Timestamp since )
+      Connection inventory, FolioClient folio, Timestamp since, Timestamp until )
           throws SQLException, IOException, InterruptedException, AuthenticationException {
 
     Map<String,Set<Change>> changes = new HashMap<>();
 
     int limit = 500;
-    Timestamp modDateCursor = since;
-    List<Map<String, Object>> changedInstances;
 
-    do {
-      changedInstances = folio.queryAsList("/instance-storage/instances",
-          "metadata.updatedDate>"+modDateCursor.toInstant().toString()+
-          " sortBy metadata.updatedDate",limit);
-      INSTANCE: for (Map<String,Object> instance : changedInstances) {
-
-        String hrid = (String)instance.get("hrid");
-        String instanceJson = mapper.writeValueAsString(instance);
-        Map<String,String> metadata = Map.class.cast(instance.get("metadata"));
-        Timestamp modDate = Timestamp.from(Instant.parse(
-            metadata.get("updatedDate").replace("+00:00","Z")));
-        modDateCursor = modDate;
-
-        if ( getPreviousInstance == null )
-          getPreviousInstance = inventory.prepareStatement(
-              "SELECT content FROM instanceFolio WHERE hrid = ?");
-        getPreviousInstance.setString(1, hrid);
-        try ( ResultSet rs = getPreviousInstance.executeQuery() ) {
-          while (rs.next()) if (rs.getString("content").equals(instanceJson)) continue INSTANCE;
+    try ( PreparedStatement replaceInstance = inventory.prepareStatement(
+            "REPLACE INTO instanceFolio (id, hrid, active, source, moddate, content, contentHash) "+
+            " VALUES (?,?,?,?,?,?,?)");
+          PreparedStatement replaceBib = inventory.prepareStatement(
+            "REPLACE INTO bibFolio (instanceHrid,moddate,content,contentHash) VALUES (?,?,?,?)");
+          PreparedStatement backfillInstanceHash = backfillHash(inventory, "instanceFolio", "hrid");
+          PreparedStatement backfillBibHash = backfillHash(inventory, "bibFolio", "instanceHrid") ) {
+      eachChangedChunk( folio, "/instance-storage/instances", since, until, limit, changedInstances -> {
+        Map<String,CachedContent> cached =
+            cachedContent(inventory, "instanceFolio", "hrid", keys(changedInstances, "hrid"));
+        Map<String,CachedContent> cachedBibs =
+            cachedContent(inventory, "bibFolio", "instanceHrid", keys(changedInstances, "hrid"));
+        List<String> replacedHrids = new ArrayList<>();
+        List<String> users = new ArrayList<>();
+        Map<String,CompletableFuture<String>> marcFetches = new LinkedHashMap<>();
+        INSTANCE: for (Map<String,Object> instance : changedInstances) {
+
+          String hrid = (String)instance.get("hrid");
+          String instanceJson = mapper.writeValueAsString(instance);
+          Map<String,String> metadata = Map.class.cast(instance.get("metadata"));
+          Timestamp modDate = Timestamp.from(Instant.parse(
+              metadata.get("updatedDate").replace("+00:00","Z")));
+
+          String instanceHash = contentHash(instanceJson);
+          if ( unchanged(cached, hrid, instanceJson, instanceHash, backfillInstanceHash) )
+            continue INSTANCE;
+
+          String id = (String)instance.get("id");
+          Object o1 = instance.get("discoverySuppress");
+          boolean active1 =
+              (o1 == null)?false:String.class.isInstance(o1)?Boolean.valueOf((String)o1):(boolean)o1;
+          Object o2 = instance.get("staffSuppress");
+          boolean active2 =
+              (o2 == null)?false:String.class.isInstance(o2)?Boolean.valueOf((String)o2):(boolean)o2;
+          boolean active = active1 && active2;
+          String source = (String)instance.get("source");
+          replaceInstance.setString(1, id);
+          replaceInstance.setString(2, hrid);
+          replaceInstance.setBoolean(3, active);
+          replaceInstance.setString(4, source);
+          replaceInstance.setTimestamp(5, modDate);
+          replaceInstance.setString(6, instanceJson);
+          replaceInstance.setString(7, instanceHash);
+          replaceInstance.addBatch();
+          replacedHrids.add(hrid);
+
+          Change c = new Change(Change.Type.INSTANCE,id,"Instance modified",
+              modDate,null,trackUserChange( users, instanceJson ));
+          if ( ! changes.containsKey(hrid)) {
+            Set<Change> t = new HashSet<>();
+            t.add(c);
+            changes.put(hrid,t);
+          }
+          changes.get(hrid).add(c);
+
+          if ( source.equals("MARC") ) marcFetches.put(hrid, fetchMarc(folio, id, hrid, 1));
         }
 
-        String id = (String)instance.get("id");
-        Object o1 = instance.get("discoverySuppress");
-        boolean active1 =
-            (o1 == null)?false:String.class.isInstance(o1)?Boolean.valueOf((String)o1):(boolean)o1;
-        Object o2 = instance.get("staffSuppress");
-        boolean active2 =
-            (o2 == null)?false:String.class.isInstance(o2)?Boolean.valueOf((String)o2):(boolean)o2;
-        boolean active = active1 && active2;
-        String source = (String)instance.get("source");
-        if (replaceInstance == null)
-          replaceInstance = inventory.prepareStatement(
-              "REPLACE INTO instanceFolio (id, hrid, active, source, moddate, content) "+
-              " VALUES (?,?,?,?,?,?)");
-        replaceInstance.setString(1, id);
-        replaceInstance.setString(2, hrid);
-        replaceInstance.setBoolean(3, active);
-        replaceInstance.setString(4, source);
-        replaceInstance.setTimestamp(5, modDate);
-        replaceInstance.setString(6, instanceJson);
+        // MARC for the chunk is fetched in parallel on the srsFetches pool while the loop runs.
+        // The instance page has been read in full by now, so a slow SRS can't time it out.
+        for ( Map.Entry<String,CompletableFuture<String>> fetch : marcFetches.entrySet() ) {
+          String hrid = fetch.getKey();
+          String marc;
+          try { marc = fetch.getValue().get(); }
+          catch (ExecutionException e) { e.printStackTrace(); continue; }
+          if ( marc == null ) continue;
+          String marcHash = contentHash(marc);
+          if ( unchanged(cachedBibs, hrid, marc, marcHash, backfillBibHash) )
+            continue;
+
+          Matcher m = modDateP.matcher(marc);
+          Timestamp marcTimestamp = (m.matches())
+              ? Timestamp.from(Instant.parse(m.group(1).replace("+00:00","Z"))): null;
+          replaceBib.setString(1, hrid);
+          replaceBib.setTimestamp(2, marcTimestamp);
+          replaceBib.setString(3, marc);
+          replaceBib.setString(4, marcHash);
+          replaceBib.addBatch();
+        }
         try {
-          replaceInstance.executeUpdate();
+          replaceInstance.executeBatch();
         } catch ( SQLException e ) {
           e.printStackTrace();
-          System.out.println(id);
-          System.out.println(hrid);
-          System.out.println(instanceJson);
+          System.out.println("Instances in failed batch: "+replacedHrids);
           throw new SQLException( e );
         }
-
-        Change c = new Change(Change.Type.INSTANCE,id,"Instance modified",
-            modDate,null,trackUserChange( inventory, instanceJson ));
-        if ( ! changes.containsKey(hrid)) {
-          Set<Change> t = new HashSet<>();
-          t.add(c);
-          changes.put(hrid,t);
-        }
-        changes.get(hrid).add(c);
-
-        if ( ! source.equals("MARC") ) continue INSTANCE;
-
-        String marc = null;
-        String srsQuery = "/source-storage/records/"+id+"/formatted?idType=INSTANCE";
-        try {
-          marc = folio.query(srsQuery).replaceAll("\\s*\\n\\s*", " ");
-        } catch (IOException e) {
-          // If MARC not found, wait 3 seconds and try one more time.
-          System.out.printf("Error retrieving MARC from SRS (%s): %s %s\n",e.getMessage(),hrid,id);
-          Thread.sleep(3_000);
-          try {
-            marc = folio.query("/source-storage/records/"+id+"/formatted?idType=INSTANCE")
-                .replaceAll("\\s*\\n\\s*", " ");
-          } catch (IOException e2) {
-            System.out.printf("Error retrieving MARC from SRS (%s): %s %s\n",e2.getMessage(),hrid,id);
-            continue INSTANCE;
-          }
-        }
-        if ( getPreviousBib == null )
-          getPreviousBib = inventory.prepareStatement(
-              "SELECT content FROM bibFolio WHERE instanceHrid = ?");
-        getPreviousBib.setString(1, hrid);
-        try ( ResultSet rs = getPreviousBib.executeQuery() ) {
-          while (rs.next()) if (rs.getString("content").equals(marc)) continue INSTANCE;
-        }
-
-        Matcher m = modDateP.matcher(marc);
-        Timestamp marcTimestamp = (m.matches())
-            ? Timestamp.from(Instant.parse(m.group(1).replace("+00:00","Z"))): null;
-        if ( replaceBib == null )
-          replaceBib = inventory.prepareStatement(
-              "REPLACE INTO bibFolio (instanceHrid,moddate,content) VALUES (?,?,?)");
-        replaceBib.setString(1, hrid);
-        replaceBib.setTimestamp(2, marcTimestamp);
-        replaceBib.setString(3, marc);
-        replaceBib.executeUpdate();
-      }
-    } while (changedInstances.size() == limit);
+        replaceBib.executeBatch();
+        backfillInstanceHash.executeBatch();
+        backfillBibHash.executeBatch();
+        saveUserChanges(inventory, users);
+      });
+    }
 
     return changes;
   }
 
   public static Map<String,Set<Change>> detectChangedHoldings(
-      Connection inventory, FolioClient folio, Timestamp since ) throws SQLException, IOException, AuthenticationException {
+      Connection inventory, FolioClient folio, Timestamp since, Timestamp until )
+          throws SQLException, IOException, InterruptedException, AuthenticationException {
 
     Map<String,Set<Change>> changes = new HashMap<>();
 
     int limit = 2000;
-    Timestamp modDateCursor = since;
-    List<Map<String, Object>> changedHoldings;
 
-    do {
-      changedHoldings = folio.queryAsList("/holdings-storage/holdings",
-          "metadata.updatedDate>"+modDateCursor.toInstant().toString()+
-          " sortBy metadata.updatedDate",limit);
-      HOLDING: for (Map<String,Object> holding : changedHoldings) {
+    try ( PreparedStatement replaceHolding = inventory.prepareStatement(
+            "REPLACE INTO holdingFolio"+
+            " (id,hrid,instanceId,instanceHrid,active,moddate,content,contentHash) "+
+            " VALUES (?,?,?,?,?,?,?,?)");
+          PreparedStatement backfill = backfillHash(inventory, "holdingFolio", "hrid") ) {
+      eachChangedChunk( folio, "/holdings-storage/holdings", since, until, limit, changedHoldings -> {
+        Map<String,CachedContent> cached =
+            cachedContent(inventory, "holdingFolio", "hrid", keys(changedHoldings, "hrid"));
+        Map<String,String> instanceHrids = instanceHrids(inventory, keys(changedHoldings, "instanceId"));
+        List<String> users = new ArrayList<>();
+        HOLDING: for (Map<String,Object> holding : changedHoldings) {
         
-        String hrid = (String)holding.get("hrid");
-        String holdingJson = mapper.writeValueAsString(holding);
-        Map<String,String> metadata = Map.class.cast(holding.get("metadata"));
-        Timestamp modDate = Timestamp.from(Instant.parse(
-            metadata.get("updatedDate").replace("+00:00","Z")));
-        modDateCursor = modDate;
-
-        if ( getPreviousHolding == null )
-          getPreviousHolding = inventory.prepareStatement(
-              "SELECT content FROM holdingFolio WHERE hrid = ?");
-        getPreviousHolding.setString(1, hrid);
-        try ( ResultSet rs = getPreviousHolding.executeQuery() ) {
-          while (rs.next()) if (rs.getString("content").equals(holdingJson)) continue HOLDING;
-        }
-
-        String instanceId = (String)holding.get("instanceId");
-        if (getInstanceHridByInstanceId == null)
-          getInstanceHridByInstanceId = inventory.prepareStatement(
-              "SELECT hrid FROM instanceFolio WHERE id = ?");
-        getInstanceHridByInstanceId.setString(1,instanceId);
-        String instanceHrid = null;
-        try (ResultSet rs = getInstanceHridByInstanceId.executeQuery() ) {
-          while (rs.next()) {
-            instanceHrid = rs.getString(1);
+          String hrid = (String)holding.get("hrid");
+          String holdingJson = mapper.writeValueAsString(holding);
+          Map<String,String> metadata = Map.class.cast(holding.get("metadata"));
+          Timestamp modDate = Timestamp.from(Instant.parse(
+              metadata.get("updatedDate").replace("+00:00","Z")));
+
+          String holdingHash = contentHash(holdingJson);
+          if ( unchanged(cached, hrid, holdingJson, holdingHash, backfill) )
+            continue HOLDING;
+
+          String instanceId = (String)holding.get("instanceId");
+          String instanceHrid = instanceHrids.get(instanceId);
+
+          if ( instanceHrid == null ) {
+            System.out.println("Holding "+hrid+" can't be tracked to instance, not queueing for index.");
+            continue;
           }
-        }
 
-        if ( instanceHrid == null ) {
-          System.out.println("Holding "+hrid+" can't be tracked to instance, not queueing for index.");
-          continue;
-        }
+          String id = (String)holding.get("id");
+          Object o = holding.get("discoverySuppress");
+          boolean active =
+              (o == null)?false:String.class.isInstance(o)?Boolean.valueOf((String)o):(boolean)o;
+          replaceHolding.setString(1, id);
+          replaceHolding.setString(2, hrid);
+          replaceHolding.setString(3, instanceId);
+          replaceHolding.setString(4, instanceHrid);
+          replaceHolding.setBoolean(5, active);
+          replaceHolding.setTimestamp(6, modDate);
+          replaceHolding.setString(7, holdingJson);
+          replaceHolding.setString(8, holdingHash);
+          replaceHolding.addBatch();
+
+          Change c = new Change(Change.Type.HOLDING,id,"Holding modified",
+              modDate,null,trackUserChange( users, holdingJson ));
+          if ( ! changes.containsKey(instanceHrid)) {
+            Set<Change> t = new HashSet<>();
+            t.add(c);
+            changes.put(instanceHrid,t);
+          }
+          changes.get(instanceHrid).add(c);
 
-        String id = (String)holding.get("id");
-        Object o = holding.get("discoverySuppress");
-        boolean active =
-            (o == null)?false:String.class.isInstance(o)?Boolean.valueOf((String)o):(boolean)o;
-        if (replaceHolding == null)
-          replaceHolding = inventory.prepareStatement(
-              "REPLACE INTO holdingFolio (id,hrid,instanceId,instanceHrid,active,moddate,content) "+
-              " VALUES (?,?,?,?,?,?,?)");
-        replaceHolding.setString(1, id);
-        replaceHolding.setString(2, hrid);
-        replaceHolding.setString(3, instanceId);
-        replaceHolding.setString(4, instanceHrid);
-        replaceHolding.setBoolean(5, active);
-        replaceHolding.setTimestamp(6, modDate);
-        replaceHolding.setString(7, holdingJson);
-        replaceHolding.executeUpdate();
-
-        Change c = new Change(Change.Type.HOLDING,id,"Holding modified",
-            modDate,null,trackUserChange( inventory, holdingJson ));
-        if ( ! changes.containsKey(instanceHrid)) {
-          Set<Change> t = new HashSet<>();
-          t.add(c);
-          changes.put(instanceHrid,t);
         }
-        changes.get(instanceHrid).add(c);
-
-      }
-    } while (changedHoldings.size() == limit);
+        replaceHolding.executeBatch();
+        backfill.executeBatch();
+        saveUserChanges(inventory, users);
+      });
+    }
 
     return changes;
   }
 
   public static Map<String,Set<Change>> detectChangedItems(
-      Connection inventory, FolioClient folio, Timestamp since ) throws SQLException, IOException, AuthenticationException {
+      Connection inventory, FolioClient folio, Timestamp since, Timestamp until )
+          throws SQLException, IOException, InterruptedException, AuthenticationException {
 
     Map<String,Set<Change>> changes = new HashMap<>();
 
     int limit = 5000;
-    Timestamp modDateCursor = since;
-    List<Map<String, Object>> changedItems;
 
-    do {
-      changedItems = folio.queryAsList("/item-storage/items",
-          "metadata.updatedDate>"+modDateCursor.toInstant().toString()+
-          " sortBy metadata.updatedDate",limit);
-      for (Map<String,Object> item : changedItems) {
+    try ( PreparedStatement replaceItem = inventory.prepareStatement(
+            "REPLACE INTO itemFolio"+
+            " (id, hrid, holdingId, holdingHrid, moddate, barcode, content, contentHash) "+
+            " VALUES (?,?,?,?,?,?,?,?)");
+          PreparedStatement backfill = backfillHash(inventory, "itemFolio", "hrid") ) {
+      eachChangedChunk( folio, "/item-storage/items", since, until, limit, changedItems -> {
+        Map<String,CachedContent> cached =
+            cachedContent(inventory, "itemFolio", "hrid", keys(changedItems, "hrid"));
+        Map<String,String[]> holdingParentage =
+            holdingParentage(inventory, keys(changedItems, "holdingsRecordId"));
+        List<String> users = new ArrayList<>();
+        for (Map<String,Object> item : changedItems) {
         
-        String hrid = (String)item.get("hrid");
-        String itemJson = mapper.writeValueAsString(item);
-        Map<String,String> metadata = Map.class.cast(item.get("metadata"));
-        Timestamp modDate = Timestamp.from(Instant.parse(
-            metadata.get("updatedDate").replace("+00:00","Z")));
-        modDateCursor = modDate;
-
-        if ( getPreviousItem == null )
-          getPreviousItem = inventory.prepareStatement("SELECT content FROM itemFolio WHERE hrid = ?");
-        getPreviousItem.setString(1, hrid);
-        boolean changed = true;
-        try ( ResultSet rs = getPreviousItem.executeQuery() ) {
-          while (rs.next()) if (rs.getString("content").equals(itemJson)) changed = false;
-        }
-        if ( ! changed ) continue;
-
-        String holdingId = (String)item.get("holdingsRecordId");
-        if (getItemParentage == null)
-          getItemParentage = inventory.prepareStatement(
-              "SELECT instanceHrid, hrid FROM holdingFolio WHERE id = ?");
-        getItemParentage.setString(1,holdingId);
-        String instanceHrid = null;
-        String holdingHrid = null;
-        try (ResultSet rs = getItemParentage.executeQuery() ) {
-          while (rs.next()) {
-            instanceHrid = rs.getString(1);
-            holdingHrid = rs.getString(2);
+          String hrid = (String)item.get("hrid");
+          String itemJson = mapper.writeValueAsString(item);
+          Map<String,String> metadata = Map.class.cast(item.get("metadata"));
+          Timestamp modDate = Timestamp.from(Instant.parse(
+              metadata.get("updatedDate").replace("+00:00","Z")));
+
+          String itemHash = contentHash(itemJson);
+          if ( unchanged(cached, hrid, itemJson, itemHash, backfill) ) continue;
+
+          String holdingId = (String)item.get("holdingsRecordId");
+          String[] parentage = holdingParentage.get(holdingId);
+          if ( parentage == null || parentage[0] == null ) {
+            System.out.println("Item "+hrid+" can't be tracked to instance, not queueing for index.");
+            continue;
           }
+          String instanceHrid = parentage[0];
+          String holdingHrid = parentage[1];
+
+          String id = (String)item.get("id");
+          String barcode = (item.containsKey("barcode"))?((String)item.get("barcode")).trim():null;
+          if (barcode != null && barcode.length()>14) {
+            System.out.println("Barcode too long. Omitting ["+hrid+"/"+barcode+"]");
+            barcode = null;
+          }
+          replaceItem.setString(1, id);
+          replaceItem.setString(2, hrid);
+          replaceItem.setString(3, holdingId);
+          replaceItem.setString(4, holdingHrid);
+          replaceItem.setTimestamp(5, modDate);
+          replaceItem.setString(6, barcode);
+          replaceItem.setString(7, itemJson);
+          replaceItem.setString(8, itemHash);
+          replaceItem.addBatch();
+
+          Change c = new Change(Change.Type.ITEM,id,"Item modified",
+              modDate,null,trackUserChange( users, itemJson ));
+          if ( ! changes.containsKey(instanceHrid)) {
+            Set<Change> t = new HashSet<>();
+            t.add(c);
+            changes.put(instanceHrid,t);
+          }
+          changes.get(instanceHrid).add(c);
         }
-        if ( instanceHrid == null ) {
-          System.out.println("Item "+hrid+" can't be tracked to instance, not queueing for index.");
-          continue;
-        }
-
-        String id = (String)item.get("id");
-        String barcode = (item.containsKey("barcode"))?((String)item.get("barcode")).trim():null;
-        if (barcode != null && barcode.length()>14) {
-          System.out.println("Barcode too long. Omitting ["+hrid+"/"+barcode+"]");
-          barcode = null;
-        }
-        if (replaceItem == null)
-          replaceItem = inventory.prepareStatement(
-              "REPLACE INTO itemFolio (id, hrid, holdingId, holdingHrid, moddate, barcode, content) "+
-              " VALUES (?,?,?,?,?,?,?)");
-        replaceItem.setString(1, id);
-        replaceItem.setString(2, hrid);
-        replaceItem.setString(3, holdingId);
-        replaceItem.setString(4, holdingHrid);
-        replaceItem.setTimestamp(5, modDate);
-        replaceItem.setString(6, barcode);
-        replaceItem.setString(7, itemJson);
-        replaceItem.executeUpdate();
-
-        Change c = new Change(Change.Type.ITEM,id,"Item modified",
-            modDate,null,trackUserChange( inventory, itemJson ));
-        if ( ! changes.containsKey(instanceHrid)) {
-          Set<Change> t = new HashSet<>();
-          t.add(c);
-          changes.put(instanceHrid,t);
-        }
-        changes.get(instanceHrid).add(c);
-      }
+        replaceItem.executeBatch();
+        backfill.executeBatch();
+        saveUserChanges(inventory, users);
 
-    } while (changedItems.size() == limit);
+      });
+    }
 
     return changes;
   }
 
   public static Map<String,Set<Change>> detectChangedLoans(
-      Connection inventory, FolioClient folio, Timestamp since ) throws SQLException, IOException, AuthenticationException {
+      Connection inventory, FolioClient folio, Timestamp since, Timestamp until )
+          throws SQLException, IOException, InterruptedException, AuthenticationException {
 
     Map<String,Set<Change>> changes = new HashMap<>();
 
     int limit = 5000;
-    Timestamp modDateCursor = since;
-    List<Map<String, Object>> changedLoans;
 
-    do {
-      changedLoans = folio.queryAsList("/loan-storage/loans",
-          "metadata.updatedDate>"+modDateCursor.toInstant().toString()+
-          " sortBy metadata.updatedDate",limit);
-      LOAN: for (Map<String,Object> loan : changedLoans) {
-
-        String id = (String)loan.get("id");
-        String itemId = (String)loan.get("itemId");
-        String loanJson = mapper.writeValueAsString(loan);
-        Map<String,String> metadata = Map.class.cast(loan.get("metadata"));
-        Timestamp modDate = Timestamp.from(Instant.parse(
-            metadata.get("updatedDate").replace("+00:00","Z")));
-        modDateCursor = modDate;
-
-        if ( getPreviousLoan == null )
-          getPreviousLoan = inventory.prepareStatement("SELECT content FROM loanFolio WHERE id = ?");
-        getPreviousLoan.setString(1, id);
-        try ( ResultSet rs = getPreviousLoan.executeQuery() ) {
-          while (rs.next()) if (rs.getString("content").equals(loanJson)) continue LOAN;
-        }
-
-        if (getLoanParentage == null)
-          getLoanParentage = inventory.prepareStatement(
-              "SELECT instanceHrid, itemFolio.hrid FROM holdingFolio, itemFolio"+
-              " WHERE itemFolio.id = ? AND itemFolio.holdingHrid = holdingFolio.hrid");
-        getLoanParentage.setString(1, itemId);
-        String instanceHrid = null;
-        String itemHrid = null;
-        try (ResultSet rs = getLoanParentage.executeQuery() ) {
-          while (rs.next()) {
-            instanceHrid = rs.getString(1);
-            itemHrid = rs.getString(2);
+    try ( PreparedStatement replaceLoan = inventory.prepareStatement(
+            "REPLACE INTO loanFolio (id, holdingId, itemHrid, moddate, content, contentHash)"+
+            " VALUES (?,?,?,?,?,?)");
+          PreparedStatement backfill = backfillHash(inventory, "loanFolio", "id") ) {
+      eachChangedChunk( folio, "/loan-storage/loans", since, until, limit, changedLoans -> {
+        Map<String,CachedContent> cached =
+            cachedContent(inventory, "loanFolio", "id", keys(changedLoans, "id"));
+        Map<String,String[]> itemParentage = itemParentage(inventory, keys(changedLoans, "itemId"));
+        List<String> users = new ArrayList<>();
+        LOAN: for (Map<String,Object> loan : changedLoans) {
+
+          String id = (String)loan.get("id");
+          String itemId = (String)loan.get("itemId");
+          String loanJson = mapper.writeValueAsString(loan);
+          Map<String,String> metadata = Map.class.cast(loan.get("metadata"));
+          Timestamp modDate = Timestamp.from(Instant.parse(
+              metadata.get("updatedDate").replace("+00:00","Z")));
+
+          String loanHash = contentHash(loanJson);
+          if ( unchanged(cached, id, loanJson, loanHash, backfill) ) continue LOAN;
+
+          String[] parentage = itemParentage.getOrDefault(itemId, new String[2]);
+          String instanceHrid = parentage[0];
+          String itemHrid = parentage[1];
+          if ( instanceHrid == null ) {
+            System.out.printf("Loan %s (item %s) can't be tracked to instance,"
+                + " not queueing for index.\n", id, itemHrid);
+            continue;
           }
-        }
-        if ( instanceHrid == null ) {
-          System.out.printf("Loan %s (item %s) can't be tracked to instance,"
-              + " not queueing for index.\n", id, itemHrid);
-          continue;
-        }
 
-        if (replaceLoan == null)
-          replaceLoan = inventory.prepareStatement(
-              "REPLACE INTO loanFolio (id, holdingId, itemHrid, moddate, content) VALUES (?,?,?,?,?)");
-        replaceLoan.setString(1, id);
-        replaceLoan.setString(2, itemId);
-        replaceLoan.setString(3, itemHrid);
-        replaceLoan.setTimestamp(4, modDate);
-        replaceLoan.setString(5, loanJson);
-        replaceLoan.executeUpdate();
-
-        Change c = new Change(Change.Type.LOAN,id,"Item modified",
-            modDate,null,trackUserChange( inventory, loanJson ));
-        if ( ! changes.containsKey(instanceHrid)) {
-          Set<Change> t = new HashSet<>();
-          t.add(c);
-          changes.put(instanceHrid,t);
+          replaceLoan.setString(1, id);
+          replaceLoan.setString(2, itemId);
+          replaceLoan.setString(3, itemHrid);
+          replaceLoan.setTimestamp(4, modDate);
+          replaceLoan.setString(5, loanJson);
+          replaceLoan.setString(6, loanHash);
+          replaceLoan.addBatch();
+
+          Change c = new Change(Change.Type.LOAN,id,"Item modified",
+              modDate,null,trackUserChange( users, loanJson ));
+          if ( ! changes.containsKey(instanceHrid)) {
+            Set<Change> t = new HashSet<>();
+            t.add(c);
+            changes.put(instanceHrid,t);
+          }
+          changes.get(instanceHrid).add(c);
         }
-        changes.get(instanceHrid).add(c);
-      }
-    } while (changedLoans.size() == limit);
+        replaceLoan.executeBatch();
+        backfill.executeBatch();
+        saveUserChanges(inventory, users);
+      });
+    }
 
     return changes;
   }
 
   public static Map<String,Set<Change>> detectChangedRequests(
-      Connection inventory, FolioClient folio, Timestamp since ) throws SQLException, IOException, AuthenticationException {
+      Connection inventory, FolioClient folio, Timestamp since, Timestamp until )
+          throws SQLException, IOException, InterruptedException, AuthenticationException {
 
     Map<String,Set<Change>> changes = new HashMap<>();
 
     int limit = 5000;
-    Timestamp modDateCursor = since;
-    List<Map<String, Object>> changedRequests;
 
-    do {
-      changedRequests = folio.queryAsList("/request-storage/requests",
-          "metadata.updatedDate>"+modDateCursor.toInstant().toString()+
-          " sortBy metadata.updatedDate",limit);
-      REQUEST: for (Map<String,Object> request : changedRequests) {
-
-        String id = (String)request.get("id");
-        String itemId = (String)request.get("itemId");
-        String requestJson = mapper.writeValueAsString(request);
-        boolean open = ((String)request.get("status")).startsWith("Open");
-        Map<String,String> metadata = Map.class.cast(request.get("metadata"));
-        Timestamp modDate = Timestamp.from(Instant.parse(
-            metadata.get("updatedDate").replace("+00:00","Z")));
-        modDateCursor = modDate;
-
-        boolean previouslyCached = false;
-        if ( getPreviousRequest == null )
-          getPreviousRequest = inventory.prepareStatement(
-              "SELECT content FROM requestFolio WHERE id = ?");
-        getPreviousRequest.setString(1, id);
-        try ( ResultSet rs = getPreviousRequest.executeQuery() ) {
-          while (rs.next()) {
-            if (rs.getString("content").equals(requestJson))
-              continue REQUEST;
-            previouslyCached = true;
+    try ( PreparedStatement replaceRequest = inventory.prepareStatement(
+            "REPLACE INTO requestFolio (id, itemId, itemHrid, moddate, content, contentHash)"+
+            " VALUES (?,?,?,?,?,?)");
+          PreparedStatement deleteRequest = inventory.prepareStatement(
+            "DELETE FROM requestFolio WHERE id = ?");
+          PreparedStatement backfill = backfillHash(inventory, "requestFolio", "id") ) {
+      eachChangedChunk( folio, "/request-storage/requests", since, until, limit, changedRequests -> {
+        Map<String,CachedContent> cached =
+            cachedContent(inventory, "requestFolio", "id", keys(changedRequests, "id"));
+        Map<String,String[]> itemParentage = itemParentage(inventory, keys(changedRequests, "itemId"));
+        List<String> users = new ArrayList<>();
+        REQUEST: for (Map<String,Object> request : changedRequests) {
+
+          String id = (String)request.get("id");
+          String itemId = (String)request.get("itemId");
+          String requestJson = mapper.writeValueAsString(request);
+          boolean open = ((String)request.get("status")).startsWith("Open");
+          Map<String,String> metadata = Map.class.cast(request.get("metadata"));
+          Timestamp modDate = Timestamp.from(Instant.parse(
+              metadata.get("updatedDate").replace("+00:00","Z")));
+
+          String requestHash = contentHash(requestJson);
+          boolean previouslyCached = cached.containsKey(id);
+          if ( unchanged(cached, id, requestJson, requestHash, backfill) )
+            continue REQUEST;
+
+          String[] parentage = itemParentage.getOrDefault(itemId, new String[2]);
+          String instanceHrid = parentage[0];
+          String itemHrid = parentage[1];
+          if ( instanceHrid == null ) {
+            System.out.printf("Request %s (item %s) can't be tracked to instance,"
+                + " not queueing for index.\n", id, itemHrid);
+            continue;
           }
-        }
 
-        if (getRequestParentage == null)
-          getRequestParentage = inventory.prepareStatement(
-              "SELECT instanceHrid, itemFolio.hrid FROM holdingFolio, itemFolio"+
-              " WHERE itemFolio.id = ? AND itemFolio.holdingHrid = holdingFolio.hrid");
-        getRequestParentage.setString(1, itemId);
-        String instanceHrid = null;
-        String itemHrid = null;
-        try (ResultSet rs = getRequestParentage.executeQuery() ) {
-          while (rs.next()) {
-            instanceHrid = rs.getString(1);
-            itemHrid = rs.getString(2);
-          }
-        }
-        if ( instanceHrid == null ) {
-          System.out.printf("Request %s (item %s) can't be tracked to instance,"
-              + " not queueing for index.\n", id, itemHrid);
-          continue;
-        }
+          if ( open ) {
 
-        if ( open ) {
-
-          if (replaceRequest == null)
-            replaceRequest = inventory.prepareStatement(
-                "REPLACE INTO requestFolio (id, itemId, itemHrid, moddate, content) VALUES (?,?,?,?,?)");
-          replaceRequest.setString(1, id);
-          replaceRequest.setString(2, itemId);
-          replaceRequest.setString(3, itemHrid);
-          replaceRequest.setTimestamp(4, modDate);
-          replaceRequest.setString(5, requestJson);
-          replaceRequest.executeUpdate();
-
-        } else { //not open
-
-          if ( ! previouslyCached ) continue REQUEST;
-          if (deleteRequest == null)
-            deleteRequest = inventory.prepareStatement("DELETE FROM requestFolio WHERE id = ?");
-          deleteRequest.setString(1, id);
-          deleteRequest.executeUpdate();
-        }
+            replaceRequest.setString(1, id);
+            replaceRequest.setString(2, itemId);
+            replaceRequest.setString(3, itemHrid);
+            replaceRequest.setTimestamp(4, modDate);
+            replaceRequest.setString(5, requestJson);
+            replaceRequest.setString(6, requestHash);
+            replaceRequest.addBatch();
+
+          } else { //not open
+
+            if ( ! previouslyCached ) continue REQUEST;
+            deleteRequest.setString(1, id);
+            deleteRequest.addBatch();
+          }
 
-        Change c = new Change(Change.Type.CIRC,id,"Request modified",
-            modDate,null,trackUserChange( inventory, requestJson ));
-        if ( ! changes.containsKey(instanceHrid)) {
-          Set<Change> t = new HashSet<>();
-          t.add(c);
-          changes.put(instanceHrid,t);
+          Change c = new Change(Change.Type.CIRC,id,"Request modified",
+              modDate,null,trackUserChange( users, requestJson ));
+          if ( ! changes.containsKey(instanceHrid)) {
+            Set<Change> t = new HashSet<>();
+            t.add(c);
+            changes.put(instanceHrid,t);
+          }
+          changes.get(instanceHrid).add(c);
         }
-        changes.get(instanceHrid).add(c);
-      }
-    } while (changedRequests.size() == limit);
+        replaceRequest.executeBatch();
+        deleteRequest.executeBatch();
+        backfill.executeBatch();
+        saveUserChanges(inventory, users);
+      });
+    }
 
     return changes;
   }
 
   public static Map<String,Set<Change>> detectChangedOrderLines(
-      Connection inventory, FolioClient folio, Timestamp since ) throws SQLException, IOException, AuthenticationException {
+      Connection inventory, FolioClient folio, Timestamp since, Timestamp until )
+          throws SQLException, IOException, InterruptedException, AuthenticationException {
 
     Map<String,Set<Change>> changes = new HashMap<>();
 
     int limit = 5000;
-    Timestamp modDateCursor = since;
-    List<Map<String, Object>> changedPols;
-
-    do {
-      changedPols = folio.queryAsList("/orders-storage/po-lines",
-          "metadata.updatedDate>"+modDateCursor.toInstant().toString()+
-          " sortBy metadata.updatedDate",limit);
-      POL: for (Map<String,Object> pol : changedPols) {
-
-        String id = (String)pol.get("id");
-        Map<String,String> metadata = Map.class.cast(pol.get("metadata"));
-        Timestamp modDate = Timestamp.from(Instant.parse(
-            metadata.get("updatedDate").replace("+00:00","Z")));
-        modDateCursor = modDate;
-        String polJson = mapper.writeValueAsString(pol);
-
-        if ( getPreviousOrderLine == null )
-          getPreviousOrderLine = inventory.prepareStatement(
-              "SELECT content FROM orderLineFolio WHERE id = ?");
-        getPreviousOrderLine.setString(1, id);
-        try ( ResultSet rs = getPreviousOrderLine.executeQuery() ) {
-          while (rs.next()) if (rs.getString("content").equals(polJson)) continue POL;
-        }
-
-        String instanceId = (String)pol.get("instanceId");
-        if (getInstanceHridByInstanceId == null)
-          getInstanceHridByInstanceId = inventory.prepareStatement(
-              "SELECT hrid FROM instanceFolio WHERE id = ?");
-        getInstanceHridByInstanceId.setString(1,instanceId);
-        String instanceHrid = null;
-        try (ResultSet rs = getInstanceHridByInstanceId.executeQuery() ) {
-          while (rs.next()) instanceHrid = rs.getString(1);
-        }
 
-        if (replaceOrderLine == null)
-          replaceOrderLine = inventory.prepareStatement(
-              "REPLACE INTO orderLineFolio (id, instanceId, instanceHrid, orderId, moddate, content)"+
-              " VALUES (?,?,?,?,?,?)");
-        replaceOrderLine.setString(1, id);
-        replaceOrderLine.setString(2, (instanceId==null)?"":instanceId);
-        replaceOrderLine.setString(3, instanceHrid);
-        replaceOrderLine.setString(4, (String)pol.get("purchaseOrderId"));
-        replaceOrderLine.setTimestamp(5, modDate);
-        replaceOrderLine.setString(6, polJson);
-        replaceOrderLine.executeUpdate();
-
-        if ( instanceHrid == null ) {
-          System.out.println(
-              "Purchase order line "+id+" can't be tracked to instance, not queueing for index.");
-          continue;
-        }
-        Change c = new Change(Change.Type.ORDER,id,"Order Line modified",
-            modDate,null,trackUserChange( inventory, polJson ));
-        if ( ! changes.containsKey(instanceHrid)) {
-          Set<Change> t = new HashSet<>();
-          t.add(c);
-          changes.put(instanceHrid,t);
+    try ( PreparedStatement replaceOrderLine = inventory.prepareStatement(
+            "REPLACE INTO orderLineFolio"+
+            " (id, instanceId, instanceHrid, orderId, moddate, content, contentHash)"+
+            " VALUES (?,?,?,?,?,?,?)");
+          PreparedStatement backfill = backfillHash(inventory, "orderLineFolio", "id") ) {
+      eachChangedChunk( folio, "/orders-storage/po-lines", since, until, limit, changedPols -> {
+        Map<String,CachedContent> cached =
+            cachedContent(inventory, "orderLineFolio", "id", keys(changedPols, "id"));
+        Map<String,String> instanceHrids = instanceHrids(inventory, keys(changedPols, "instanceId"));
+        List<String> users = new ArrayList<>();
+        POL: for (Map<String,Object> pol : changedPols) {
+
+          String id = (String)pol.get("id");
+          Map<String,String> metadata = Map.class.cast(pol.get("metadata"));
+          Timestamp modDate = Timestamp.from(Instant.parse(
+              metadata.get("updatedDate").replace("+00:00","Z")));
+          String polJson = mapper.writeValueAsString(pol);
+
+          String polHash = contentHash(polJson);
+          if ( unchanged(cached, id, polJson, polHash, backfill) ) continue POL;
+
+          String instanceId = (String)pol.get("instanceId");
+          String instanceHrid = (instanceId == null) ? null : instanceHrids.get(instanceId);
+
+          replaceOrderLine.setString(1, id);
+          replaceOrderLine.setString(2, (instanceId==null)?"":instanceId);
+          replaceOrderLine.setString(3, instanceHrid);
+          replaceOrderLine.setString(4, (String)pol.get("purchaseOrderId"));
+          replaceOrderLine.setTimestamp(5, modDate);
+          replaceOrderLine.setString(6, polJson);
+          replaceOrderLine.setString(7, polHash);
+          replaceOrderLine.addBatch();
+
+          if ( instanceHrid == null ) {
+            System.out.println(
+                "Purchase order line "+id+" can't be tracked to instance, not queueing for index.");
+            continue;
+          }
+          Change c = new Change(Change.Type.ORDER,id,"Order Line modified",
+              modDate,null,trackUserChange( users, polJson ));
+          if ( ! changes.containsKey(instanceHrid)) {
+            Set<Change> t = new HashSet<>();
+            t.add(c);
+            changes.put(instanceHrid,t);
+          }
+          changes.get(instanceHrid).add(c);
         }
-        changes.get(instanceHrid).add(c);
-      }
+        replaceOrderLine.executeBatch();
+        backfill.executeBatch();
+        saveUserChanges(inventory, users);
 
-    } while (changedPols.size() == limit);
+      });
+    }
 
     return changes;
 
   }
 
   public static Map<String,Set<Change>> detectChangedOrders(
-      Connection inventory, FolioClient folio, Timestamp since ) throws SQLException, IOException, AuthenticationException {
+      Connection inventory, FolioClient folio, Timestamp since, Timestamp until )
+          throws SQLException, IOException, InterruptedException, AuthenticationException {
 
     Map<String,Set<Change>> changes = new HashMap<>();
 
     int limit = 5000;
-    Timestamp modDateCursor = since;
-    List<Map<String, Object>> changedOrders;
 
-    do {
-      changedOrders = folio.queryAsList("/orders-storage/purchase-orders",
-          "metadata.updatedDate>"+modDateCursor.toInstant().toString()+
-          " sortBy metadata.updatedDate",limit);
-      ORDER: for (Map<String,Object> order : changedOrders) {
-
-        String id = (String)order.get("id");
-        Map<String,String> metadata = Map.class.cast(order.get("metadata"));
-        Timestamp modDate = Timestamp.from(Instant.parse(
-            metadata.get("updatedDate").replace("+00:00","Z")));
-        modDateCursor = modDate;
-        String orderJson = mapper.writeValueAsString(order);
-
-        if ( getPreviousOrder == null )
-          getPreviousOrder = inventory.prepareStatement("SELECT content FROM orderFolio WHERE id = ?");
-        getPreviousOrder.setString(1, id);
-        try ( ResultSet rs = getPreviousOrder.executeQuery() ) {
-          while (rs.next()) if (rs.getString("content").equals(orderJson)) continue ORDER;
-        }
-
-        if (replaceOrder == null)
-          replaceOrder = inventory.prepareStatement(
-              "REPLACE INTO orderFolio (id, moddate, content) VALUES (?,?,?)");
-        replaceOrder.setString(1, id);
-        replaceOrder.setTimestamp(2, modDate);
-        replaceOrder.setString(3, orderJson);
-        replaceOrder.executeUpdate();
-
-        if (getOrderParentage == null)
-          getOrderParentage = inventory.prepareStatement(
-              "SELECT instanceHrid FROM orderLineFolio WHERE orderId = ?");
-        getOrderParentage.setString(1, id);
-
-        try (ResultSet rs = getOrderParentage.executeQuery() ) {
-          while (rs.next()) {
-            String instanceHrid = rs.getString(1);
+    try ( PreparedStatement replaceOrder = inventory.prepareStatement(
+            "REPLACE INTO orderFolio (id, moddate, content, contentHash) VALUES (?,?,?,?)");
+          PreparedStatement backfill = backfillHash(inventory, "orderFolio", "id") ) {
+      eachChangedChunk( folio, "/orders-storage/purchase-orders", since, until, limit, changedOrders -> {
+        Map<String,CachedContent> cached =
+            cachedContent(inventory, "orderFolio", "id", keys(changedOrders, "id"));
+        Map<String,List<String>> orderParentage = orderParentage(inventory, keys(changedOrders, "id"));
+        List<String> users = new ArrayList<>();
+        ORDER: for (Map<String,Object> order : changedOrders) {
+
+          String id = (String)order.get("id");
+          Map<String,String> metadata = Map.class.cast(order.get("metadata"));
+          Timestamp modDate = Timestamp.from(Instant.parse(
+              metadata.get("updatedDate").replace("+00:00","Z")));
+          String orderJson = mapper.writeValueAsString(order);
+
+          String orderHash = contentHash(orderJson);
+          if ( unchanged(cached, id, orderJson, orderHash, backfill) ) continue ORDER;
+
+          replaceOrder.setString(1, id);
+          replaceOrder.setTimestamp(2, modDate);
+          replaceOrder.setString(3, orderJson);
+          replaceOrder.setString(4, orderHash);
+          replaceOrder.addBatch();
+
+          for ( String instanceHrid : orderParentage.getOrDefault(id, Collections.emptyList()) ) {
             if ( instanceHrid == null || instanceHrid.isEmpty() ) continue;
             Change c = new Change(Change.Type.ORDER,id,"Order modified",
-                modDate,null,trackUserChange( inventory, orderJson ));
+                modDate,null,trackUserChange( users, orderJson ));
             if ( ! changes.containsKey(instanceHrid)) {
               Set<Change> t = new HashSet<>();
               t.add(c);
@@ -588,53 +538,288 @@ public class ChangeDetector {
             changes.get(instanceHrid).add(c);
           }
         }
-      }
+        replaceOrder.executeBatch();
+        backfill.executeBatch();
+        saveUserChanges(inventory, users);
 
-    } while (changedOrders.size() == limit);
+      });
+    }
 
     return changes;
   }
 
-  public static String trackUserChange( Connection inventory, String json ) throws SQLException {
+  interface ChunkProcessor {
+    void process( List<Map<String,Object>> records )
+        throws SQLException, IOException, InterruptedException, AuthenticationException;
+  }
+
+  /**
+   * Page through the records at endPoint modified after since, and up to until unless until is
+   * null, oldest first. Records are passed to the processor in chunks of up to maxInList. The
+   * response is only parsed while it's being read, and the chunks are processed once the page has
+   * been read in full, so slow database work can't leave the response unread past the read timeout.
+   */
+  static void eachChangedChunk( FolioClient folio, String endPoint, Timestamp since, Timestamp until,
+      int limit, ChunkProcessor processor )
+          throws SQLException, IOException, InterruptedException, AuthenticationException {
+    Timestamp[] cursor = { since };
+    int pageSize;
+    do {
+      List<List<Map<String,Object>>> chunks = new ArrayList<>();
+      pageSize = folio.queryEach(endPoint, updatedQuery(cursor[0], until), limit, record -> {
+        cursor[0] = modDate(record);
+        if ( chunks.isEmpty() || chunks.get(chunks.size()-1).size() == maxInList )
+          chunks.add(new ArrayList<>());
+        chunks.get(chunks.size()-1).add(record);
+      });
+      for ( List<Map<String,Object>> chunk : chunks )
+        processor.process(chunk);
+    } while ( pageSize == limit );
+  }
+
+  private static Timestamp modDate( Map<String,Object> record ) {
+    Map<String,String> metadata = Map.class.cast(record.get("metadata"));
+    return Timestamp.from(Instant.parse(metadata.get("updatedDate").replace("+00:00","Z")));
+  }
+
+  /**
+   * Fetch the formatted SRS record for the instance on the srsFetches pool. Failed fetches are
+   * retried after a jittered exponential backoff, scheduled on the pool rather than slept through,
+   * so waiting retries don't hold a thread. Completes with null if every attempt fails.
+   */
+  static CompletableFuture<String> fetchMarc( FolioClient folio, String id, String hrid, int attempt ) {
+    CompletableFuture<String> marc = new CompletableFuture<>();
+    srsFetches.schedule(() -> attemptMarcFetch(folio, id, hrid, attempt, marc),
+        (attempt == 1) ? 0 : retryDelayMillis(attempt-1), TimeUnit.MILLISECONDS);
+    return marc;
+  }
+
+  private static void attemptMarcFetch(
+      FolioClient folio, String id, String hrid, int attempt, CompletableFuture<String> marc ) {
+    try {
+      marc.complete( folio.query("/source-storage/records/"+id+"/formatted?idType=INSTANCE")
+          .replaceAll("\\s*\\n\\s*", " ") );
+    } catch (IOException | AuthenticationException e) {
+      System.out.printf("Error retrieving MARC from SRS (%s): %s %s\n",e.getMessage(),hrid,id);
+      if ( attempt >= srsAttempts ) { marc.complete(null); return; }
+      srsFetches.schedule(() -> attemptMarcFetch(folio, id, hrid, attempt+1, marc),
+          retryDelayMillis(attempt), TimeUnit.MILLISECONDS);
+    } catch (RuntimeException e) {
+      marc.completeExceptionally(e);
+    }
+  }
+
+  /**
+   * Delay before retrying after the given failed attempt: doubling from one second, capped at
+   * thirty, and randomized over the upper half of that range so retries don't fire in lockstep.
+   */
+  static long retryDelayMillis( int failedAttempt ) {
+    long ceiling = Math.min(30_000, 1000L << Math.min(failedAttempt-1, 15));
+    return ceiling/2 + ThreadLocalRandom.current().nextLong(ceiling/2 + 1);
+  }
+
+  /**
+   * Set the size of the SRS fetch pool to srsFetchThreads (default 8), and the number of attempts
+   * made to fetch each record to srsFetchAttempts (default 3).
+   */
+  public static void configureSrsFetches( Properties prop ) {
+    srsAttempts = Integer.valueOf(prop.getProperty("srsFetchAttempts","3"));
+    srsFetches.setCorePoolSize(Integer.valueOf(prop.getProperty("srsFetchThreads","8")));
+  }
+
+  private static volatile int srsAttempts = 3;
+  private static final ScheduledThreadPoolExecutor srsFetches = new ScheduledThreadPoolExecutor(8, r -> {
+    Thread t = new Thread(r, "srs-fetch");
+    t.setDaemon(true);
+    return t;
+  });
+
+  /**
+   * The user who last modified the record, which is also added to the users list to be saved
+   * to the userChanges table with the rest of the page.
+   */
+  public static String trackUserChange( List<String> users, String json ) {
     Matcher userM = modUserP.matcher(json);
     if ( userM.matches() ) {
       String userId = userM.group(1);
-      if ( trackUpdatesByUser == null )
-        trackUpdatesByUser = inventory.prepareStatement(
-            "INSERT INTO userChanges (id) VALUES (?)");
-      trackUpdatesByUser.setString(1, userId);
-      trackUpdatesByUser.executeUpdate();
+      users.add(userId);
       return userId;
     }
     return null;
   }
 
+  static void saveUserChanges( Connection inventory, List<String> users ) throws SQLException {
+    if ( users.isEmpty() ) return;
+    try ( PreparedStatement trackUpdatesByUser = inventory.prepareStatement(
+        "INSERT INTO userChanges (id) VALUES (?)") ) {
+      for ( String userId : users ) {
+        trackUpdatesByUser.setString(1, userId);
+        trackUpdatesByUser.addBatch();
+      }
+      trackUpdatesByUser.executeBatch();
+    }
+  }
+
+  /**
+   * Records modified after since, and up to until unless until is null, oldest first
+   */
+  static String updatedQuery( Timestamp since, Timestamp until ) {
+    if ( until == null )
+      return "metadata.updatedDate>"+since.toInstant().toString()+" sortBy metadata.updatedDate";
+    return "metadata.updatedDate>"+since.toInstant().toString()+
+        " and metadata.updatedDate<="+until.toInstant().toString()+" sortBy metadata.updatedDate";
+  }
+
+  /**
+   * Hex SHA-1 of the record JSON, stored beside the content so unchanged records can be
+   * recognized without reading the cached content back from the database.
+   */
+  public static String contentHash( String json ) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(json.getBytes(StandardCharsets.UTF_8));
+      char[] hex = new char[digest.length*2];
+      for ( int i = 0; i < digest.length; i++ ) {
+        hex[i*2] = hexDigits[(digest[i] >> 4) & 0xF];
+        hex[i*2+1] = hexDigits[digest[i] & 0xF];
+      }
+      return new String(hex);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e); // every JRE is required to support SHA-1
+    }
+  }
+
+  /**
+   * Content hashes of the cached records with the given keys, read with one query per 500 keys.
+   * Content is only read back for rows cached before content hashes were stored.
+   */
+  static Map<String,CachedContent> cachedContent(
+      Connection inventory, String table, String keyColumn, List<String> keys ) throws SQLException {
+    Map<String,CachedContent> cached = new HashMap<>();
+    selectIn( inventory,
+        "SELECT "+keyColumn+", contentHash,"+
+        " CASE WHEN contentHash IS NULL THEN content END AS content"+
+        "  FROM "+table+" WHERE "+keyColumn+" IN %s", keys,
+        rs -> cached.put(rs.getString(1),
+            new CachedContent(rs.getString("contentHash"), rs.getString("content"))));
+    return cached;
+  }
+
+  /**
+   * Whether the record is cached with the same content. A row cached before content hashes were
+   * stored that's found unchanged has its hash added to the backfill batch, so its content only
+   * needs to be read back and compared the once.
+   */
+  static boolean unchanged( Map<String,CachedContent> cached, String key, String json, String hash,
+      PreparedStatement backfill ) throws SQLException {
+    CachedContent c = cached.get(key);
+    if ( c == null || ! c.matches(json, hash) ) return false;
+    if ( c.hash == null ) {
+      backfill.setString(1, hash);
+      backfill.setString(2, key);
+      backfill.addBatch();
+    }
+    return true;
+  }
+
+  static PreparedStatement backfillHash( Connection inventory, String table, String keyColumn )
+      throws SQLException {
+    return inventory.prepareStatement(
+        "UPDATE "+table+" SET contentHash = ? WHERE "+keyColumn+" = ? AND contentHash IS NULL");
+  }
+
+  /**
+   * Instance hrids by instance id
+   */
+  static Map<String,String> instanceHrids( Connection inventory, List<String> instanceIds )
+      throws SQLException {
+    Map<String,String> hrids = new HashMap<>();
+    selectIn( inventory, "SELECT id, hrid FROM instanceFolio WHERE id IN %s", instanceIds,
+        rs -> hrids.put(rs.getString(1), rs.getString(2)));
+    return hrids;
+  }
+
+  /**
+   * Instance hrid and holding hrid, by holding id
+   */
+  static Map<String,String[]> holdingParentage( Connection inventory, List<String> holdingIds )
+      throws SQLException {
+    Map<String,String[]> parentage = new HashMap<>();
+    selectIn( inventory, "SELECT id, instanceHrid, hrid FROM holdingFolio WHERE id IN %s", holdingIds,
+        rs -> parentage.put(rs.getString(1), new String[] {rs.getString(2), rs.getString(3)}));
+    return parentage;
+  }
+
+  /**
+   * Instance hrid and item hrid, by item id
+   */
+  static Map<String,String[]> itemParentage( Connection inventory, List<String> itemIds )
+      throws SQLException {
+    Map<String,String[]> parentage = new HashMap<>();
+    selectIn( inventory,
+        "SELECT itemFolio.id, instanceHrid, itemFolio.hrid FROM holdingFolio, itemFolio"+
+        " WHERE itemFolio.id IN %s AND itemFolio.holdingHrid = holdingFolio.hrid", itemIds,
+        rs -> parentage.put(rs.getString(1), new String[] {rs.getString(2), rs.getString(3)}));
+    return parentage;
+  }
+
+  /**
+   * Instance hrids of the order lines, by order id
+   */
+  static Map<String,List<String>> orderParentage( Connection inventory, List<String> orderIds )
+      throws SQLException {
+    Map<String,List<String>> parentage = new HashMap<>();
+    selectIn( inventory, "SELECT orderId, instanceHrid FROM orderLineFolio WHERE orderId IN %s",
+        orderIds,
+        rs -> parentage.computeIfAbsent(rs.getString(1), k -> new ArrayList<>()).add(rs.getString(2)));
+    return parentage;
+  }
+
+  private interface RowReader { void read( ResultSet rs ) throws SQLException; }
+
+  /**
+   * Run the query once per 500 keys, with the placeholder list for the keys in place of %s.
+   */
+  private static void selectIn( Connection inventory, String query, List<String> keys, RowReader reader )
+      throws SQLException {
+    for ( int i = 0; i < keys.size(); i += maxInList ) {
+      List<String> chunk = keys.subList(i, Math.min(i + maxInList, keys.size()));
+      try ( PreparedStatement pstmt = inventory.prepareStatement( String.format( query,
+          "("+String.join(",", Collections.nCopies(chunk.size(), "?"))+")")) ) {
+        for ( int j = 0; j < chunk.size(); j++ ) pstmt.setString(j+1, chunk.get(j));
+        try ( ResultSet rs = pstmt.executeQuery() ) {
+          while ( rs.next() ) reader.read(rs);
+        }
+      }
+    }
+  }
+
+  static class CachedContent {
+    final String hash;
+    final String content;
+    CachedContent( String hash, String content ) {
+      this.hash = hash;
+      this.content = content;
+    }
+    boolean matches( String json, String jsonHash ) {
+      if ( this.hash != null ) return this.hash.equals(jsonHash);
+      return json.equals(this.content);
+    }
+  }
+
+  private static List<String> keys( List<Map<String,Object>> records, String field ) {
+    Set<String> keys = new LinkedHashSet<>();
+    for ( Map<String,Object> record : records ) {
+      String key = (String)record.get(field);
+      if ( key != null ) keys.add(key);
+    }
+    return new ArrayList<>(keys);
+  }
+
+  private static final int maxInList = 500;
+  private static final char[] hexDigits = "0123456789abcdef".toCharArray();
   static Pattern modDateP = Pattern.compile("^.*\"updatedDate\" *: *\"([^\"]+)\".*$");
   static Pattern modUserP = Pattern.compile("^.*\"updatedByUserId\" *: *\"([^\"]+)\".*$");
 
-  static PreparedStatement getPreviousInstance = null;
-  static PreparedStatement getPreviousBib = null;
-  static PreparedStatement getPreviousHolding = null;
-  static PreparedStatement getPreviousItem = null;
-  static PreparedStatement getPreviousLoan = null;
-  static PreparedStatement getPreviousRequest = null;
-  static PreparedStatement getPreviousOrder = null;
-  static PreparedStatement getPreviousOrderLine = null;
-  static PreparedStatement replaceInstance = null;
-  static PreparedStatement replaceBib = null;
-  static PreparedStatement replaceHolding = null;
-  static PreparedStatement replaceItem = null;
-  static PreparedStatement replaceLoan = null;
-  static PreparedStatement replaceRequest = null;
-  static PreparedStatement replaceOrder = null;
-  static PreparedStatement replaceOrderLine = null;
-  static PreparedStatement getInstanceHridByInstanceId = null;
-  static PreparedStatement getItemParentage = null;
-  static PreparedStatement getLoanParentage = null;
-  static PreparedStatement getRequestParentage = null;
-  static PreparedStatement getOrderParentage = null;
-  static PreparedStatement trackUpdatesByUser = null;
-  static PreparedStatement deleteRequest = null;
 
   static ObjectMapper mapper = new ObjectMapper();
   static {
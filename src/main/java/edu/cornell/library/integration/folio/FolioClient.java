@@ -1,13 +1,10 @@
 package edu.cornell.library.integration.folio;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.InterruptedIOException;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.rmi.NoSuchObjectException;
 import java.time.Instant;
 import java.time.ZoneId;
@@ -19,14 +16,47 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 import javax.naming.AuthenticationException;
 
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.api.Response;
+import org.eclipse.jetty.client.dynamic.HttpClientTransportDynamic;
+import org.eclipse.jetty.client.http.HttpClientConnectionFactory;
+import org.eclipse.jetty.client.util.InputStreamResponseListener;
+import org.eclipse.jetty.client.util.StringRequestContent;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.ClientConnectionFactoryOverHTTP2;
+import org.eclipse.jetty.io.ClientConnector;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+
 import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+/**
+ * Client for the Folio Okapi APIs. Requests from every FolioClient in the JVM share one pooled
+ * Jetty HttpClient, so connections are kept alive and reused (over HTTP/2 where the server
+ * negotiates it) rather than opened for each request. Gzipped responses are decoded by the
+ * client. Timeouts can be set in the properties as folioConnectTimeoutSeconds (default 10) and
+ * folioReadTimeoutSeconds (default 120); the connect timeout is read by the first client created.
+ */
 public class FolioClient {
 
   private final String name;
@@ -34,10 +64,9 @@ public class FolioClient {
   private final String tenant;
   private final String username;
   private final String password;
-  private String accessToken = null;
-  private Instant accessExpires = null;
-  private String refreshToken = null;
-  private Instant refreshExpires = null;
+  private volatile Tokens tokens = null;
+  private final long readTimeoutSeconds;
+  private final Throttle throttle;
 
   
   protected FolioClient() {
@@ -46,6 +75,8 @@ public class FolioClient {
     this.username = "BOGUS_USER";
     this.password = "BOGUS_PASSWORD";
     this.tenant = "BOGUS_TENANT";
+    this.readTimeoutSeconds = 120;
+    this.throttle = new Throttle(new Properties());
   }
 
   public FolioClient(Properties prop, String identifier) throws IOException, AuthenticationException {
@@ -54,86 +85,144 @@ public class FolioClient {
     this.tenant = prop.getProperty("folioTenant"+identifier);
     this.username = prop.getProperty("folioUser"+identifier);
     this.password = prop.getProperty("folioPass"+identifier);
-    HttpURLConnection c = this.post("/authn/login-with-expiry",String.format(
-        "{\"username\":\"%s\",\"password\":\"%s\"}",this.username,this.password));
-    if (201 != c.getResponseCode())
-      throw new AuthenticationException(String.format("%s:%s %s",this.name,this.username,c.getResponseMessage()));
-    parseLoginResponse(c);
+    this.readTimeoutSeconds = Long.valueOf(prop.getProperty("folioReadTimeoutSeconds","120"));
+    this.throttle = throttles.computeIfAbsent(this.url, k -> new Throttle(prop));
+    startHttpClient(Long.valueOf(prop.getProperty("folioConnectTimeoutSeconds","10")));
+    login();
   }
 
+  /**
+   * Make sure the access token has at least two minutes left, renewing it if not. While the
+   * token is current, this is a single volatile read, so it costs nothing per request. Tokens are
+   * also renewed in the background shortly before they expire, so requests shouldn't usually have
+   * to wait for a renewal at all.
+   */
   public void confirmTokensCurrent() throws AuthenticationException, IOException {
-    Instant inTwoMinutes = Instant.now().plus(2, ChronoUnit.MINUTES);
-    if (this.accessToken != null && this.accessExpires != null) {
-      
-        // access token has at least 2 minutes left, so use it.
-        if (this.accessExpires.isAfter(inTwoMinutes))
-            return;
-
-        // access token is old, but refresh token is still good, so refresh
-        if (this.refreshToken != null && this.refreshExpires != null
-            && this.refreshExpires.isAfter(inTwoMinutes)) {
-            refreshTokens();
-            return;
-        }
-}
+    Tokens t = this.tokens;
+    if (t != null && t.accessExpires.isAfter(Instant.now().plus(2, ChronoUnit.MINUTES)))
+      return;
+    renewTokens(2);
+  }
+
+  /**
+   * Renew the tokens if the access token expires within the given number of minutes. Threads that
+   * find the token stale at the same time queue up here, and the ones after the first find it
+   * already renewed, so there is only ever one renewal in flight.
+   */
+  private synchronized void renewTokens(long minutes) throws AuthenticationException, IOException {
+    Instant cutoff = Instant.now().plus(minutes, ChronoUnit.MINUTES);
+    Tokens t = this.tokens;
+    if (t != null && t.accessExpires.isAfter(cutoff))
+      return;
+
+    // access token is old, but refresh token is still good, so refresh
+    if (t != null && t.refresh != null && t.refreshExpires.isAfter(cutoff)) {
+      try {
+        refreshTokens();
+        return;
+      } catch (AuthenticationException e) {
+        System.out.printf("%s: token refresh failed (%s). Logging in again.\n",this.name,e.getMessage());
+      }
+    }
 
     // login again
-    HttpURLConnection c = this.post("/authn/login-with-expiry",String.format(
-        "{\"username\":\"%s\",\"password\":\"%s\"}",this.username,this.password));
-    if (201 != c.getResponseCode())
-      throw new AuthenticationException(String.format("%s:%s %s",this.name,this.username,c.getResponseMessage()));
-    parseLoginResponse(c);
-}
+    login();
+  }
 
-  public void refreshTokens() throws IOException, AuthenticationException {
+  private synchronized void refreshTokens() throws IOException, AuthenticationException {
+    Tokens t = this.tokens;
     Map<String,String> headers = new HashMap<>();
-    headers.put("Cookie", String.format("folioRefreshToken=%s; folioAccessToken=%s", this.refreshToken,this.accessToken));
+    headers.put("Cookie", String.format("folioRefreshToken=%s; folioAccessToken=%s", t.refresh, t.access));
     
-    HttpURLConnection c = post("/authn/refresh","", headers);
-    if (201 != c.getResponseCode())
-        throw new AuthenticationException(c.getResponseMessage());
-    parseLoginResponse(c);
+    Reply r = send(HttpMethod.POST, "/authn/refresh", "", headers);
+    if (201 != r.status)
+        throw new AuthenticationException(r.reason);
+    parseLoginResponse(r);
+  }
+
+  private synchronized void login() throws IOException, AuthenticationException {
+    System.out.println("About to post /authn/login-with-expiry");
+    Reply r = send(HttpMethod.POST, "/authn/login-with-expiry", String.format(
+        "{\"username\":\"%s\",\"password\":\"%s\"}",this.username,this.password), null);
+    if (201 != r.status)
+      throw new AuthenticationException(String.format("%s:%s %s",this.name,this.username,r.reason));
+    parseLoginResponse(r);
   }
 
-  private void parseLoginResponse(HttpURLConnection c) throws IOException {
-    for (String cookie : c.getHeaderFields().get("Set-Cookie")) {
+  private void parseLoginResponse(Reply r) throws IOException {
+    String access = null, refresh = null;
+    for (String cookie : r.headers.getValuesList(HttpHeader.SET_COOKIE)) {
       if (cookie.startsWith("folioAccessToken"))
-          this.accessToken = cookie.substring(17,cookie.indexOf(';'));
+          access = cookie.substring(17,cookie.indexOf(';'));
       if (cookie.startsWith("folioRefreshToken"))
-          this.refreshToken = cookie.substring(18,cookie.indexOf(';'));
+          refresh = cookie.substring(18,cookie.indexOf(';'));
+    }
+    Map<String,Object> response = mapper.readValue(r.body, Map.class);
+    Tokens t = new Tokens( access,
+        isoDT.parse((String)response.get("accessTokenExpiration"), Instant::from), refresh,
+        isoDT.parse((String)response.get("refreshTokenExpiration"), Instant::from));
+    this.tokens = t;
+    scheduleRenewal(t);
+  }
+
+  /**
+   * Access and refresh tokens with their expirations, replaced together so that readers never
+   * see a token paired with another token's expiration.
+   */
+  private static class Tokens {
+    final String access;
+    final Instant accessExpires;
+    final String refresh;
+    final Instant refreshExpires;
+    Tokens( String access, Instant accessExpires, String refresh, Instant refreshExpires ) {
+      this.access = access;
+      this.accessExpires = accessExpires;
+      this.refresh = refresh;
+      this.refreshExpires = refreshExpires;
     }
-    Map<String,Object> response = mapper.readValue(convertStreamToString(c.getInputStream()), Map.class);
-    this.accessExpires = isoDT.parse((String)response.get("accessTokenExpiration"), Instant::from);
-    this.refreshExpires = isoDT.parse((String)response.get("refreshTokenExpiration"), Instant::from);
   }
+
+  /**
+   * Renew the tokens in the background three minutes before the access token expires, ahead of
+   * the two minute margin at which requests would renew them.
+   */
+  private void scheduleRenewal(Tokens t) {
+    long delay = Math.max(10, Instant.now().until(t.accessExpires, ChronoUnit.SECONDS) - 180);
+    tokenRenewals.schedule(() -> {
+      if (this.tokens != t) return; // already renewed
+      try {
+        renewTokens(4);
+      } catch (AuthenticationException | IOException e) {
+        System.out.printf("%s: background token renewal failed.\n",this.name);
+        e.printStackTrace();
+      }
+    }, delay, TimeUnit.SECONDS);
+  }
+  private static final ScheduledExecutorService tokenRenewals =
+      Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "folio-token-renewal");
+        t.setDaemon(true);
+        return t;
+      });
   private static final DateTimeFormatter isoDT = DateTimeFormatter.ISO_DATE_TIME.withZone(ZoneId.of("Z"));
 
-  public HttpURLConnection post(final String endPoint, final String json) throws IOException {
+  /**
+   * Post on the shared client, subject to the same throttle as other requests.
+   * @return the response body
+   */
+  public String post(final String endPoint, final String json) throws IOException, AuthenticationException {
     return post(endPoint,json,null);
   }
 
-  public HttpURLConnection post(final String endPoint, final String json, Map<String,String> headers) throws IOException {
+  public String post(final String endPoint, final String json, Map<String,String> headers)
+      throws IOException, AuthenticationException {
 
     System.out.println("About to post " + endPoint);
-
-    final URL fullPath = new URL(this.url + endPoint);
-    final HttpURLConnection c = (HttpURLConnection) fullPath.openConnection();
-    c.setRequestProperty("Content-Type", "application/json;charset=utf-8");
-    c.setRequestProperty("X-Okapi-Tenant", this.tenant);
-    if (this.accessToken != null)
-      c.setRequestProperty("X-Okapi-Token", this.accessToken);
-    if (headers != null)
-      for (String headerName : headers.keySet())
-        c.setRequestProperty(headerName, headers.get(headerName));
-
-    c.setRequestMethod("POST");
-    c.setDoOutput(true);
-    c.setDoInput(true);
-    final OutputStreamWriter writer = new OutputStreamWriter(c.getOutputStream());
-    writer.write(json);
-    writer.flush();
-
-    return c;
+    confirmTokensCurrent();
+    final Reply r = send(HttpMethod.POST, endPoint, json, headers);
+    if (r.status >= 400)
+      throw new IOException(r.reason);
+    return r.body;
   }
 
   public String put(final String endPoint, final Map<String, Object> object) throws IOException, AuthenticationException {
@@ -143,24 +232,10 @@ public class FolioClient {
   public String put(final String endPoint, final String uuid, final String json) throws IOException, AuthenticationException {
 
     confirmTokensCurrent();
-    final HttpURLConnection c = commonConnectionSetup(endPoint + "/" + uuid);
-    c.setRequestMethod("PUT");
-    c.setDoOutput(true);
-    c.setDoInput(true);
-    final OutputStreamWriter writer = new OutputStreamWriter(c.getOutputStream());
-    writer.write(json);
-    writer.flush();
-    //      int responseCode = httpConnection.getResponseCode();
-    //      if (responseCode != 200)
-    //          throw new IOException(httpConnection.getResponseMessage());
-    final StringBuilder sb = new StringBuilder();
-    try (BufferedReader br = new BufferedReader(new InputStreamReader(c.getInputStream(), "utf-8"))) {
-      String line = null;
-      while ((line = br.readLine()) != null) {
-        sb.append(line + "\n");
-      }
-    }
-    return sb.toString();
+    final Reply r = send(HttpMethod.PUT, endPoint + "/" + uuid, json, null);
+    if (r.status >= 400)
+      throw new IOException(r.reason);
+    return r.body;
   }
 
   public String delete(final String endPoint, final String uuid) throws IOException, AuthenticationException {
@@ -198,27 +273,105 @@ public class FolioClient {
 
   public String getRecord(final String endPoint, final String uuid) throws IOException, AuthenticationException {
     confirmTokensCurrent();
-    final HttpURLConnection c = commonConnectionSetup(endPoint + "/" + uuid);
-    final int responseCode = c.getResponseCode();
-    if (responseCode != 200)
-      throw new NoSuchObjectException(c.getResponseMessage());
-
-    try (InputStream is = c.getInputStream()) {
-      return convertStreamToString(is);
-    }
+    final Reply r = send(HttpMethod.GET, endPoint + "/" + uuid, null, null);
+    if (r.status != 200)
+      throw new NoSuchObjectException(r.reason);
+    return r.body;
   }
 
   public List<Map<String, Object>> queryAsList(final String endPoint, final String query, final Integer limit) throws IOException, AuthenticationException {
-    return resultsToList(query(endPoint, query, limit));
+    final List<Map<String, Object>> records = new ArrayList<>();
+    queryEach(endPoint, query, limit, records::add);
+    return records;
   }
 
   public Map<String, Map<String, Object>> queryAsMap(final String endPoint, final String query, final Integer limit) throws IOException, AuthenticationException {
-    return resultsToMap(query(endPoint, query, limit));
+    final Map<String, Map<String, Object>> dataMap = new HashMap<>();
+    queryEach(endPoint, query, limit, record -> {
+      if (record.containsKey("name") && ((String) record.get("name")).contains("Test License"))
+        return;
+      dataMap.put((String) record.get("id"), record);
+    });
+    return dataMap;
+  }
+
+  public interface RecordHandler {
+    void record(Map<String, Object> record) throws IOException;
+  }
+
+  /**
+   * Run the query, passing each record to the handler as soon as it's parsed from the response.
+   * Neither the response text nor the page of records is held in memory, so processing can
+   * begin while the rest of the page is still downloading.
+   * @return the number of records in the page
+   */
+  public int queryEach(final String endPoint, final String query, final Integer limit, final RecordHandler handler)
+      throws IOException, AuthenticationException {
+
+    confirmTokensCurrent();
+    final String path = queryPath(endPoint, query, limit);
+    System.out.println(path);
+    return exchange(HttpMethod.GET, path, null, null, (response, is) -> {
+      if (response.getStatus() != 200) {
+        System.out.println(IOUtils.toString(is, StandardCharsets.UTF_8));
+        throw new IOException(response.getReason());
+      }
+      return eachRecord(is, handler);
+    });
+  }
+
+  /**
+   * Stream the records out of a Folio result, which is either an array of records or an object
+   * with the records in an array alongside keys like totalRecords.
+   */
+  static int eachRecord(final InputStream is, final RecordHandler handler) throws IOException {
+    int count = 0;
+    try (JsonParser p = mapper.getFactory().createParser(is)) {
+      p.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+      JsonToken token = p.nextToken();
+      if (token == JsonToken.START_ARRAY)
+        return eachRecord(p, handler);
+      if (token != JsonToken.START_OBJECT)
+        return 0;
+      boolean found = false;
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        final String key = p.getCurrentName();
+        token = p.nextToken();
+        if (!found && token == JsonToken.START_ARRAY && !notRecordsKeys.contains(key)) {
+          count = eachRecord(p, handler);
+          found = true;
+        } else
+          p.skipChildren();
+      }
+    }
+    return count;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static int eachRecord(final JsonParser p, final RecordHandler handler) throws IOException {
+    int count = 0;
+    while (p.nextToken() == JsonToken.START_OBJECT) {
+      handler.record(mapper.readValue(p, Map.class));
+      count++;
+    }
+    return count;
   }
 
   public String query(final String endPoint, final String query, final Integer limit) throws IOException, AuthenticationException {
 
     confirmTokensCurrent();
+    final String path = queryPath(endPoint, query, limit);
+    System.out.println(path);
+    final Reply r = send(HttpMethod.GET, path, null, null);
+
+    if (r.status != 200) {
+      System.out.println(r.body);
+      throw new IOException(r.reason);
+    }
+    return r.body;
+  }
+
+  private static String queryPath(final String endPoint, final String query, final Integer limit) throws IOException {
     final StringBuilder sb = new StringBuilder();
     sb.append(endPoint);
     if (query != null) {
@@ -232,22 +385,7 @@ public class FolioClient {
       sb.append('=');
       sb.append(limit);
     }
-    System.out.println(sb.toString());
-    final HttpURLConnection c = commonConnectionSetup(sb.toString());
-    final int responseCode = c.getResponseCode();
-
-    if (responseCode != 200) {
-      try (InputStream is = c.getErrorStream()) {
-        String response = convertStreamToString(is);
-        System.out.println(response);
-      }
-      throw new IOException(c.getResponseMessage());
-    }
-    try (InputStream is = c.getInputStream()) {
-      String response = convertStreamToString(is);
-//      System.out.println(response);
-      return response;
-    }
+    return sb.toString();
   }
 
   public String query(final String endPointQuery) throws IOException, AuthenticationException {
@@ -256,14 +394,10 @@ public class FolioClient {
     final StringBuilder sb = new StringBuilder();
     sb.append(endPointQuery);
     System.out.println(sb.toString());
-    final HttpURLConnection c = commonConnectionSetup(sb.toString());
-    final int responseCode = c.getResponseCode();
-    if (responseCode != 200)
-      throw new IOException(c.getResponseMessage());
-
-    try (InputStream is = c.getInputStream()) {
-      return convertStreamToString(is);
-    }
+    final Reply r = send(HttpMethod.GET, sb.toString(), null, null);
+    if (r.status != 200)
+      throw new IOException(r.reason);
+    return r.body;
   }
 
   static final List<String> notRecordsKeys = Arrays.asList("totalRecords", "resultInfo", "pageSize", "page",
@@ -279,15 +413,11 @@ public class FolioClient {
       records = mapper.readValue(readValue, ArrayList.class);
     } else {
       final Map<String, Object> rawData = mapper.readValue(readValue, Map.class);
-      System.out.println(String.join(", ", rawData.keySet()));
       for (final String mainKey : rawData.keySet())
-        if (!notRecordsKeys.contains(mainKey)) {
+        if (!notRecordsKeys.contains(mainKey))
           records = (ArrayList<Map<String, Object>>) rawData.get(mainKey);
-          System.out.println(records);
-        }
     }
     for (final Map<String, Object> record : records) {
-      System.out.println(record.get("name"));
       if (record.containsKey("name") && ((String) record.get("name")).contains("Test License"))
         continue;
       dataMap.put((String) record.get("id"), record);
@@ -313,37 +443,252 @@ public class FolioClient {
 
   // END OF PUBLIC UTILITIES
 
-  private HttpURLConnection commonConnectionSetup(final String path) throws IOException {
-    final URL fullPath = new URL(this.url + path);
-    final HttpURLConnection c = (HttpURLConnection) fullPath.openConnection();
-    c.setRequestProperty("Content-Type", "application/json;charset=utf-8");
-    c.setRequestProperty("X-Okapi-Tenant", this.tenant);
-    c.setRequestProperty("X-Okapi-Token", this.accessToken);
-    return c;
+  private StringBuilder delete(final String endPoint, final String uuid, final StringBuilder sb) throws IOException, AuthenticationException {
+    confirmTokensCurrent();
+    final Reply r = send(HttpMethod.DELETE, endPoint + "/" + uuid, null, null);
+    if (r.status >= 400)
+      throw new IOException(r.reason);
+    sb.append(r.body);
+    return sb;
+  }
 
+  private static class Reply {
+    final int status;
+    final String reason;
+    final HttpFields headers;
+    final String body;
+    Reply( Response response, String body ) {
+      this.status = response.getStatus();
+      this.reason = response.getReason();
+      this.headers = response.getHeaders();
+      this.body = body;
+    }
   }
 
-  private StringBuilder delete(final String endPoint, final String uuid, final StringBuilder sb) throws IOException, AuthenticationException {
-    confirmTokensCurrent();
-    final HttpURLConnection c = commonConnectionSetup(endPoint + "/" + uuid);
-    c.setRequestMethod("DELETE");
-    //      int responseCode = httpConnection.getResponseCode();
-    //      if (responseCode != 200)
-    //          throw new IOException(httpConnection.getResponseMessage());
-    try (BufferedReader br = new BufferedReader(new InputStreamReader(c.getInputStream(), "utf-8"))) {
-      String line = null;
-      while ((line = br.readLine()) != null) {
-        sb.append(line + "\n");
+  private Reply send( HttpMethod method, String path, String json, Map<String,String> headers )
+      throws IOException {
+    return exchange( method, path, json, headers,
+        (response, is) -> new Reply(response, IOUtils.toString(is, StandardCharsets.UTF_8)));
+  }
+
+  private interface ResponseReader<T> {
+    T read( Response response, InputStream body ) throws IOException;
+  }
+
+  /**
+   * Sends the request on the shared client and hands the (decompressed) response body to the
+   * reader as it arrives. The read timeout limits how long the request may wait for each part of
+   * the response, so a slow but steady response to a large query isn't cut off.
+   */
+  private <T> T exchange( HttpMethod method, String path, String json, Map<String,String> headers,
+      ResponseReader<T> reader ) throws IOException {
+    Request request = httpClient.newRequest(this.url + path)
+        .method(method)
+        .idleTimeout(this.readTimeoutSeconds, TimeUnit.SECONDS)
+        .headers(h -> {
+          h.put("X-Okapi-Tenant", this.tenant);
+          Tokens t = this.tokens;
+          if (t != null) h.put("X-Okapi-Token", t.access);
+          if (headers != null) for (Map.Entry<String,String> e : headers.entrySet()) h.put(e.getKey(), e.getValue());
+        });
+    if ( json != null )
+      request.body(new StringRequestContent("application/json;charset=utf-8", json, StandardCharsets.UTF_8));
+    else
+      request.headers(h -> h.put(HttpHeader.CONTENT_TYPE, "application/json;charset=utf-8"));
+
+    String family = endpointFamily(path);
+    this.throttle.acquire(family, method+" "+path);
+    Outcome outcome = Outcome.FAILURE;
+    InputStreamResponseListener listener = new InputStreamResponseListener();
+    request.send(listener);
+    try {
+      Response response = listener.get(this.readTimeoutSeconds, TimeUnit.SECONDS);
+      outcome = ( response.getStatus() >= 500 ) ? Outcome.FAILURE : Outcome.SUCCESS;
+      T result;
+      try ( InputStream is = listener.getInputStream() ) {
+        result = reader.read(response, is);
+        IOUtils.consume(is);
+      }
+      // Let the exchange complete, so the connection is back in the pool for the next request
+      listener.await(this.readTimeoutSeconds, TimeUnit.SECONDS);
+      return result;
+    } catch (InterruptedException e) {
+      outcome = Outcome.INTERRUPTED;
+      request.abort(e);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(method+" "+path+" interrupted");
+    } catch (TimeoutException e) {
+      outcome = Outcome.TIMEOUT;
+      request.abort(e);
+      throw new IOException(method+" "+path+" timed out", e);
+    } catch (ExecutionException e) {
+      if ( e.getCause() instanceof TimeoutException )
+        outcome = Outcome.TIMEOUT;
+      throw new IOException(method+" "+path+" failed: "+e.getCause().getMessage(), e.getCause());
+    } finally {
+      this.throttle.release(family, outcome);
+    }
+  }
+
+  /**
+   * The first segment of the path, such as /holdings-storage or /source-storage, which
+   * identifies the Okapi module serving the request.
+   */
+  static String endpointFamily( String path ) {
+    int end = path.length();
+    for ( char c : new char[] {'?', '/'} ) {
+      int i = path.indexOf(c, 1);
+      if ( i > 0 && i < end ) end = i;
+    }
+    return path.substring(0, end);
+  }
+
+  /**
+   * Limits on the requests made to one Okapi, shared by every FolioClient connected to it:
+   * <ul>
+   * <li>a token bucket allowing folioRequestsPerSecond (default 100),</li>
+   * <li>at most folioMaxInFlightPerEndpoint (default 16) concurrent requests to each endpoint
+   *     family, and</li>
+   * <li>a circuit breaker that fails requests immediately for folioCircuitOpenSeconds (default
+   *     30) after folioCircuitFailures (default 5) consecutive server errors or failed requests,
+   *     then lets a single trial request through to see whether Okapi has recovered.</li>
+   * </ul>
+   * Requests that time out or are interrupted count as neither failures nor successes.
+   */
+  static class Throttle {
+    final RateLimiter rate;
+    final CircuitBreaker breaker;
+    private final int maxInFlight;
+    private final Map<String,Semaphore> inFlight = new ConcurrentHashMap<>();
+
+    Throttle( Properties prop ) {
+      this.rate = new RateLimiter(Double.valueOf(prop.getProperty("folioRequestsPerSecond","100")));
+      this.maxInFlight = Integer.valueOf(prop.getProperty("folioMaxInFlightPerEndpoint","16"));
+      this.breaker = new CircuitBreaker(
+          Integer.valueOf(prop.getProperty("folioCircuitFailures","5")),
+          1000*Long.valueOf(prop.getProperty("folioCircuitOpenSeconds","30")));
+    }
+
+    void acquire( String family, String request ) throws IOException {
+      Semaphore permits = this.inFlight.computeIfAbsent(family, k -> new Semaphore(this.maxInFlight, true));
+      try {
+        this.rate.acquire();
+        permits.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(request+" interrupted");
+      }
+      if ( ! this.breaker.allow(System.currentTimeMillis()) ) {
+        permits.release();
+        throw new IOException("Folio circuit open after repeated server errors. Not sending "+request);
+      }
+    }
+
+    void release( String family, Outcome outcome ) {
+      this.inFlight.get(family).release();
+      switch ( outcome ) {
+      case SUCCESS: this.breaker.success(); break;
+      case FAILURE: this.breaker.failure(System.currentTimeMillis()); break;
+      default:      this.breaker.abandon();
+      }
+    }
+  }
+  enum Outcome { SUCCESS, FAILURE, TIMEOUT, INTERRUPTED }
+  private static final Map<String,Throttle> throttles = new ConcurrentHashMap<>();
+
+  static class RateLimiter {
+    private final double permitsPerNano;
+    private final double burst;
+    private double available;
+    private long refilled = System.nanoTime();
+
+    RateLimiter( double permitsPerSecond ) {
+      this.permitsPerNano = permitsPerSecond / 1_000_000_000d;
+      this.burst = Math.max(1, permitsPerSecond);
+      this.available = this.burst;
+    }
+
+    void acquire() throws InterruptedException {
+      long wait = reserve(System.nanoTime());
+      if ( wait > 0 ) TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    /**
+     * Take a permit, returning how many nanoseconds the caller must wait before using it. Permits
+     * taken ahead of the refill leave the bucket in debt, which queues callers behind each other.
+     */
+    synchronized long reserve( long now ) {
+      this.available = Math.min(this.burst, this.available + (now - this.refilled) * this.permitsPerNano);
+      this.refilled = now;
+      this.available -= 1;
+      return ( this.available >= 0 ) ? 0 : (long) (-this.available / this.permitsPerNano);
+    }
+  }
+
+  static class CircuitBreaker {
+    private final int threshold;
+    private final long openMillis;
+    private int failures = 0;
+    private long openUntil = 0;
+    private boolean trialInFlight = false;
+
+    CircuitBreaker( int threshold, long openMillis ) {
+      this.threshold = threshold;
+      this.openMillis = openMillis;
+    }
+
+    synchronized boolean allow( long now ) {
+      if ( this.failures < this.threshold ) return true;
+      if ( now < this.openUntil || this.trialInFlight ) return false;
+      this.trialInFlight = true;
+      return true;
+    }
+
+    synchronized void success() {
+      this.failures = 0;
+      this.trialInFlight = false;
+    }
+
+    /**
+     * The request ended without telling us whether Okapi is healthy. A trial request that ends
+     * this way lets another trial through.
+     */
+    synchronized void abandon() {
+      this.trialInFlight = false;
+    }
+
+    synchronized void failure( long now ) {
+      this.failures++;
+      this.trialInFlight = false;
+      if ( this.failures >= this.threshold ) {
+        if ( this.failures == this.threshold )
+          System.out.printf("Folio circuit opened after %d consecutive failures.\n", this.failures);
+        this.openUntil = now + this.openMillis;
       }
     }
-    return sb;
   }
 
-  private static String convertStreamToString(final java.io.InputStream is) {
-    try (java.util.Scanner s = new java.util.Scanner(is)) {
-      s.useDelimiter("\\A");
-      return s.hasNext() ? s.next() : "";
+  private static HttpClient httpClient = null;
+
+  private static synchronized void startHttpClient( long connectTimeoutSeconds ) throws IOException {
+    if ( httpClient != null ) return;
+    ClientConnector connector = new ClientConnector();
+    QueuedThreadPool threads = new QueuedThreadPool();
+    threads.setName("folio-client");
+    threads.setDaemon(true);
+    connector.setExecutor(threads);
+    connector.setScheduler(new ScheduledExecutorScheduler("folio-client-scheduler", true));
+    HttpClient client = new HttpClient(new HttpClientTransportDynamic(connector,
+        HttpClientConnectionFactory.HTTP11, new ClientConnectionFactoryOverHTTP2.HTTP2(new HTTP2Client(connector))));
+    client.setConnectTimeout(connectTimeoutSeconds*1000);
+    client.setIdleTimeout(5*60*1000); // pooled connections unused this long are closed
+    client.setMaxConnectionsPerDestination(32);
+    try {
+      client.start();
+    } catch (Exception e) {
+      throw new IOException("Failed to start Folio HTTP client", e);
     }
+    httpClient = client;
   }
 
   protected static ObjectMapper mapper = new ObjectMapper();
@@ -351,15 +696,16 @@ public class FolioClient {
 
   public void printLoginStatus() {
     Instant now = Instant.now();
+    Tokens t = this.tokens;
     System.out.format("%s:%s; ACCESS: %s; REFRESH: %s\n",
         this.name,this.username,
-        humanReadableTimespan(now.until(accessExpires,ChronoUnit.SECONDS)),
-        humanReadableTimespan(now.until(refreshExpires,ChronoUnit.SECONDS)));
+        humanReadableTimespan(now.until(t.accessExpires,ChronoUnit.SECONDS)),
+        humanReadableTimespan(now.until(t.refreshExpires,ChronoUnit.SECONDS)));
   }
 
   public long getRemainingAuthSeconds() {
     Instant now = Instant.now();
-    return now.until(accessExpires,ChronoUnit.SECONDS);
+    return now.until(this.tokens.accessExpires,ChronoUnit.SECONDS);
 }
 
   private String humanReadableTimespan(long seconds) {
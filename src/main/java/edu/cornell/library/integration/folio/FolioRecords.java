@@ -0,0 +1,127 @@
+package edu.cornell.library.integration.folio;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Typed bindings for the Folio instance, holding, item and loan records read while indexing.
+ * Only the fields we use are bound, and the parser skips over the rest of each record. The
+ * record JSON is kept, so the complete record can still be parsed on demand with raw().
+ */
+public class FolioRecords {
+
+  public static <T extends FolioRecord> T read( String json, Class<T> type ) throws IOException {
+    T record = mapper.readValue(json, type);
+    record.json = json;
+    return record;
+  }
+
+  public abstract static class FolioRecord {
+    @JsonIgnore String json = null;
+    @JsonIgnore private Map<String,Object> raw = null;
+
+    /**
+     * The full record as parsed JSON, or null if the record wasn't read from JSON.
+     */
+    public Map<String,Object> raw() throws IOException {
+      if ( this.raw == null && this.json != null )
+        this.raw = mapper.readValue(this.json, Map.class);
+      return this.raw;
+    }
+  }
+
+  public static class InstanceRecord extends FolioRecord {
+    @JsonProperty("id")                  public String id;
+    @JsonProperty("hrid")                public String hrid;
+  }
+
+  public static class HoldingRecord extends FolioRecord {
+    @JsonProperty("id")                  public String id;
+    @JsonProperty("hrid")                public String hrid;
+    @JsonProperty("metadata")            public Map<String,String> metadata;
+    @JsonProperty("discoverySuppress")   public Boolean discoverySuppress;
+    @JsonProperty("staffSuppress")       public Boolean staffSuppress;
+    @JsonProperty("temporaryLocationId") public String temporaryLocationId;
+    @JsonProperty("permanentLocationId") public String permanentLocationId;
+    @JsonProperty("callNumberPrefix")    public String callNumberPrefix;
+    @JsonProperty("callNumber")          public String callNumber;
+    @JsonProperty("callNumberSuffix")    public String callNumberSuffix;
+    @JsonProperty("callNumberTypeId")    public String callNumberTypeId;
+    @JsonProperty("copyNumber")          public String copyNumber;
+    @JsonProperty("notes")               public List<Note> notes;
+    @JsonProperty("holdingsStatements")  public List<HoldingsStatement> holdingsStatements;
+    @JsonProperty("holdingsStatementsForSupplements")
+                                         public List<HoldingsStatement> holdingsStatementsForSupplements;
+    @JsonProperty("holdingsStatementsForIndexes")
+                                         public List<HoldingsStatement> holdingsStatementsForIndexes;
+    @JsonProperty("receivingHistory")    public ReceivingHistory receivingHistory;
+    @JsonProperty("statisticalCodeIds")  public List<String> statisticalCodeIds;
+  }
+
+  public static class ItemRecord extends FolioRecord {
+    @JsonProperty("id")                  public String id;
+    @JsonProperty("hrid")                public String hrid;
+    @JsonProperty("metadata")            public Map<String,String> metadata;
+    @JsonProperty("barcode")             public String barcode;
+    @JsonProperty("copyNumber")          public String copyNumber;
+    @JsonProperty("enumeration")         public String enumeration;
+    @JsonProperty("chronology")          public String chronology;
+    @JsonProperty("temporaryLocationId") public String temporaryLocationId;
+    @JsonProperty("permanentLocationId") public String permanentLocationId;
+    @JsonProperty("discoverySuppress")   public Boolean discoverySuppress;
+    @JsonProperty("temporaryLoanTypeId") public String temporaryLoanTypeId;
+    @JsonProperty("permanentLoanTypeId") public String permanentLoanTypeId;
+    @JsonProperty("materialTypeId")      public String materialTypeId;
+    @JsonProperty("status")              public Status status;
+    @JsonProperty("lastCheckIn")         public CheckIn lastCheckIn;
+    @JsonProperty("notes")               public List<Note> notes;
+    @JsonProperty("statisticalCodeIds")  public List<String> statisticalCodeIds;
+    // Shelving sequence, from the itemSequence table rather than Folio
+    @JsonIgnore                          public Integer sequence = null;
+  }
+
+  public static class LoanRecord extends FolioRecord {
+    @JsonProperty("status")              public Status status;
+    @JsonProperty("dueDate")             public String dueDate;
+  }
+
+  public static class Status {
+    @JsonProperty("name")                public String name;
+    @JsonProperty("date")                public String date;
+  }
+
+  public static class CheckIn {
+    @JsonProperty("dateTime")            public String dateTime;
+  }
+
+  public static class Note {
+    @JsonProperty("holdingsNoteTypeId")  public String holdingsNoteTypeId;
+    @JsonProperty("itemNoteTypeId")      public String itemNoteTypeId;
+    @JsonProperty("note")                public String note;
+    @JsonProperty("staffOnly")           public Boolean staffOnly;
+  }
+
+  public static class HoldingsStatement {
+    @JsonProperty("statement")           public String statement;
+    @JsonProperty("note")                public String note;
+  }
+
+  public static class ReceivingHistory {
+    @JsonProperty("entries")             public List<ReceivingHistoryEntry> entries;
+  }
+
+  public static class ReceivingHistoryEntry {
+    @JsonProperty("publicDisplay")       public Boolean publicDisplay;
+    @JsonProperty("enumeration")         public String enumeration;
+    @JsonProperty("chronology")          public String chronology;
+  }
+
+  static ObjectMapper mapper = new ObjectMapper()
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+}
@@ -1,7 +1,6 @@
 package edu.cornell.library.integration.folio;
 
 import java.io.IOException;
-import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -24,6 +23,10 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import edu.cornell.library.integration.folio.FolioRecords.HoldingRecord;
+import edu.cornell.library.integration.folio.FolioRecords.HoldingsStatement;
+import edu.cornell.library.integration.folio.FolioRecords.Note;
+import edu.cornell.library.integration.folio.FolioRecords.ReceivingHistoryEntry;
 import edu.cornell.library.integration.folio.Items.Item;
 import edu.cornell.library.integration.folio.LoanTypes.ExpectedLoanType;
 import edu.cornell.library.integration.folio.Locations.Location;
@@ -55,7 +58,7 @@ public class Holding {
   @JsonProperty("active")      public boolean active = true;
 
 
-  @JsonIgnore public Map<String,Object> rawFolioHolding = null;
+  @JsonIgnore public HoldingRecord folioHolding = null;
   @JsonIgnore public MarcRecord marc = null;
   @JsonIgnore public List<String> donors = null;
   @JsonIgnore public String callNumberSuffix = null;
@@ -66,29 +69,29 @@ public class Holding {
   }
 
 
-  Holding(Connection inventory, Map<String,Object> raw,
+  Holding(InventorySnapshot inventory, HoldingRecord raw,
       Locations locations, ReferenceData holdingsNoteTypes, ReferenceData callNumberTypes)
       throws JsonParseException, JsonMappingException, SQLException, IOException {
 
-    this.rawFolioHolding = raw;
-    Map<String,String> metadata = (Map<String,String>)raw.get("metadata");
-    if ( metadata.containsKey("UpdatedDate") && metadata.get("UpdatedDate") != null )
+    this.folioHolding = raw;
+    Map<String,String> metadata = raw.metadata;
+    if ( metadata.get("UpdatedDate") != null )
       this.date = (int) Instant.parse(metadata.get("UpdatedDate")).getEpochSecond();
-    else if ( metadata.containsKey("CreatedDate") && metadata.get("CreatedDate") != null )
+    else if ( metadata.get("CreatedDate") != null )
       this.date = (int) Instant.parse(metadata.get("CreatedDate")).getEpochSecond();
-    this.hrid = (String)raw.get("hrid");
+    this.hrid = raw.hrid;
 
-    if (  ( raw.containsKey("discoverySuppress") && (boolean) raw.get("discoverySuppress") )
-        || ( raw.containsKey("staffSuppress") && (boolean) raw.get("staffSuppress") ) )
+    if (  ( raw.discoverySuppress != null && raw.discoverySuppress )
+        || ( raw.staffSuppress != null && raw.staffSuppress ) )
       this.active = false;
     else
       this.active = true;
 
     String locationId = null;
-    if ( raw.containsKey("temporaryLocationId") ) {
-      locationId = (String)raw.get("temporaryLocationId");
-    } else if ( raw.containsKey("permanentLocationId") ) {
-      locationId = (String)raw.get("permanentLocationId");
+    if ( raw.temporaryLocationId != null ) {
+      locationId = raw.temporaryLocationId;
+    } else if ( raw.permanentLocationId != null ) {
+      locationId = raw.permanentLocationId;
     }
 
     if ( locationId != null ) {
@@ -100,13 +103,13 @@ public class Holding {
     }
 
     boolean mainCallNumberPresent = false;
-    if ( raw.containsKey("callNumberSuffix") )
-      this.callNumberSuffix = (String) raw.get("callNumberSuffix");
+    if ( raw.callNumberSuffix != null )
+      this.callNumberSuffix = raw.callNumberSuffix;
     List<String> callNumberParts = new ArrayList<>();
-    if ( raw.containsKey("callNumberPrefix") )
-      callNumberParts.add((String)raw.get("callNumberPrefix"));
-    if ( raw.containsKey("callNumber") ) {
-      String callNumber = ((String)raw.get("callNumber")).trim();
+    if ( raw.callNumberPrefix != null )
+      callNumberParts.add(raw.callNumberPrefix);
+    if ( raw.callNumber != null ) {
+      String callNumber = raw.callNumber.trim();
       if ( ! callNumber.isEmpty() && ! callNumber.equalsIgnoreCase("no call number")) {
         callNumberParts.add(callNumber);
         mainCallNumberPresent = true;
@@ -121,32 +124,30 @@ public class Holding {
         if (! call.isEmpty() ) this.call = call;
       }
     }
-    if ( raw.containsKey("callNumberTypeId") && mainCallNumberPresent ) {
-      String type = callNumberTypes.getName((String)raw.get("callNumberTypeId"));
+    if ( raw.callNumberTypeId != null && mainCallNumberPresent ) {
+      String type = callNumberTypes.getName(raw.callNumberTypeId);
       if ( type != null &&
           ( type.equals("Library of Congress classification") || type.equals("LC Modified") ) )
         this.lcCallNum = true;
     }
-    if ( raw.containsKey("copyNumber") )
-      this.copy = (String) raw.get("copyNumber");
-
-    if ( raw.containsKey("notes") ) {
-      List<Map<String,Object>> notes = (List<Map<String,Object>>)raw.get("notes");
-      for ( Map<String,Object> note : notes ) {
-        String type = holdingsNoteTypes.getName((String) note.get("holdingsNoteTypeId"));
-        String text = (String) note.get("note");
+    if ( raw.copyNumber != null )
+      this.copy = raw.copyNumber;
+
+    if ( raw.notes != null ) {
+      for ( Note note : raw.notes ) {
+        String type = holdingsNoteTypes.getName(note.holdingsNoteTypeId);
+        String text = note.note;
         if ( type == null || type.isEmpty() || text == null || text.isEmpty() ) {
           System.out.printf("Skipping invalid holding note on holding hrid%s.\n", this.hrid);
           continue;
         }
-        Object so = note.get("staffOnly");
-        boolean staffOnly = (String.class.isInstance(so)) ? Boolean.valueOf((String)so): (boolean) so;
+        boolean staffOnly = note.staffOnly != null && note.staffOnly;
 
         if ( type.equals("Bound with item data") ) {
           if (this.boundWiths == null)
-            this.boundWiths = BoundWith.fromNote(inventory,(String)note.get("note"),this);
+            this.boundWiths = BoundWith.fromNote(inventory,text,this);
           else
-            this.boundWiths.putAll(BoundWith.fromNote(inventory,(String)note.get("note"),this));
+            this.boundWiths.putAll(BoundWith.fromNote(inventory,text,this));
           continue;
         }
 
@@ -172,66 +173,45 @@ public class Holding {
       }
     }
 
-    if ( raw.containsKey("holdingsStatements") ) {
-      List<Map<String,String>> a = (List<Map<String,String>>)raw.get("holdingsStatements");
-      List<String> holdings = new ArrayList<>();
-      for (Map<String,String> statement : a) {
-        if (statement == null ) continue;
-        List<String> parts = new ArrayList<>();
-        if ( statement.containsKey("statement") ) parts.add(statement.get("statement"));
-        if ( statement.containsKey("note") )      parts.add(statement.get("note"));
-        if ( parts.size() > 0 ) holdings.add(insertSpaceAfterCommas(String.join(" ", parts)));
-      }
-      this.holdings = holdings;
-    } else
-      this.holdings = null;
-
-    if ( raw.containsKey("holdingsStatementsForSupplements") ) {
-      List<Map<String,String>> a =
-          (List<Map<String,String>>)raw.get("holdingsStatementsForSupplements");
-      List<String> holdings = new ArrayList<>();
-      for (Map<String,String> statement : a) {
-        if (statement == null ) continue;
-        List<String> parts = new ArrayList<>();
-        if ( statement.containsKey("statement") ) parts.add(statement.get("statement"));
-        if ( statement.containsKey("note") )      parts.add(statement.get("note"));
-        if ( parts.size() > 0 ) holdings.add(insertSpaceAfterCommas(String.join(" ", parts)));
-      }
-      this.supplements = holdings;
-    } else
-      this.supplements = null;
-
-    if ( raw.containsKey("holdingsStatementsForIndexes") ) {
-      List<Map<String,String>> a = (List<Map<String,String>>)raw.get("holdingsStatementsForIndexes");
-      List<String> holdings = new ArrayList<>();
-      for (Map<String,String> statement : a) {
-        if (statement == null ) continue;
+    this.holdings = holdingsStatements(raw.holdingsStatements);
+    this.supplements = holdingsStatements(raw.holdingsStatementsForSupplements);
+    this.indexes = holdingsStatements(raw.holdingsStatementsForIndexes);
+
+    if (raw.receivingHistory != null && raw.receivingHistory.entries != null)
+      for (ReceivingHistoryEntry entry : raw.receivingHistory.entries) {
+        if ( entry == null ) continue;
+        if ( entry.publicDisplay != null && ! entry.publicDisplay )
+          continue;
         List<String> parts = new ArrayList<>();
-        if ( statement.containsKey("statement") ) parts.add(statement.get("statement"));
-        if ( statement.containsKey("note") )      parts.add(statement.get("note"));
-        if ( parts.size() > 0 ) holdings.add(insertSpaceAfterCommas(String.join(" ", parts)));
-      }
-      this.indexes = holdings;
-    } else
-      this.indexes = null;
-
-    if (raw.containsKey("receivingHistory"))
-      if ( ((Map<String,Object>)raw.get("receivingHistory")).containsKey("entries")) {
-        List<Map<String,Object>> entries = (List<Map<String,Object>>)
-            ((Map<String,Object>)raw.get("receivingHistory")).get("entries");
-        for (Map<String,Object> entry : entries) {
-          if ( entry == null ) continue;
-          if ( entry.containsKey("publicDisplay") && ! (boolean) entry.get("publicDisplay") )
-            continue;
-          List<String> parts = new ArrayList<>();
-          if ( entry.containsKey("enumeration") ) parts.add((String)entry.get("enumeration"));
-          if ( entry.containsKey("chronology") ) parts.add((String)entry.get("chronology"));
-          if ( ! parts.isEmpty() ) {
-            if ( this.recentIssues == null ) this.recentIssues = new ArrayList<>();
-            this.recentIssues.add(String.join(" ", parts));
-          }
+        if ( entry.enumeration != null ) parts.add(entry.enumeration);
+        if ( entry.chronology != null ) parts.add(entry.chronology);
+        if ( ! parts.isEmpty() ) {
+          if ( this.recentIssues == null ) this.recentIssues = new ArrayList<>();
+          this.recentIssues.add(String.join(" ", parts));
         }
+      }
+  }
+
+  private static List<String> holdingsStatements( List<HoldingsStatement> statements ) {
+    if ( statements == null ) return null;
+    List<String> holdings = new ArrayList<>();
+    for (HoldingsStatement statement : statements) {
+      if (statement == null ) continue;
+      List<String> parts = new ArrayList<>();
+      if ( statement.statement != null ) parts.add(statement.statement);
+      if ( statement.note != null )      parts.add(statement.note);
+      if ( parts.size() > 0 ) holdings.add(insertSpaceAfterCommas(String.join(" ", parts)));
     }
+    return holdings;
+  }
+
+  /**
+   * The complete Folio holding record, parsed on demand. Null for holdings that weren't built
+   * from a Folio record.
+   */
+  @JsonIgnore
+  public Map<String,Object> rawFolioHolding() throws IOException {
+    return ( this.folioHolding == null ) ? null : this.folioHolding.raw();
   }
 
   Holding(
@@ -24,6 +24,7 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 import edu.cornell.library.integration.changes.Change;
+import edu.cornell.library.integration.folio.FolioRecords.HoldingRecord;
 import edu.cornell.library.integration.folio.Holding.Link;
 import edu.cornell.library.integration.folio.Items.ItemList;
 
@@ -76,21 +77,23 @@ public class Holdings {
   public static HoldingSet retrieveHoldingsByInstanceHrid(
       Connection inventory, Locations locations, ReferenceData holdingsNoteTypes,
       ReferenceData callNumberTypes, String instanceHrid ) throws SQLException,IOException {
-    try (
-      PreparedStatement holdingsByInstance = inventory.prepareStatement(
-          "SELECT * FROM holdingFolio WHERE instanceHrid = ?")){
-//    System.out.format("%s %s (%s)\n",inventory.isClosed(), holdingsByInstance.isClosed(), instanceHrid);
-    holdingsByInstance.setString(1, instanceHrid);
+    return retrieveHoldingsByInstanceHrid( InventorySnapshot.load(inventory, instanceHrid),
+        locations, holdingsNoteTypes, callNumberTypes, instanceHrid );
+  }
+
+  /**
+   * Build the holdings for instanceHrid from a snapshot of the inventory. The snapshot is kept
+   * on the HoldingSet, so Items.retrieveItemsForHoldings() can use it too.
+   */
+  public static HoldingSet retrieveHoldingsByInstanceHrid(
+      InventorySnapshot inventory, Locations locations, ReferenceData holdingsNoteTypes,
+      ReferenceData callNumberTypes, String instanceHrid ) throws SQLException,IOException {
     HoldingSet holdings = new HoldingSet();
-    try (ResultSet rs = holdingsByInstance.executeQuery() ) {
-      while (rs.next()) {
-        holdings.put(rs.getString("id"),
-            new Holding(inventory,mapper.readValue(rs.getString("content"),Map.class),
-                locations,holdingsNoteTypes, callNumberTypes));
-      }
-    }
+    holdings.snapshot = inventory;
+    for ( HoldingRecord rawHolding : inventory.holdings(instanceHrid) )
+      holdings.put(rawHolding.id,
+          new Holding(inventory,rawHolding,locations,holdingsNoteTypes, callNumberTypes));
     return holdings;
-    }
   }
 /*
   public static HoldingSet retrieveHoldingsByInstanceHrid(
@@ -118,6 +121,7 @@ public class Holdings {
 
   public static class HoldingSet {
     private Map<String,Holding> holdings;
+    InventorySnapshot snapshot = null;
 
     @JsonCreator
     public HoldingSet( Map<String,Holding> holdings ) {
@@ -218,9 +222,8 @@ public class Holdings {
       Set<String> statcodes = new TreeSet<>();
 
       for (Holding h : this.holdings.values()) {
-        if ( h.rawFolioHolding.containsKey("statisticalCodeIds") ) {
-          List<String> codeUuids = (List<String>)h.rawFolioHolding.get("statisticalCodeIds");
-          for ( String uuid : codeUuids ) {
+        if ( h.folioHolding != null && h.folioHolding.statisticalCodeIds != null ) {
+          for ( String uuid : h.folioHolding.statisticalCodeIds ) {
             String code= statCodesReferenceData.getName(uuid);
             if ( code != null ) statcodes.add("holding_"+code);
           }
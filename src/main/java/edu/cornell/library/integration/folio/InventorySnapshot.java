@@ -0,0 +1,244 @@
+package edu.cornell.library.integration.folio;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import edu.cornell.library.integration.folio.FolioRecords.HoldingRecord;
+import edu.cornell.library.integration.folio.FolioRecords.ItemRecord;
+import edu.cornell.library.integration.folio.FolioRecords.LoanRecord;
+import edu.cornell.library.integration.folio.FolioRecords.Note;
+
+/**
+ * The holdings, items (with shelving sequence) and loans for a set of instances, read from the
+ * inventory with one query per table instead of one query per holding or item. Items with
+ * barcodes mentioned in holding notes are also preloaded, for bound-with lookups.
+ *
+ * Lookups outside of the loaded instances, such as the master item of a bound-with in another
+ * instance, fall back to single record queries. A snapshot created with only a connection
+ * does all of its lookups that way.
+ */
+public class InventorySnapshot {
+
+  final Connection inventory;
+  private final Map<String,List<HoldingRecord>> holdingsByInstance = new HashMap<>();
+  private final Map<String,List<ItemRecord>> itemsByHolding = new HashMap<>();
+  private final Map<String,List<LoanRecord>> loansByItem = new HashMap<>();
+  private final Map<String,BarcodeItem> itemsByBarcode = new HashMap<>();
+  private final Set<String> loadedInstances = new HashSet<>();
+  private final Set<String> loadedHoldings = new HashSet<>();
+
+  public InventorySnapshot( Connection inventory ) {
+    this.inventory = inventory;
+  }
+
+  public static InventorySnapshot load( Connection inventory, String instanceHrid )
+      throws SQLException, IOException {
+    return load( inventory, Arrays.asList(instanceHrid) );
+  }
+
+  public static InventorySnapshot load( Connection inventory, Collection<String> instanceHrids )
+      throws SQLException, IOException {
+    InventorySnapshot snapshot = new InventorySnapshot(inventory);
+    List<String> hrids = new ArrayList<>(new LinkedHashSet<>(instanceHrids));
+    for ( int i = 0; i < hrids.size(); i += maxInList )
+      snapshot.loadInstances( hrids.subList(i, Math.min(i + maxInList, hrids.size())) );
+    return snapshot;
+  }
+
+  /**
+   * Folio holdings for the instance
+   */
+  public List<HoldingRecord> holdings( String instanceHrid ) throws SQLException, IOException {
+    if ( ! this.loadedInstances.contains(instanceHrid) )
+      loadInstances( Arrays.asList(instanceHrid) );
+    return this.holdingsByInstance.getOrDefault(instanceHrid, Collections.emptyList());
+  }
+
+  /**
+   * Folio items for the holding, with the shelving sequence (if any) added
+   */
+  List<ItemRecord> items( String holdingHrid ) throws SQLException, IOException {
+    if ( this.loadedHoldings.contains(holdingHrid) )
+      return this.itemsByHolding.getOrDefault(holdingHrid, Collections.emptyList());
+    List<ItemRecord> items = new ArrayList<>();
+    try ( PreparedStatement pstmt = this.inventory.prepareStatement(
+        "SELECT i.id, i.hrid, i.holdingHrid, i.content, s.sequence"+
+        "  FROM itemFolio i LEFT JOIN itemSequence s ON i.hrid = s.hrid" +
+        " WHERE i.holdingHrid = ?")) {
+      pstmt.setString(1, holdingHrid);
+      try ( ResultSet rs = pstmt.executeQuery() ) {
+        while ( rs.next() ) items.add(readItem(rs));
+      }
+    }
+    this.loadedHoldings.add(holdingHrid);
+    this.itemsByHolding.put(holdingHrid, items);
+    return items;
+  }
+
+  /**
+   * Folio loans for the item
+   */
+  List<LoanRecord> loans( String itemHrid ) throws SQLException, IOException {
+    if ( this.loansByItem.containsKey(itemHrid) )
+      return this.loansByItem.get(itemHrid);
+    List<LoanRecord> loans = new ArrayList<>();
+    try (PreparedStatement pstmt = this.inventory.prepareStatement(
+        "SELECT content FROM loanFolio WHERE itemHrid = ?")){
+      pstmt.setString(1, itemHrid);
+      try ( ResultSet rs = pstmt.executeQuery() ) {
+        while (rs.next()) loans.add(FolioRecords.read(rs.getString("content"), LoanRecord.class));
+      }
+    }
+    this.loansByItem.put(itemHrid, loans);
+    return loans;
+  }
+
+  /**
+   * The item with the barcode, and the instance it belongs to. Null if there is no such item.
+   */
+  BarcodeItem itemByBarcode( String barcode ) throws SQLException, IOException {
+    if ( this.itemsByBarcode.containsKey(barcode) )
+      return this.itemsByBarcode.get(barcode);
+    loadBarcodes(Arrays.asList(barcode));
+    return this.itemsByBarcode.get(barcode);
+  }
+
+  static class BarcodeItem {
+    final String id;
+    final ItemRecord rawItem;
+    final String instanceHrid;
+    final String instanceTitle;
+    BarcodeItem( String id, ItemRecord rawItem, String instanceHrid, String instanceTitle ) {
+      this.id = id;
+      this.rawItem = rawItem;
+      this.instanceHrid = instanceHrid;
+      this.instanceTitle = instanceTitle;
+    }
+  }
+
+  private void loadInstances( List<String> instanceHrids ) throws SQLException, IOException {
+    String inList = inList(instanceHrids.size());
+    Set<String> noteBarcodes = new HashSet<>();
+
+    try ( PreparedStatement pstmt = this.inventory.prepareStatement(
+        "SELECT instanceHrid, content FROM holdingFolio WHERE instanceHrid IN "+inList)) {
+      setStrings(pstmt, instanceHrids);
+      try ( ResultSet rs = pstmt.executeQuery() ) {
+        while ( rs.next() ) {
+          HoldingRecord holding = FolioRecords.read(rs.getString("content"), HoldingRecord.class);
+          this.holdingsByInstance.computeIfAbsent(
+              rs.getString("instanceHrid"), k -> new ArrayList<>()).add(holding);
+          this.loadedHoldings.add(holding.hrid);
+          noteBarcodes.addAll(barcodesInNotes(holding));
+        }
+      }
+    }
+
+    try ( PreparedStatement pstmt = this.inventory.prepareStatement(
+        "SELECT i.id, i.hrid, i.holdingHrid, i.content, s.sequence"+
+        "  FROM holdingFolio h"+
+        "  JOIN itemFolio i ON i.holdingHrid = h.hrid"+
+        "  LEFT JOIN itemSequence s ON i.hrid = s.hrid"+
+        " WHERE h.instanceHrid IN "+inList)) {
+      setStrings(pstmt, instanceHrids);
+      try ( ResultSet rs = pstmt.executeQuery() ) {
+        while ( rs.next() ) {
+          this.itemsByHolding.computeIfAbsent(
+              rs.getString("holdingHrid"), k -> new ArrayList<>()).add(readItem(rs));
+          this.loansByItem.put(rs.getString("hrid"), new ArrayList<>());
+        }
+      }
+    }
+
+    try ( PreparedStatement pstmt = this.inventory.prepareStatement(
+        "SELECT l.itemHrid, l.content"+
+        "  FROM holdingFolio h"+
+        "  JOIN itemFolio i ON i.holdingHrid = h.hrid"+
+        "  JOIN loanFolio l ON l.itemHrid = i.hrid"+
+        " WHERE h.instanceHrid IN "+inList)) {
+      setStrings(pstmt, instanceHrids);
+      try ( ResultSet rs = pstmt.executeQuery() ) {
+        while ( rs.next() )
+          this.loansByItem.computeIfAbsent(rs.getString("itemHrid"), k -> new ArrayList<>())
+          .add(FolioRecords.read(rs.getString("content"), LoanRecord.class));
+      }
+    }
+
+    this.loadedInstances.addAll(instanceHrids);
+    noteBarcodes.removeAll(this.itemsByBarcode.keySet());
+    if ( ! noteBarcodes.isEmpty() )
+      loadBarcodes(new ArrayList<>(noteBarcodes));
+  }
+
+  private void loadBarcodes( List<String> barcodes ) throws SQLException, IOException {
+    for ( int i = 0; i < barcodes.size(); i += maxInList ) {
+      List<String> chunk = barcodes.subList(i, Math.min(i + maxInList, barcodes.size()));
+      try ( PreparedStatement pstmt = this.inventory.prepareStatement(
+          "SELECT i.id, i.barcode, i.content, brs.bib_id, brs.title"+
+          "  FROM itemFolio i"+
+          "  LEFT JOIN holdingFolio h ON i.holdingHrid = h.hrid"+
+          "  LEFT JOIN bibRecsSolr brs ON h.instanceHrid = brs.bib_id"+
+          " WHERE i.barcode IN "+inList(chunk.size()))) {
+        setStrings(pstmt, chunk);
+        try ( ResultSet rs = pstmt.executeQuery() ) {
+          while ( rs.next() ) {
+            String barcode = rs.getString("barcode");
+            if ( this.itemsByBarcode.get(barcode) != null ) continue;
+            String title = rs.getString("title");
+            this.itemsByBarcode.put(barcode, new BarcodeItem( rs.getString("id"),
+                FolioRecords.read(rs.getString("content"), ItemRecord.class),
+                rs.getString("bib_id"), (title == null) ? null : title.trim()));
+          }
+        }
+      }
+      for ( String barcode : chunk )
+        this.itemsByBarcode.putIfAbsent(barcode, null);
+    }
+  }
+
+  private static ItemRecord readItem( ResultSet rs ) throws SQLException, IOException {
+    ItemRecord rawItem = FolioRecords.read(rs.getString("content"), ItemRecord.class);
+    if ( rawItem.id == null ) rawItem.id = rs.getString("id");
+    Integer sequence = rs.getInt("sequence");
+    if ( sequence != 0 ) rawItem.sequence = sequence;
+    return rawItem;
+  }
+
+  private static Set<String> barcodesInNotes( HoldingRecord holding ) {
+    Set<String> barcodes = new HashSet<>();
+    if ( holding.notes == null ) return barcodes;
+    for ( Note note : holding.notes ) {
+      if ( note.note == null ) continue;
+      Matcher m = barcodeP.matcher(note.note);
+      while ( m.find() ) barcodes.add(m.group());
+    }
+    return barcodes;
+  }
+
+  private static String inList( int size ) {
+    return "("+String.join(",", Collections.nCopies(size, "?"))+")";
+  }
+
+  private static void setStrings( PreparedStatement pstmt, List<String> values ) throws SQLException {
+    for ( int i = 0; i < values.size(); i++ )
+      pstmt.setString(i+1, values.get(i));
+  }
+
+  private static final int maxInList = 500;
+  private static Pattern barcodeP = Pattern.compile("31924\\d*");
+}
@@ -3,21 +3,20 @@ package edu.cornell.library.integration.folio;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import edu.cornell.library.integration.folio.FolioRecords.ItemRecord;
+import edu.cornell.library.integration.folio.FolioRecords.LoanRecord;
+import edu.cornell.library.integration.folio.FolioRecords.Status;
 import edu.cornell.library.integration.folio.Items.Item;
 import edu.cornell.library.integration.folio.LoanTypes.ExpectedLoanType;
 import edu.cornell.library.integration.folio.ServicePoints.ServicePoint;
@@ -30,29 +29,27 @@ public class ItemStatus {
   public Long date = null;
   @JsonIgnore  public Instant returnedUntil = null;
 
-  public ItemStatus( Connection inventory, Map<String,Object> rawItem, Item item )
+  public ItemStatus( Connection inventory, ItemRecord rawItem, Item item )
+      throws SQLException, IOException {
+    this( new InventorySnapshot(inventory), rawItem, item );
+  }
+
+  public ItemStatus( InventorySnapshot inventory, ItemRecord rawItem, Item item )
       throws SQLException, IOException {
 
-    Map<String,String> statusData = (Map<String,String>)rawItem.get("status");
-    this.status = statusData.get("name");
+    Status statusData = rawItem.status;
+    this.status = statusData.name;
 
     if (this.status.equals("Checked out")) {
-      List<Map<String, Object>> loans = new ArrayList<>();
 //          folio.queryAsList("/loan-storage/loans", "itemId=="+item.id, null);
-      try (PreparedStatement loansByItem = inventory.prepareStatement("SELECT * FROM loanFolio WHERE itemHrid = ?")){
-        loansByItem.setString(1, item.hrid);
-        try ( ResultSet rs = loansByItem.executeQuery() ) {
-          while (rs.next()) loans.add(mapper.readValue(rs.getString("content"), Map.class));
+      for (LoanRecord loan : inventory.loans(item.hrid)) {
+        if ( ! loan.status.name.equals("Open") ) continue;
+        if (loan.dueDate != null) {
+          Instant instant = isoDT.parse(loan.dueDate,Instant::from);
+          this.due = easternOffsetAdjustedEpochSecond(instant);
         }
-        for (Map<String,Object> loan : loans) {
-          if ( ! ((Map<String,String>)loan.get("status")).get("name").equals("Open") ) continue;
-          if (loan.containsKey("dueDate")) {
-            Instant instant = isoDT.parse((String)loan.get("dueDate"),Instant::from);
-            this.due = easternOffsetAdjustedEpochSecond(instant);
-          }
-        }
-        if ( item.loanType.shortLoan ) this.shortLoan = true;
       }
+      if ( item.loanType.shortLoan ) this.shortLoan = true;
       return;
     }
 
@@ -71,12 +68,9 @@ public class ItemStatus {
 
     if ( this.status.equals("Available") ) {
       // TODO check for recent return, delayed queueing for end of returned status
-      if (! rawItem.containsKey("lastCheckIn"))
-        return;
-      Map<String,String> lastCheckIn = (Map<String,String>)rawItem.get("lastCheckIn");
-      if ( ! lastCheckIn.containsKey("dateTime") )
+      if ( rawItem.lastCheckIn == null || rawItem.lastCheckIn.dateTime == null )
         return;
-      Instant returned = isoDT.parse(lastCheckIn.get("dateTime"),Instant::from);
+      Instant returned = isoDT.parse(rawItem.lastCheckIn.dateTime,Instant::from);
       ServicePoint servicePoint = ServicePoints.getByUuid(item.location.primaryServicePoint);
       int lagMinutes = (servicePoint.shelvingLagTime == null)?4320:servicePoint.shelvingLagTime;
       Instant returnedUntil = returned.plusSeconds(lagMinutes*60);
@@ -107,9 +101,9 @@ public class ItemStatus {
     return instant.getEpochSecond() + offset.getTotalSeconds();
   }
 
-  protected Long getStatusDate(Map<String,String> statusData) {
-    if ( statusData.containsKey("date") ) {
-      Instant instant = isoDT.parse(statusData.get("date"),Instant::from);
+  protected Long getStatusDate(Status statusData) {
+    if ( statusData.date != null ) {
+      Instant instant = isoDT.parse(statusData.date,Instant::from);
       return easternOffsetAdjustedEpochSecond(instant);
     }
     return null;
@@ -22,11 +22,11 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonValue;
-import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import edu.cornell.library.integration.folio.FolioRecords.ItemRecord;
+import edu.cornell.library.integration.folio.FolioRecords.Note;
 import edu.cornell.library.integration.folio.Holdings.HoldingSet;
 import edu.cornell.library.integration.folio.LoanTypes.LoanType;
 import edu.cornell.library.integration.folio.Locations.Location;
@@ -45,6 +45,12 @@ public class Items {
     }
   }
 
+  public static void initialize(Locations locs, ReferenceData materials, ReferenceData itemNotes) {
+    locations = locs;
+    materialTypes = materials;
+    itemNoteTypes = itemNotes;
+  }
+
   public static ItemList retrieveItemsForHoldings(
       FolioClient folio, Connection inventory, String bibId, HoldingSet holdings)
           throws SQLException, IOException, AuthenticationException {
@@ -56,28 +62,15 @@ public class Items {
     ItemList il = new ItemList();
     Map<Integer,String> dueDates = new TreeMap<>();
     Map<Integer,String> requests = new TreeMap<>();
-    try (PreparedStatement itemByHolding = inventory.prepareStatement(
-          "SELECT i.id, i.content, s.sequence"+
-          "  FROM itemFolio i LEFT JOIN itemSequence s ON i.hrid = s.hrid" +
-          " WHERE i.holdingHrid = ?")) {
+    InventorySnapshot snapshot = ( holdings.snapshot != null )
+        ? holdings.snapshot : InventorySnapshot.load(inventory, bibId);
     for (String holdingId : holdings.getUuids()) {
       Holding h = holdings.get(holdingId);
       if (h.online != null && h.online) continue;
-      itemByHolding.setString(1, h.hrid);
-      List<Map<String, Object>> rawItems = new ArrayList<>();
-      try (ResultSet rs = itemByHolding.executeQuery()) {
-        while (rs.next()) {
-          Map<String,Object> rawItem = mapper.readValue(rs.getString("content"), Map.class);
-          if ( ! rawItem.containsKey("id") ) rawItem.put("id", rs.getString("id") );
-          Integer sequence = rs.getInt("sequence");
-          if ( sequence != 0 ) rawItem.put("sequence", sequence);
-          rawItems.add(rawItem);
-        }
-      }
 
       TreeSet<Item> items = new TreeSet<>();
-      for (Map<String, Object> rawItem : rawItems) {
-        Item i = new Item(inventory,rawItem,h);
+      for (ItemRecord rawItem : snapshot.items(h.hrid)) {
+        Item i = new Item(snapshot,rawItem,h);
         i.callNumber = h.call;
         items.add(i);
       }
@@ -88,24 +81,6 @@ public class Items {
       updateInInventory(inventory,bibId,TrackingTable.REQUESTS,requests);
     }
     return il;
-    }
-  }
-  private static PreparedStatement itemByHolding = null;
-
-  static Item retrieveItemByBarcode ( Connection inventory, String barcode, Holding holding )
-      throws SQLException, JsonParseException, JsonMappingException, IOException {
-    try ( PreparedStatement pstmt = inventory.prepareStatement(
-        "SELECT * FROM itemFolio WHERE barcode = ?")) {
-      pstmt.setString(1, barcode);
-      try ( ResultSet rs = pstmt.executeQuery() ) {
-        while (rs.next()) {
-          Item i = new Item(inventory, mapper.readValue(rs.getString("content"),Map.class),holding);
-          i.id = rs.getString("id");
-          return i;
-        }
-      }
-    }
-    return null;
   }
 
   private static enum TrackingTable {
@@ -224,9 +199,8 @@ public class Items {
       Set<String> statcodes = new HashSet<>();
       for (TreeSet<Item> items : this.items.values())
         for ( Item i : items) {
-          if ( i.rawFolioItem.containsKey("statisticalCodeIds")) {
-            List<String> codeUuids = (List<String>)i.rawFolioItem.get("statisticalCodeIds");
-            for (String uuid : codeUuids) {
+          if ( i.folioItem != null && i.folioItem.statisticalCodeIds != null ) {
+            for (String uuid : i.folioItem.statisticalCodeIds) {
               String code = statCodesRefData.getName(uuid);
               if ( code != null ) statcodes.add("item_"+code);
             }
@@ -256,50 +230,48 @@ public class Items {
     @JsonProperty("date")      public Integer date;
     @JsonProperty("active")    public boolean active = true;
 
-    @JsonIgnore public Map<String,Object> rawFolioItem = null;
+    @JsonIgnore public ItemRecord folioItem = null;
 
-    Item(Connection inventory, Map<String,Object> raw, Holding holding)
+    Item(InventorySnapshot inventory, ItemRecord raw, Holding holding)
         throws SQLException, IOException {
 
       if (locations == null)
         locations = new Locations();
-      this.rawFolioItem = raw;
-      this.id = (String)raw.get("id");
-      this.hrid = (String)raw.get("hrid");
-      String barcode = (String)raw.get("barcode");
+      this.folioItem = raw;
+      this.id = raw.id;
+      this.hrid = raw.hrid;
+      String barcode = raw.barcode;
       if (barcode == null) { this.empty = true;   this.barcode = null; }
       else {                 this.empty = null;   this.barcode = barcode; }
-      this.copy = (String)raw.get("copyNumber");
-      if ( raw.containsKey("sequence") )
-        this.sequence = (int) raw.get("sequence");
-      this.enumeration = (String)raw.get("enumeration");
-      this.chron = (String)raw.get("chronology");
-
-      if ( raw.containsKey("temporaryLocationId") )
-        this.location = locations.getByUuid( (String)raw.get("temporaryLocationId") );
-      else if ( raw.containsKey("permanentLocationId") )
-        this.location = locations.getByUuid( (String)raw.get("permanentLocationId") );
+      this.copy = raw.copyNumber;
+      this.sequence = raw.sequence;
+      this.enumeration = raw.enumeration;
+      this.chron = raw.chronology;
+
+      if ( raw.temporaryLocationId != null )
+        this.location = locations.getByUuid( raw.temporaryLocationId );
+      else if ( raw.permanentLocationId != null )
+        this.location = locations.getByUuid( raw.permanentLocationId );
       else if (holding != null)
         this.location = holding.location;
       if ( holding != null ) {
         this.permLocation = holding.location.name;
         this.active = holding.active;
       }
-      if ( raw.containsKey("discoverySuppress") && (boolean)raw.get("discoverySuppress") )
+      if ( raw.discoverySuppress != null && raw.discoverySuppress )
         this.active = false;
 
-      String loanTypeId = (raw.containsKey("temporaryLoanTypeId"))
-          ? (String)raw.get("temporaryLoanTypeId"): (String)raw.get("permanentLoanTypeId");
+      String loanTypeId = (raw.temporaryLoanTypeId != null)
+          ? raw.temporaryLoanTypeId: raw.permanentLoanTypeId;
       this.loanType = LoanTypes.getByUuid(loanTypeId);
       if ( materialTypes != null )
-        this.matType = materialTypes.getEntryHashByUuid((String)raw.get("materialTypeId"));
+        this.matType = materialTypes.getEntryHashByUuid(raw.materialTypeId);
       this.status = new ItemStatus(inventory,raw,this);
-      if ( ! raw.containsKey("notes") ) return;
-      List<Map<String,String>> notes = (List<Map<String,String>>)raw.get("notes");
+      if ( raw.notes == null ) return;
       Map<String,String> rmcnotes = new HashMap<>();
-      for ( Map<String,String> noteHash : notes ) {
+      for ( Note note : raw.notes ) {
         String type = ( itemNoteTypes != null ) ?
-         itemNoteTypes.getName(noteHash.get("itemNoteTypeId")) : null;
+         itemNoteTypes.getName(note.itemNoteTypeId) : null;
         if (type == null)  continue;
 
         switch (type) {
@@ -307,7 +279,7 @@ public class Items {
         case "Vault location":
         case "ArchivesSpace Top Container":
         case "Restrictions":
-          rmcnotes.put(type, noteHash.get("note"));
+          rmcnotes.put(type, note.note);
           break;
         }
       }
@@ -383,6 +355,15 @@ public class Items {
       return mapper.writeValueAsString(this);
     }
 
+    /**
+     * The complete Folio item record, parsed on demand. Null for items that weren't built from
+     * a Folio record.
+     */
+    @JsonIgnore
+    public Map<String,Object> rawFolioItem() throws IOException {
+      return ( this.folioItem == null ) ? null : this.folioItem.raw();
+    }
+
     @Override
     public int compareTo( final Item other ) {
       if ( this.sequence != null ) {
@@ -1,6 +1,7 @@
 package edu.cornell.library.integration.folio;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
@@ -14,19 +15,17 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 public class LoanTypes {
 
   public static void initialize( FolioClient folio ) throws IOException, AuthenticationException {
-    if (_byUuid.isEmpty()) populateLoanTypes(folio);
+    if (maps == null) load(folio.queryAsList("/loan-types",null,500 ));
   }
 
   public final static LoanType getByUuid( String uuid ) {
-    if (_byUuid.containsKey(uuid)) return _byUuid.get(uuid);
-    return null;
+    return maps.byUuid.get(uuid);
   }
   public final static LoanType getByName( String name ) {
-    if (_byName.containsKey(name)) return _byName.get(name);
-    return null;
+    return maps.byName.get(name);
   }
   public final static LoanType byExpectedType( ExpectedLoanType type ) {
-    return _byName.get(type.name());
+    return maps.byName.get(type.name());
   }
 
   public enum ExpectedLoanType{
@@ -84,8 +83,16 @@ public class LoanTypes {
       ExpectedLoanType.EQ_S,
       ExpectedLoanType.KEY_S);
 
-  private static final Map<String,LoanType> _byUuid = new HashMap<>();
-  private static final Map<String,LoanType> _byName = new HashMap<>();
+  private static volatile Maps maps = null;
+
+  private static class Maps {
+    final Map<String,LoanType> byUuid;
+    final Map<String,LoanType> byName;
+    Maps( Map<String,LoanType> byUuid, Map<String,LoanType> byName ) {
+      this.byUuid = Collections.unmodifiableMap(byUuid);
+      this.byName = Collections.unmodifiableMap(byName);
+    }
+  }
 
   public static class LoanType {
     @JsonProperty("id")   public final String uuid;
@@ -105,8 +112,12 @@ public class LoanTypes {
     }
   }
 
-  private static void populateLoanTypes( FolioClient folio ) throws IOException, AuthenticationException {
-    List<Map<String,Object>> folioTypes = folio.queryAsList("/loan-types",null,500 );
+  /**
+   * Build the loan type maps from Folio loan type records, and swap them in for any already loaded.
+   */
+  static void load( List<Map<String,Object>> folioTypes ) {
+    Map<String,LoanType> byUuid = new HashMap<>();
+    Map<String,LoanType> byName = new HashMap<>();
     EnumSet<ExpectedLoanType> expected = EnumSet.allOf(ExpectedLoanType.class);
     for ( Map<String,Object> folioType : folioTypes ) {
       String id = (String)folioType.get("id");
@@ -118,10 +129,10 @@ public class LoanTypes {
       }
       expected.remove(exp);
       boolean shortLoan = shortLoanTypes.contains(exp);
-      _byUuid.put(id,  new LoanType(id,name,shortLoan));
-      _byName.put(name,new LoanType(id,name,shortLoan));
+      byUuid.put(id,  new LoanType(id,name,shortLoan));
+      byName.put(name,new LoanType(id,name,shortLoan));
     }
-    
+    maps = new Maps(byUuid, byName);
   }
 
 }
@@ -7,6 +7,8 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.TreeMap;
 
 import javax.naming.AuthenticationException;
@@ -37,8 +39,9 @@ public final class Locations {
    */
   public Locations(final FolioClient folio) throws IOException, AuthenticationException {
 
-    if (_byCode.isEmpty())
-      populateLocationMaps(folio);
+    if (maps == null)
+      load(folio.queryAsList("/locations", null, 500),
+          new ReferenceData( folio, "/location-units/libraries", "name"));
   }
 
   /**
@@ -49,7 +52,7 @@ public final class Locations {
    */
   public Locations() throws IOException {
 
-    if (_byCode.isEmpty())
+    if (maps == null)
       throw new IOException("Locations must be instantiated before this point");
   }
 
@@ -63,9 +66,7 @@ public final class Locations {
    */
   @SuppressWarnings("static-method")
   public final Location getByCode(final String code) {
-    if (_byCode.containsKey(code))
-      return _byCode.get(code);
-    return null;
+    return maps.byCode.get(code);
   }
 
   /**
@@ -78,27 +79,23 @@ public final class Locations {
    */
   @SuppressWarnings("static-method")
   public final Location getByUuid(final String uuid) {
-    if (_byUuid.containsKey(uuid))
-      return _byUuid.get(uuid);
-    return null;
+    return maps.byUuid.get(uuid);
   }
 
+  /**
+   * Location facet values for a holding in the location, chosen by the first rule in
+   * LocationFacetMapping.txt for the location whose call number and holding note substrings (if
+   * any) are found in the holding's call number and note, ignoring case. The returned set is
+   * shared and unmodifiable.
+   */
   public static Set<String> facetValues( final Location l, String call, String holdingNote ) {
-    String lcCall = (call == null)        ? null : call.toLowerCase();
-    String lcNote = (holdingNote == null) ? null : holdingNote.toLowerCase();
-    if ( _facetsByLocation.containsKey(l) )
-      for (FacetMapRule rule : _facetsByLocation.get(l))
-        if (( rule.call == null        || (lcCall != null && lcCall.contains( rule.call )) ) &&
-            ( rule.holdingNote == null || (lcNote != null && lcNote.contains( rule.holdingNote )) ) ) {
-          if ( ! rule.suppress )
-            return rule.facetValues;
-          return new LinkedHashSet<>();
-        }
+    FacetMatcher matcher = maps.facetsByLocation.get(l);
+    Set<String> values = (matcher == null) ? null : matcher.match(call, holdingNote);
+    if ( values != null ) return values;
     System.out.println("Failed to map facet location for: "+l);
-    return new LinkedHashSet<>();
+    return Collections.emptySet();
   }
 
-
   /**
    * Structure containing values relating to holdings location. <b>Name</b> and <b>library</b>
    * may potentially be null.<br/><br/>
@@ -188,24 +185,39 @@ public final class Locations {
 
   public static Collection<Location> allLocations(Sort sortOrder) {
     switch (sortOrder) {
-    case CODE: return _byCode.values();
-    case UUID: return _byUuid.values();
+    case CODE: return maps.byCode.values();
+    case UUID: return maps.byUuid.values();
     }
     return null;
   }
 
   // PRIVATE RESOURCES
 
-  private static final Map<String, Location> _byCode = new TreeMap<>();
-  private static final Map<String, Location> _byUuid = new TreeMap<>();
-  private static final Map<Location, List<FacetMapRule>> _facetsByLocation = new TreeMap<>();
+  private static volatile Maps maps = null;
+
+  private static class Maps {
+    final Map<String, Location> byCode;
+    final Map<String, Location> byUuid;
+    final Map<Location, FacetMatcher> facetsByLocation;
+    Maps( Map<String, Location> byCode, Map<String, Location> byUuid,
+        Map<Location, FacetMatcher> facetsByLocation ) {
+      this.byCode = Collections.unmodifiableMap(byCode);
+      this.byUuid = Collections.unmodifiableMap(byUuid);
+      this.facetsByLocation = Collections.unmodifiableMap(facetsByLocation);
+    }
+  }
 
-  private static void populateLocationMaps(final FolioClient folio) throws IOException, AuthenticationException {
+  /**
+   * Build the location maps from Folio location records and the library reference data, and
+   * swap them in for any already loaded.
+   */
+  static void load(List<Map<String,Object>> folioLocs, ReferenceData libraries) {
     Map<String,Map<String,String>> libraryPatterns = loadPatternMap("library_names.txt");
     List<FacetMapRule> facetPatterns = loadFacetPatternMap("LocationFacetMapping.txt");
 
-    ReferenceData libraries = new ReferenceData( folio, "/location-units/libraries", "name");
-    List<Map<String,Object>> folioLocs = folio.queryAsList("/locations", null, 500);
+    Map<String, Location> byCode = new TreeMap<>();
+    Map<String, Location> byUuid = new TreeMap<>();
+    Map<Location, FacetMatcher> facetsByLocation = new HashMap<>();
     for (Map<String,Object> folioLoc : folioLocs) {
       String name = (String)folioLoc.get("discoveryDisplayName");
       if (name == null)
@@ -216,14 +228,15 @@ public final class Locations {
       String primaryServicePoint = (String)folioLoc.get("primaryServicePoint");
       String hoursCode   = (libraryDetails==null)?null:libraryDetails.values().iterator().next();
       Location l = new Location((String)folioLoc.get("code"), name, libraryName, hoursCode,id,primaryServicePoint);
-      _byCode.put(l.code, l);
-      _byUuid.put((String)folioLoc.get("id"), l);
+      byCode.put(l.code, l);
+      byUuid.put((String)folioLoc.get("id"), l);
       List<FacetMapRule> locationFacetRules = new ArrayList<>();
       for (FacetMapRule rule : facetPatterns)
         if (rule.displayName.equals(l.name))
             locationFacetRules.add(rule);
-      _facetsByLocation.put(l, locationFacetRules);
+      facetsByLocation.put(l, new FacetMatcher(locationFacetRules));
     }
+    maps = new Maps(byCode, byUuid, facetsByLocation);
   }
 
   private static Map<String,String> getLibrary(String name, Map<String,Map<String,String>> libraryPatterns) {
@@ -284,6 +297,57 @@ public final class Locations {
     return patternMap;
   }
 
+  /**
+   * The facet rules for one location, compiled at load time. Most locations have a single rule
+   * with no call number or note condition, and their result is fixed, so no matching is done at
+   * all. Otherwise the rules are tried in order, with their substrings compared to the call
+   * number and note in place rather than lower-casing copies of them.
+   */
+  static class FacetMatcher {
+    private final String[] calls;
+    private final String[] notes;
+    private final Set<String>[] results;
+    private final Set<String> fixed;
+
+    @SuppressWarnings("unchecked")
+    FacetMatcher( List<FacetMapRule> rules ) {
+      int count = rules.size();
+      this.calls = new String[count];
+      this.notes = new String[count];
+      this.results = new Set[count];
+      for ( int i = 0; i < count; i++ ) {
+        FacetMapRule rule = rules.get(i);
+        this.calls[i] = rule.call;
+        this.notes[i] = rule.holdingNote;
+        this.results[i] = rule.suppress
+            ? Collections.emptySet() : Collections.unmodifiableSet(rule.facetValues);
+      }
+      this.fixed = ( count > 0 && this.calls[0] == null && this.notes[0] == null ) ? this.results[0] : null;
+    }
+
+    /**
+     * @return the facet values of the first matching rule, or null if no rule matches
+     */
+    Set<String> match( String call, String holdingNote ) {
+      if ( this.fixed != null ) return this.fixed;
+      for ( int i = 0; i < this.results.length; i++ )
+        if ( containsIgnoreCase(call, this.calls[i]) && containsIgnoreCase(holdingNote, this.notes[i]) )
+          return this.results[i];
+      return null;
+    }
+
+    /**
+     * True if there's no pattern, or the text contains it. Patterns are already lower case.
+     */
+    private static boolean containsIgnoreCase( String text, String pattern ) {
+      if ( pattern == null ) return true;
+      if ( text == null ) return false;
+      for ( int i = 0, last = text.length() - pattern.length(); i <= last; i++ )
+        if ( text.regionMatches(true, i, pattern, 0, pattern.length()) ) return true;
+      return false;
+    }
+  }
+
   private static class FacetMapRule {
 
     final String displayName;
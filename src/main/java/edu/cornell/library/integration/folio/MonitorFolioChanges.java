@@ -11,13 +11,19 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.naming.AuthenticationException;
 
@@ -25,7 +31,8 @@ public class MonitorFolioChanges {
 
   private static final String CURRENT_TO_KEY = "avail";
 
-  public static void main(String[] args) throws IOException, SQLException, InterruptedException, AuthenticationException {
+  public static void main(String[] args)
+      throws IOException, SQLException, InterruptedException, AuthenticationException, ExecutionException {
 
     Map<String, String> env = System.getenv();
     String configFile = env.get("configFile");
@@ -36,58 +43,241 @@ public class MonitorFolioChanges {
     if (f.exists()) {
       try ( InputStream is = new FileInputStream(f) ) { prop.load( is ); }
     } else System.out.println("File does not exist: "+configFile);
+    ChangeDetector.configureSrsFetches(prop);
 
+    // Changes are written a page at a time with JDBC batches, which the MySQL driver only sends
+    // as multi-row statements when rewriteBatchedStatements is set.
+    Properties dbProps = new Properties();
+    dbProps.setProperty("user", prop.getProperty("databaseUserCurrent"));
+    dbProps.setProperty("password", prop.getProperty("databasePassCurrent"));
+    dbProps.setProperty("rewriteBatchedStatements", "true");
 
+    // Each record type is polled independently. A feed whose records are attached to their parents
+    // through another feed's cache table doesn't advance its cursor past that feed's cursor.
+    ChangeFeed instances = new ChangeFeed(
+        "instances", ChangeDetector::detectChangedInstances, null, true, false);
+    ChangeFeed holdings = new ChangeFeed(
+        "holdings", ChangeDetector::detectChangedHoldings, instances, true, true);
+    ChangeFeed items = new ChangeFeed(
+        "items", ChangeDetector::detectChangedItems, holdings, false, true);
+    ChangeFeed loans = new ChangeFeed(
+        "loans", ChangeDetector::detectChangedLoans, items, false, true);
+    ChangeFeed requests = new ChangeFeed(
+        "requests", ChangeDetector::detectChangedRequests, items, false, true);
+    ChangeFeed orderLines = new ChangeFeed(
+        "orderLines", ChangeDetector::detectChangedOrderLines, instances, false, true);
+    ChangeFeed orders = new ChangeFeed(
+        "orders", ChangeDetector::detectChangedOrders, orderLines, false, true);
+    List<ChangeFeed> feeds = Arrays.asList(instances,holdings,items,loans,requests,orderLines,orders);
+
+    ExecutorService feedThreads = Executors.newFixedThreadPool(feeds.size());
     try (
         Connection inventory = DriverManager.getConnection(
-            prop.getProperty("databaseURLCurrent"),prop.getProperty("databaseUserCurrent"),prop.getProperty("databasePassCurrent"));
-        PreparedStatement queueAvail = inventory.prepareStatement
-            ("INSERT INTO availQueue ( hrid, priority, cause, record_date ) VALUES (?,?,?,?)");
-        PreparedStatement queueGen = inventory.prepareStatement
-            ("INSERT INTO generationQueue ( hrid, priority, cause, record_date ) VALUES (?,?,?,?)");
-        PreparedStatement getTitle = inventory.prepareStatement
-            ("SELECT title FROM bibRecsSolr WHERE bib_id = ?");
+            prop.getProperty("databaseURLCurrent"),dbProps);
         PreparedStatement trimUserChangeLog = inventory.prepareStatement
-            ("DELETE FROM userChanges WHERE date < SUBDATE( NOW(), INTERVAL 3 MINUTE )");
-        PreparedStatement getUserChangeTotals = inventory.prepareStatement
-            ("SELECT id, COUNT(*) FROM userChanges GROUP BY 1")) {
+            ("DELETE FROM userChanges WHERE date < SUBDATE( NOW(), INTERVAL 3 MINUTE )")) {
+
+      for ( ChangeFeed feed : feeds )
+        feed.open( prop, dbProps );
+
+      List<Future<?>> polling = new ArrayList<>();
+      for ( ChangeFeed feed : feeds )
+        polling.add(feedThreads.submit(feed));
 
-      FolioClient folio = new FolioClient( prop, "Folio" );
+      long lastLagReport = 0;
+      while ( true ) {
+        trimUserChangeLog.executeUpdate();
+        // A feed only stops polling when it fails; stop the monitor as the serial loop did.
+        for ( Future<?> feedPolling : polling )
+          if ( feedPolling.isDone() ) feedPolling.get();
+        if ( System.currentTimeMillis() - lastLagReport >= 60_000 ) {
+          lastLagReport = System.currentTimeMillis();
+          StringBuilder sb = new StringBuilder("Change feed lag (seconds):");
+          for ( ChangeFeed feed : feeds )
+            sb.append(' ').append(feed.name).append('=').append(feed.lagSeconds());
+          System.out.println(sb.toString());
+        }
+        Thread.sleep(12_000); //12 seconds
+      }
+    } finally {
+      feedThreads.shutdownNow();
+      for ( ChangeFeed feed : feeds )
+        feed.close();
+    }
+  }
 
-      Timestamp time = Change.getCurrentToDate( inventory, CURRENT_TO_KEY );
+  interface Detector {
+    Map<String,Set<Change>> detect(
+        Connection inventory, FolioClient folio, Timestamp since, Timestamp until )
+        throws SQLException, IOException, InterruptedException, AuthenticationException;
+  }
+
+  /**
+   * One type of Folio record, polled on its own schedule with its own database connection,
+   * Folio client, and updateCursor key.
+   *
+   * While the feed is caught up it polls every folioPollSeconds (default 12). When the cursor is
+   * more than folioCatchUpWindowMinutes (default 60) behind, the feed polls again without
+   * waiting, and splits the backlog into up to folioCatchUpThreads (default 4) windows that are
+   * fetched concurrently, each on its own connection.
+   */
+  static class ChangeFeed implements Runnable {
+    final String name;
+    private final Detector detector;
+    private final ChangeFeed dependsOn;
+    private final boolean queueForGeneration;
+    private final boolean queueForAvailability;
+    volatile Timestamp currentTo = null;
+
+    private String databaseURL = null;
+    private Properties dbProps = null;
+    private long pollMillis = 12_000;
+    private long catchUpWindowMillis = 60*60*1000;
+    private int catchUpThreads = 4;
+    private Connection inventory = null;
+    private FolioClient folio = null;
+    private PreparedStatement queueAvail = null;
+    private PreparedStatement queueGen = null;
+    private PreparedStatement getTitle = null;
+    private PreparedStatement getUserChangeTotals = null;
+
+    ChangeFeed( String name, Detector detector, ChangeFeed dependsOn,
+        boolean queueForGeneration, boolean queueForAvailability ) {
+      this.name = name;
+      this.detector = detector;
+      this.dependsOn = dependsOn;
+      this.queueForGeneration = queueForGeneration;
+      this.queueForAvailability = queueForAvailability;
+    }
+
+    String cursorKey() { return CURRENT_TO_KEY+"."+this.name; }
+
+    void open( Properties prop, Properties dbProps )
+        throws SQLException, IOException, AuthenticationException {
+      this.databaseURL = prop.getProperty("databaseURLCurrent");
+      this.dbProps = dbProps;
+      this.pollMillis = 1000*Long.valueOf(prop.getProperty("folioPollSeconds","12"));
+      this.catchUpWindowMillis = 60_000*Long.valueOf(prop.getProperty("folioCatchUpWindowMinutes","60"));
+      this.catchUpThreads = Integer.valueOf(prop.getProperty("folioCatchUpThreads","4"));
+      this.inventory = DriverManager.getConnection( this.databaseURL, dbProps );
+      this.folio = new FolioClient( prop, "Folio" );
+      this.queueAvail = this.inventory.prepareStatement
+          ("INSERT INTO availQueue ( hrid, priority, cause, record_date ) VALUES (?,?,?,?)");
+      this.queueGen = this.inventory.prepareStatement
+          ("INSERT INTO generationQueue ( hrid, priority, cause, record_date ) VALUES (?,?,?,?)");
+      this.getTitle = this.inventory.prepareStatement
+          ("SELECT title FROM bibRecsSolr WHERE bib_id = ?");
+      this.getUserChangeTotals = this.inventory.prepareStatement
+          ("SELECT id, COUNT(*) FROM userChanges GROUP BY 1");
+
+      // Feeds new since polling was split by record type start from the shared cursor
+      Timestamp time = Change.getCurrentToDate( this.inventory, cursorKey() );
+      if (time == null)
+        time = Change.getCurrentToDate( this.inventory, CURRENT_TO_KEY );
       if (time == null) {
         time = new Timestamp(Calendar.getInstance().getTime().getTime()-(10*60*60*1000));
-        System.out.println("No starting timestamp in DB, defaulting to 10 hours ago.");
+        System.out.println("No starting timestamp in DB for "+this.name+", defaulting to 10 hours ago.");
       }
-      System.out.println(time);
+      System.out.println(this.name+": "+time);
+      this.currentTo = time;
+    }
 
-      while ( true ) {
-        Timestamp newTime = new Timestamp(Calendar.getInstance().getTime().getTime()-10_000);//now minus 10 seconds
-        final Timestamp since = time;
+    @Override
+    public void run() {
+      try {
+        while ( true ) {
+          boolean caughtUp = poll();
+          if ( caughtUp ) Thread.sleep(this.pollMillis);
+        }
+      } catch (SQLException | IOException | AuthenticationException | ExecutionException e) {
+        System.out.println("Polling "+this.name+" failed.");
+        e.printStackTrace();
+        throw new RuntimeException( e );
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
 
-        trimUserChangeLog.executeUpdate();
-        queueForIndex( ChangeDetector.detectChangedInstances( inventory, folio, since ),
-            queueGen, getTitle, getUserChangeTotals );
-        Map<String, Set<Change>> changedBibs =
-            ChangeDetector.detectChangedHoldings( inventory, folio, since );
-        queueForIndex(changedBibs,queueGen,getTitle, getUserChangeTotals);
-        queueForIndex(changedBibs,queueAvail,getTitle, getUserChangeTotals);
-        queueForIndex(ChangeDetector.detectChangedItems( inventory, folio, since ),
-            queueAvail, getTitle, getUserChangeTotals );
-        queueForIndex( ChangeDetector.detectChangedLoans( inventory, folio, since ),
-            queueAvail, getTitle, getUserChangeTotals );
-        queueForIndex( ChangeDetector.detectChangedRequests( inventory, folio, since ),
-            queueAvail, getTitle, getUserChangeTotals );
-        queueForIndex( ChangeDetector.detectChangedOrderLines( inventory, folio, since ),
-            queueAvail, getTitle, getUserChangeTotals );
-        queueForIndex( ChangeDetector.detectChangedOrders( inventory, folio, since ),
-            queueAvail, getTitle, getUserChangeTotals );
+    long lagSeconds() {
+      return (System.currentTimeMillis() - this.currentTo.getTime())/1000;
+    }
 
-        Thread.sleep(12_000); //12 seconds
-        time = newTime;
-        Change.setCurrentToDate( time, inventory, CURRENT_TO_KEY );
+    /**
+     * Detect and queue changes since the cursor, and advance the cursor.
+     * @return false if the feed is still catching up and should poll again right away
+     */
+    boolean poll()
+        throws SQLException, IOException, InterruptedException, AuthenticationException, ExecutionException {
+      Timestamp newTime = new Timestamp(Calendar.getInstance().getTime().getTime()-10_000);//now minus 10 seconds
+      if ( this.dependsOn != null && this.dependsOn.currentTo.before(newTime) )
+        newTime = this.dependsOn.currentTo;
+      if ( newTime.before(this.currentTo) )
+        newTime = this.currentTo;
+
+      List<Timestamp[]> windows = catchUpWindows(
+          this.currentTo, newTime, this.catchUpWindowMillis, this.catchUpThreads);
+      Map<String, Set<Change>> changedBibs;
+      // Bounded by newTime, so changes past a lagging dependency are left for a later poll
+      if ( windows.isEmpty() )
+        changedBibs = this.detector.detect( this.inventory, this.folio, this.currentTo, newTime );
+      else {
+        newTime = windows.get(windows.size()-1)[1];
+        System.out.printf("%s catching up: %s to %s in %d windows\n",
+            this.name, this.currentTo, newTime, windows.size());
+        changedBibs = detectInWindows( windows );
+      }
+
+      if ( this.queueForGeneration )
+        queueForIndex(changedBibs, this.queueGen, this.getTitle, this.getUserChangeTotals);
+      if ( this.queueForAvailability )
+        queueForIndex(changedBibs, this.queueAvail, this.getTitle, this.getUserChangeTotals);
+
+      this.currentTo = newTime;
+      Change.setCurrentToDate( newTime, this.inventory, cursorKey() );
+      return windows.isEmpty();
+    }
+
+    private Map<String, Set<Change>> detectInWindows( List<Timestamp[]> windows )
+        throws InterruptedException, ExecutionException {
+      ExecutorService windowThreads = Executors.newFixedThreadPool(windows.size());
+      try {
+        List<Future<Map<String, Set<Change>>>> detected = new ArrayList<>();
+        for ( Timestamp[] window : windows )
+          detected.add(windowThreads.submit(() -> {
+            try ( Connection windowInventory = DriverManager.getConnection(this.databaseURL, this.dbProps) ) {
+              return this.detector.detect( windowInventory, this.folio, window[0], window[1] );
+            }
+          }));
+        Map<String, Set<Change>> changedBibs = new HashMap<>();
+        for ( Future<Map<String, Set<Change>>> windowChanges : detected )
+          for ( Entry<String,Set<Change>> e : windowChanges.get().entrySet() )
+            changedBibs.computeIfAbsent(e.getKey(), k -> new HashSet<>()).addAll(e.getValue());
+        return changedBibs;
+      } finally {
+        windowThreads.shutdownNow();
       }
     }
+
+    void close() throws SQLException {
+      if ( this.inventory != null ) this.inventory.close();
+    }
+  }
+
+  /**
+   * Split the time from since to until into consecutive windows of windowMillis, up to
+   * maxWindows of them. Empty when the whole span fits in one window, so no catching up is needed.
+   */
+  static List<Timestamp[]> catchUpWindows(
+      Timestamp since, Timestamp until, long windowMillis, int maxWindows ) {
+    List<Timestamp[]> windows = new ArrayList<>();
+    if ( until.getTime() - since.getTime() <= windowMillis ) return windows;
+    long start = since.getTime();
+    while ( start < until.getTime() && windows.size() < Math.max(1,maxWindows) ) {
+      long end = Math.min(start + windowMillis, until.getTime());
+      windows.add(new Timestamp[] {new Timestamp(start), new Timestamp(end)});
+      start = end;
+    }
+    return windows;
   }
 
   public static Map<Integer,Set<Change>> eliminateCarryovers( 
@@ -1,7 +1,7 @@
 package edu.cornell.library.integration.folio;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -9,8 +9,6 @@ import java.util.Map.Entry;
 
 import javax.naming.AuthenticationException;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-
 public class ReferenceData {
 
 
@@ -25,37 +23,40 @@ public class ReferenceData {
    * use cases arise, this can be expanded.
    */
   public ReferenceData(FolioClient folio, String endPoint, String nameField) throws IOException, AuthenticationException {
-    String json = folio.query(endPoint , null, 4000);
-    Map<String, Object> rawData = mapper.readValue(json, Map.class);
+    this(folio.queryAsList(endPoint, null, 4000), nameField);
+  }
+
+  /*
+   * Build the reference map from records already retrieved, such as those held by the
+   * ReferenceDataRegistry.
+   */
+  public ReferenceData(List<Map<String, Object>> records, String nameField) {
+    this.nameField = nameField;
+    replace(records);
+  }
+
+  /*
+   * Replace the reference data with a new set of records. Lookups already under way see either
+   * the old data or the new, never a mix of the two.
+   */
+  public void replace(List<Map<String, Object>> records) {
     Map<String, String> processedByName = new HashMap<>();
     Map<String, String> processedByUuid = new HashMap<>();
-    for (String mainKey : rawData.keySet()) {
-
-      if (mainKey.equals("totalRecords"))
-        continue;
-      Object mainValue = rawData.get(mainKey);
-      if (!mainValue.getClass().equals(ArrayList.class))
-        continue;
-
-      @SuppressWarnings("unchecked")
-      List<Map<String, Object>> entries = (ArrayList<Map<String, Object>>) mainValue;
-      for (Map<String, Object> entry : entries) {
-        String name = (String) entry.get(nameField);
-        String id = (String) entry.get("id");
-        processedByName.put( (name).toLowerCase(), id);
-        processedByUuid.put(id, name);
-      }
+    for (Map<String, Object> entry : records) {
+      String name = (String) entry.get(this.nameField);
+      String id = (String) entry.get("id");
+      processedByName.put( (name).toLowerCase(), id);
+      processedByUuid.put(id, name);
     }
 
-    this.dataByName = processedByName;
-    this.dataByUuid = processedByUuid;
-    this.entriesByUuid = new HashMap<>();
-    for ( Entry<String,String> e : this.dataByUuid.entrySet() ) {
+    Map<String, Map<String,String>> entries = new HashMap<>();
+    for ( Entry<String,String> e : processedByUuid.entrySet() ) {
       Map<String,String> entry = new HashMap<>();
       entry.put("id", e.getKey());
-      entry.put(nameField, e.getValue());
-      this.entriesByUuid.put(e.getKey(), entry);
+      entry.put(this.nameField, e.getValue());
+      entries.put(e.getKey(), Collections.unmodifiableMap(entry));
     }
+    this.tables = new Tables(processedByName, processedByUuid, entries);
   }
 
   /*
@@ -65,17 +66,19 @@ public class ReferenceData {
   public String getUuid(String keyValue) {
     if (keyValue == null) return null;
     String value = keyValue.toLowerCase();
-    if (this.defaultKey == null || this.dataByName.containsKey(value))
-      return this.dataByName.get(value);
-    return this.dataByName.get(this.defaultKey);
+    Tables t = this.tables;
+    if (this.defaultKey == null || t.dataByName.containsKey(value))
+      return t.dataByName.get(value);
+    return t.dataByName.get(this.defaultKey);
   }
 
   /*
    * Get the name value for uuid. Return null if unpopulated.
    */
   public String getName(String uuid) {
-    if (this.defaultKey == null || this.dataByUuid.containsKey(uuid))
-      return this.dataByUuid.get(uuid);
+    Tables t = this.tables;
+    if (this.defaultKey == null || t.dataByUuid.containsKey(uuid))
+      return t.dataByUuid.get(uuid);
     return null;
   }
   /*
@@ -83,20 +86,19 @@ public class ReferenceData {
    * null.
    */
   public String getStrictUuid(String keyValue) {
-    return this.dataByName.get(keyValue.toLowerCase());
+    return this.tables.dataByName.get(keyValue.toLowerCase());
   }
 
   public Map<String,String> getEntryHashByUuid( String uuid ) {
-    if ( this.entriesByUuid.containsKey(uuid))
-      return this.entriesByUuid.get(uuid);
-    return null;
+    return this.tables.entriesByUuid.get(uuid);
   }
 
   public Map<String,String> getEntryHashByName( String name ) {
     if ( name == null ) return null;
     String value = name.toLowerCase();
-    if ( ! this.dataByName.containsKey(value)) return null;
-    return this.entriesByUuid.get(this.dataByName.get(value));
+    Tables t = this.tables;
+    if ( ! t.dataByName.containsKey(value)) return null;
+    return t.entriesByUuid.get(t.dataByName.get(value));
   }
 
 
@@ -105,21 +107,37 @@ public class ReferenceData {
    */
   public void setDefault(String defaultKey) throws IllegalArgumentException {
     String value = defaultKey.toLowerCase();
-    if (value != null && !this.dataByName.containsKey(value))
+    if (value != null && !this.tables.dataByName.containsKey(value))
       throw new IllegalArgumentException("Default key \"" + value + "\" is not a valid key.");
     this.defaultKey = value;
   }
 
   public void writeMapToStdout() {
-    for (Entry<String, String> e : this.dataByName.entrySet())
+    for (Entry<String, String> e : this.tables.dataByName.entrySet())
       System.out.printf("%s => %s\n", e.getKey(), e.getValue());
   }
 
-  final Map<String, String> dataByName;
-  final Map<String, String> dataByUuid;
-  final Map<String, Map<String,String>> entriesByUuid;
-  String defaultKey = null;
+  private static class Tables {
+    final Map<String, String> dataByName;
+    final Map<String, String> dataByUuid;
+    final Map<String, Map<String,String>> entriesByUuid;
+    Tables( Map<String, String> dataByName, Map<String, String> dataByUuid,
+        Map<String, Map<String,String>> entriesByUuid ) {
+      this.dataByName = Collections.unmodifiableMap(dataByName);
+      this.dataByUuid = Collections.unmodifiableMap(dataByUuid);
+      this.entriesByUuid = Collections.unmodifiableMap(entriesByUuid);
+    }
+  }
 
-  private static ObjectMapper mapper = new ObjectMapper();
+  /*
+   * All names in the reference data, lower-cased, mapped to their UUIDs.
+   */
+  public Map<String, String> dataByName() {
+    return this.tables.dataByName;
+  }
+
+  private final String nameField;
+  private volatile Tables tables;
+  String defaultKey = null;
 
 }
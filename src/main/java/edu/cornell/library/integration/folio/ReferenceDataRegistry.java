@@ -0,0 +1,205 @@
+package edu.cornell.library.integration.folio;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.naming.AuthenticationException;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * The Folio reference data needed before records can be processed: locations, libraries, loan
+ * types, service points and the ReferenceData tables. All of the tables are retrieved from Folio
+ * in parallel, and are refreshed in the background every referenceDataRefreshMinutes (default 60,
+ * or 0 for never). On each refresh, every table's lookup maps are rebuilt and swapped in whole.
+ *
+ * If the referenceDataSnapshot property names a file, the tables are saved there after each
+ * retrieval from Folio, and at the next startup they are read from the file instead, with the
+ * refresh from Folio following in the background.
+ */
+public class ReferenceDataRegistry {
+
+  public enum Table {
+    LOCATIONS          ("/locations",                null,   500),
+    LIBRARIES          ("/location-units/libraries", "name", 4000),
+    LOAN_TYPES         ("/loan-types",               null,   500),
+    SERVICE_POINTS     ("/service-points",           null,   500),
+    HOLDINGS_NOTE_TYPES("/holdings-note-types",      "name", 4000),
+    CALL_NUMBER_TYPES  ("/call-number-types",        "name", 4000),
+    STATISTICAL_CODES  ("/statistical-codes",        "code", 4000),
+    MATERIAL_TYPES     ("/material-types",           "name", 4000),
+    ITEM_NOTE_TYPES    ("/item-note-types",          "name", 4000);
+
+    final String endPoint;
+    final String nameField;
+    final int limit;
+    private Table(String endPoint, String nameField, int limit) {
+      this.endPoint = endPoint;
+      this.nameField = nameField;
+      this.limit = limit;
+    }
+  }
+
+  public static ReferenceDataRegistry start( FolioClient folio, Properties prop )
+      throws IOException, AuthenticationException {
+    ReferenceDataRegistry registry = new ReferenceDataRegistry( folio, prop );
+    Map<Table,List<Map<String,Object>>> tables = registry.readSnapshot();
+    boolean fromSnapshot = ( tables != null );
+    if ( ! fromSnapshot ) {
+      tables = registry.retrieveAll();
+      registry.writeSnapshot(tables);
+    }
+    registry.apply(tables);
+
+    long refreshMinutes = Long.valueOf(prop.getProperty("referenceDataRefreshMinutes","60"));
+    if ( refreshMinutes > 0 )
+      refreshes.scheduleWithFixedDelay(
+          registry::refresh, (fromSnapshot) ? 0 : refreshMinutes, refreshMinutes, TimeUnit.MINUTES);
+    else if ( fromSnapshot )
+      refreshes.execute(registry::refresh);
+    return registry;
+  }
+
+  public Locations locations()            { return this.locations; }
+  public ReferenceData get( Table table ) { return this.referenceData.get(table); }
+  public ReferenceData holdingsNoteTypes(){ return get(Table.HOLDINGS_NOTE_TYPES); }
+  public ReferenceData callNumberTypes()  { return get(Table.CALL_NUMBER_TYPES); }
+  public ReferenceData statisticalCodes() { return get(Table.STATISTICAL_CODES); }
+
+  /**
+   * Retrieve all of the tables from Folio and swap them in. A failed refresh is reported, and
+   * the data already loaded stays in use.
+   */
+  void refresh() {
+    try {
+      Map<Table,List<Map<String,Object>>> tables = retrieveAll();
+      apply(tables);
+      writeSnapshot(tables);
+      System.out.println("Reference data refreshed from Folio.");
+    } catch (IOException | AuthenticationException e) {
+      System.out.println("Reference data refresh failed. Continuing with the data already loaded.");
+      e.printStackTrace();
+    }
+  }
+
+  // PRIVATE RESOURCES
+
+  private final FolioClient folio;
+  private final Path snapshot;
+  private final Map<Table,ReferenceData> referenceData = new EnumMap<>(Table.class);
+  private Locations locations = null;
+
+  private ReferenceDataRegistry( FolioClient folio, Properties prop ) {
+    this.folio = folio;
+    String snapshotFile = prop.getProperty("referenceDataSnapshot");
+    this.snapshot = ( snapshotFile == null ) ? null : Paths.get(snapshotFile);
+  }
+
+  private Map<Table,List<Map<String,Object>>> retrieveAll() throws IOException, AuthenticationException {
+    ExecutorService threads = Executors.newFixedThreadPool(Table.values().length);
+    try {
+      Map<Table,Future<List<Map<String,Object>>>> futures = new EnumMap<>(Table.class);
+      for ( Table t : Table.values() )
+        futures.put(t, threads.submit(() -> this.folio.queryAsList(t.endPoint, null, t.limit)));
+      Map<Table,List<Map<String,Object>>> tables = new EnumMap<>(Table.class);
+      for ( Map.Entry<Table,Future<List<Map<String,Object>>>> e : futures.entrySet() ) {
+        try {
+          tables.put(e.getKey(), e.getValue().get());
+        } catch (ExecutionException ex) {
+          if ( ex.getCause() instanceof AuthenticationException )
+            throw (AuthenticationException) ex.getCause();
+          throw new IOException("Failed to retrieve "+e.getKey().endPoint, ex.getCause());
+        }
+      }
+      return tables;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while retrieving reference data", e);
+    } finally {
+      threads.shutdownNow();
+    }
+  }
+
+  private synchronized void apply( Map<Table,List<Map<String,Object>>> tables ) {
+    for ( Table t : Table.values() ) {
+      if ( t.nameField == null ) continue;
+      if ( this.referenceData.containsKey(t) )
+        this.referenceData.get(t).replace(tables.get(t));
+      else
+        this.referenceData.put(t, new ReferenceData(tables.get(t), t.nameField));
+    }
+    Locations.load(tables.get(Table.LOCATIONS), this.referenceData.get(Table.LIBRARIES));
+    LoanTypes.load(tables.get(Table.LOAN_TYPES));
+    ServicePoints.load(tables.get(Table.SERVICE_POINTS));
+    if ( this.locations == null ) {
+      try { this.locations = new Locations(); }
+      catch (IOException e) { throw new IllegalStateException(e); } // Locations were just loaded
+      Items.initialize(this.locations,
+          this.referenceData.get(Table.MATERIAL_TYPES), this.referenceData.get(Table.ITEM_NOTE_TYPES));
+    }
+  }
+
+  private Map<Table,List<Map<String,Object>>> readSnapshot() {
+    if ( this.snapshot == null || ! Files.exists(this.snapshot) ) return null;
+    try {
+      Map<String,List<Map<String,Object>>> byEndPoint =
+          mapper.readValue(this.snapshot.toFile(), snapshotType);
+      Map<Table,List<Map<String,Object>>> tables = new EnumMap<>(Table.class);
+      for ( Table t : Table.values() ) {
+        if ( ! byEndPoint.containsKey(t.endPoint) ) {
+          System.out.printf("Reference data snapshot %s has no %s. Retrieving from Folio.\n",
+              this.snapshot, t.endPoint);
+          return null;
+        }
+        tables.put(t, byEndPoint.get(t.endPoint));
+      }
+      System.out.println("Reference data loaded from snapshot "+this.snapshot);
+      return tables;
+    } catch (IOException e) {
+      System.out.println("Failed to read reference data snapshot "+this.snapshot+". Retrieving from Folio.");
+      e.printStackTrace();
+      return null;
+    }
+  }
+
+  private void writeSnapshot( Map<Table,List<Map<String,Object>>> tables ) {
+    if ( this.snapshot == null ) return;
+    Map<String,List<Map<String,Object>>> byEndPoint = new LinkedHashMap<>();
+    for ( Table t : Table.values() )
+      byEndPoint.put(t.endPoint, new ArrayList<>(tables.get(t)));
+    try {
+      Path tmp = this.snapshot.resolveSibling(this.snapshot.getFileName()+".tmp");
+      mapper.writeValue(tmp.toFile(), byEndPoint);
+      Files.move(tmp, this.snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      System.out.println("Failed to write reference data snapshot "+this.snapshot);
+      e.printStackTrace();
+    }
+  }
+
+  private static final TypeReference<Map<String,List<Map<String,Object>>>> snapshotType =
+      new TypeReference<Map<String,List<Map<String,Object>>>>() {};
+  private static final ScheduledExecutorService refreshes =
+      Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "reference-data-refresh");
+        t.setDaemon(true);
+        return t;
+      });
+  private static ObjectMapper mapper = new ObjectMapper();
+}
@@ -1,6 +1,7 @@
 package edu.cornell.library.integration.folio;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,12 +11,11 @@ import javax.naming.AuthenticationException;
 public class ServicePoints {
 
   public static void initialize( FolioClient folio ) throws IOException, AuthenticationException {
-    if (_byUuid.isEmpty()) populateServicePoints(folio);
+    if (byUuid == null) load(folio.queryAsList("/service-points",null,500 ));
   }
 
   public final static ServicePoint getByUuid( String uuid ) {
-    if (_byUuid.containsKey(uuid)) return _byUuid.get(uuid);
-    return null;
+    return byUuid.get(uuid);
   }
 
   public static class ServicePoint {
@@ -29,15 +29,20 @@ public class ServicePoints {
     }
   }
 
-  private static void populateServicePoints( FolioClient folio ) throws IOException, AuthenticationException {
-    List<Map<String,Object>> servicePoints = folio.queryAsList("/service-points",null,500 );
+  /**
+   * Build the service point map from Folio service point records, and swap it in for any already
+   * loaded.
+   */
+  static void load( List<Map<String,Object>> servicePoints ) {
+    Map<String,ServicePoint> points = new HashMap<>();
     for ( Map<String,Object> sp : servicePoints ) {
       String id = (String)sp.get("id");
       String displayName = (String)sp.get("discoveryDisplayName");
       Integer shelvingLagTime = (Integer)sp.get("shelvingLagTime");
-      _byUuid.put(id, new ServicePoint(id,displayName,shelvingLagTime));
+      points.put(id, new ServicePoint(id,displayName,shelvingLagTime));
     }
+    byUuid = Collections.unmodifiableMap(points);
   }
 
-  private static final Map<String,ServicePoint> _byUuid = new HashMap<>();
+  private static volatile Map<String,ServicePoint> byUuid = null;
 }
@@ -4,7 +4,14 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
 import java.text.Normalizer;
@@ -74,46 +81,31 @@ public class MarcRecord implements Comparable<MarcRecord> {
 
   }
 
+  /**
+   * Parse a binary MARC21 (ISO 2709) record. Directory entries are read as digits in place, and
+   * field values are decoded straight from rawMarc, with no intermediate copies.
+   */
   public MarcRecord(RecordType type, byte[] rawMarc) {
     this(type);
-    this.leader = new String(Arrays.copyOfRange(rawMarc, 0, 24), StandardCharsets.UTF_8);
-    int dataBaseAddress = Integer.valueOf(new String(Arrays.copyOfRange(rawMarc, 12, 17)));
-    byte[] directory = Arrays.copyOfRange(rawMarc, 24, dataBaseAddress);
-    byte[] data = Arrays.copyOfRange(rawMarc, dataBaseAddress, rawMarc.length + 1);
-    int directoryPos = 0;
+    this.leader = new String(rawMarc, 0, 24, StandardCharsets.UTF_8);
+    int dataBaseAddress = digits(rawMarc, 12, 5);
     int fieldId = 1;
-    while (directoryPos < directory.length - 1) {
-      String tag = new String(Arrays.copyOfRange(directory, directoryPos, directoryPos + 3));
-      int fieldLength = Integer.valueOf(new String(Arrays.copyOfRange(directory, directoryPos + 3, directoryPos + 7)));
-      int fieldStartPos = Integer
-          .valueOf(new String(Arrays.copyOfRange(directory, directoryPos + 7, directoryPos + 12)));
-      byte[] fieldValue = Arrays.copyOfRange(data, fieldStartPos, fieldStartPos + fieldLength);
-      directoryPos += 12;
+    for (int directoryPos = 24; directoryPos < dataBaseAddress - 1; directoryPos += 12) {
+      String tag = new String(rawMarc, directoryPos, 3, StandardCharsets.US_ASCII);
+      int fieldLength = digits(rawMarc, directoryPos + 3, 4);
+      int fieldStart = dataBaseAddress + digits(rawMarc, directoryPos + 7, 5);
+      byte[] field = rawMarc;
+      if (fieldStart + fieldLength > rawMarc.length) {
+        // A field running past the end of a truncated record is read as padded with zeros
+        field = Arrays.copyOfRange(rawMarc, fieldStart, fieldStart + fieldLength);
+        fieldStart = 0;
+      }
       if (tag.startsWith("00"))
         this.controlFields.add(new ControlField(100 * fieldId++, tag,
-            new String(Arrays.copyOfRange(fieldValue, 0, fieldValue.length - 1), StandardCharsets.UTF_8)));
-      else {
-        char ind1 = (char) fieldValue[0];
-        char ind2 = (char) fieldValue[1];
-        TreeSet<Subfield> subfields = new TreeSet<>();
-        List<Integer> subfieldSeparatorPositions = new ArrayList<>();
-        if (fieldValue[2] != (byte) 0x1F)
-          subfieldSeparatorPositions.add(1);
-        for (int i = 2; i < fieldValue.length; i++)
-          if (fieldValue[i] == (byte) 0x1E || fieldValue[i] == (byte) 0x1F)
-            subfieldSeparatorPositions.add(i);
-        for (int i = 0; i < subfieldSeparatorPositions.size() - 1; i++) {
-          int startpos = subfieldSeparatorPositions.get(i) + 1;
-          int endpos = subfieldSeparatorPositions.get(i + 1);
-          if (startpos >= endpos)
-            continue;
-          subfields.add(new Subfield(startpos, (char) fieldValue[startpos],
-              Normalizer
-                  .normalize(new String(Arrays.copyOfRange(fieldValue, startpos + 1, endpos), StandardCharsets.UTF_8)
-                      .replaceAll("[\n\r]", " "), Normalizer.Form.NFC)));
-        }
-        this.dataFields.add(new DataField(100 * fieldId++, tag, ind1, ind2, subfields));
-      }
+            new String(field, fieldStart, Math.max(0, fieldLength - 1), StandardCharsets.UTF_8)));
+      else
+        this.dataFields.add(new DataField(100 * fieldId++, tag, (char) field[fieldStart],
+            (char) field[fieldStart + 1], parseSubfields(field, fieldStart, fieldStart + fieldLength)));
     }
     F: for (DataField f : this.dataFields)
       for (Subfield sf : f.subfields)
@@ -131,6 +123,52 @@ public class MarcRecord implements Comparable<MarcRecord> {
       }
   }
 
+  /**
+   * Subfields of a binary MARC data field running from start to end in field. A subfield runs from
+   * its delimiter to the next delimiter or terminator. Data following the indicators without a
+   * delimiter is read as a subfield coded by its first character.
+   */
+  private static TreeSet<Subfield> parseSubfields(byte[] field, int start, int end) {
+    TreeSet<Subfield> subfields = new TreeSet<>();
+    int separator = (start + 2 < end && field[start + 2] != (byte) 0x1F) ? start + 1 : -1;
+    for (int i = start + 2; i < end; i++) {
+      if (field[i] != (byte) 0x1E && field[i] != (byte) 0x1F)
+        continue;
+      if (separator >= 0 && separator + 1 < i)
+        subfields.add(new Subfield(separator + 1 - start, (char) field[separator + 1],
+            subfieldValue(field, separator + 2, i)));
+      separator = i;
+    }
+    return subfields;
+  }
+
+  /**
+   * Decode a subfield value with line breaks replaced by spaces, NFC normalized. Pure ASCII without
+   * line breaks, as most values are, is already normalized and is decoded directly.
+   */
+  private static String subfieldValue(byte[] field, int start, int end) {
+    boolean plain = true;
+    for (int i = start; i < end && plain; i++)
+      plain = field[i] >= 0 && field[i] != '\n' && field[i] != '\r';
+    if (plain)
+      return new String(field, start, end - start, StandardCharsets.ISO_8859_1);
+    String value = new String(field, start, end - start, StandardCharsets.UTF_8)
+        .replace('\n', ' ').replace('\r', ' ');
+    return Normalizer.normalize(value, Normalizer.Form.NFC);
+  }
+
+  private static int digits(byte[] bytes, int start, int length) {
+    int value = 0;
+    for (int i = start; i < start + length; i++) {
+      int digit = bytes[i] - '0';
+      if (digit < 0 || digit > 9)
+        throw new NumberFormatException(
+            "For input string: \"" + new String(bytes, start, length, StandardCharsets.ISO_8859_1) + "\"");
+      value = value * 10 + digit;
+    }
+    return value;
+  }
+
   @Override
   public int compareTo(final MarcRecord other) {
     if (this.type == null) {
@@ -284,35 +322,9 @@ public class MarcRecord implements Comparable<MarcRecord> {
       // build XML string
       final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
       final ByteArrayOutputStream xmlstream = new ByteArrayOutputStream();
-      final XMLStreamWriter w = outputFactory.createXMLStreamWriter(xmlstream);
+      final XMLStreamWriter w = outputFactory.createXMLStreamWriter(xmlstream, "UTF-8");
       w.writeStartDocument("UTF-8", "1.0");
-      w.writeStartElement("record");
-      w.writeAttribute("xmlns", "http://www.loc.gov/MARC21/slim");
-      w.writeStartElement("leader");
-      w.writeCharacters(cleanInvalidXmlChars(this.leader));
-      w.writeEndElement(); // leader
-
-      for (final ControlField f : this.controlFields) {
-        w.writeStartElement("controlfield");
-        w.writeAttribute("tag", cleanInvalidXmlChars(f.tag));
-        w.writeCharacters(cleanInvalidXmlChars(f.value));
-        w.writeEndElement(); // controlfield
-      }
-
-      for (final DataField f : this.dataFields) {
-        w.writeStartElement("datafield");
-        w.writeAttribute("tag", cleanInvalidXmlChars(f.tag));
-        w.writeAttribute("ind1", cleanInvalidXmlChars(f.ind1.toString()));
-        w.writeAttribute("ind2", cleanInvalidXmlChars(f.ind2.toString()));
-        for (Subfield sf : f.subfields) {
-          w.writeStartElement("subfield");
-          w.writeAttribute("code", cleanInvalidXmlChars(sf.code.toString()));
-          w.writeCharacters(cleanInvalidXmlChars(sf.value));
-          w.writeEndElement(); // subfield
-        }
-        w.writeEndElement(); // datafield
-      }
-      w.writeEndElement(); // record
+      writeRecordElement(w, true);
       w.writeEndDocument();
       return xmlstream.toString("UTF-8");
     } catch (final XMLStreamException e) {
@@ -323,10 +335,257 @@ public class MarcRecord implements Comparable<MarcRecord> {
     return null;
   }
 
+  /**
+   * Write the record as a MARC XML record element into a collection already being written to w,
+   * so without an XML declaration or its own namespace declaration.
+   */
+  public void writeXml(final XMLStreamWriter w) throws XMLStreamException {
+    writeRecordElement(w, false);
+  }
+
+  /**
+   * Write the record as a MARC XML record element into a collection already being written to out.
+   * The output is the same as writeXml(XMLStreamWriter), but is written directly, with invalid
+   * XML characters replaced and markup escaped in the same pass, and no intermediate Strings.
+   */
+  public void writeXml(final Writer out) throws IOException {
+    out.write("<record><leader>");
+    writeXmlText(out, this.leader, false);
+    out.write("</leader>");
+    for (final ControlField f : this.controlFields) {
+      out.write("<controlfield tag=\"");
+      writeXmlText(out, f.tag, true);
+      out.write("\">");
+      writeXmlText(out, f.value, false);
+      out.write("</controlfield>");
+    }
+    for (final DataField f : this.dataFields) {
+      out.write("<datafield tag=\"");
+      writeXmlText(out, f.tag, true);
+      out.write("\" ind1=\"");
+      writeXmlChar(out, f.ind1, true);
+      out.write("\" ind2=\"");
+      writeXmlChar(out, f.ind2, true);
+      out.write("\">");
+      for (final Subfield sf : f.subfields) {
+        out.write("<subfield code=\"");
+        writeXmlChar(out, sf.code, true);
+        out.write("\">");
+        writeXmlText(out, sf.value, false);
+        out.write("</subfield>");
+      }
+      out.write("</datafield>");
+    }
+    out.write("</record>");
+  }
+
+  private void writeRecordElement(final XMLStreamWriter w, final boolean namespace)
+      throws XMLStreamException {
+    w.writeStartElement("record");
+    if (namespace)
+      w.writeAttribute("xmlns", "http://www.loc.gov/MARC21/slim");
+    w.writeStartElement("leader");
+    w.writeCharacters(cleanInvalidXmlChars(this.leader));
+    w.writeEndElement(); // leader
+
+    for (final ControlField f : this.controlFields) {
+      w.writeStartElement("controlfield");
+      w.writeAttribute("tag", cleanInvalidXmlChars(f.tag));
+      w.writeCharacters(cleanInvalidXmlChars(f.value));
+      w.writeEndElement(); // controlfield
+    }
+
+    for (final DataField f : this.dataFields) {
+      w.writeStartElement("datafield");
+      w.writeAttribute("tag", cleanInvalidXmlChars(f.tag));
+      w.writeAttribute("ind1", cleanInvalidXmlChars(f.ind1.toString()));
+      w.writeAttribute("ind2", cleanInvalidXmlChars(f.ind2.toString()));
+      for (Subfield sf : f.subfields) {
+        w.writeStartElement("subfield");
+        w.writeAttribute("code", cleanInvalidXmlChars(sf.code.toString()));
+        w.writeCharacters(cleanInvalidXmlChars(sf.value));
+        w.writeEndElement(); // subfield
+      }
+      w.writeEndElement(); // datafield
+    }
+    w.writeEndElement(); // record
+  }
+
   private static String cleanInvalidXmlChars(String text) {
     return text.replaceAll("[^\u0009\r\n\u0020-\uD7FF\uE000-\uFFFD\uD800\uDC00-\uDBFF\uDFFF]", " ");
   }
 
+  private static void writeXmlText(final Writer out, final String text, final boolean attribute)
+      throws IOException {
+    final int length = text.length();
+    int start = 0;
+    for (int i = 0; i < length; i++) {
+      final char c = text.charAt(i);
+      if (c >= 0x20 && c < 0xD800 && c != '<' && c != '>' && c != '&' && c != '"')
+        continue;
+      // flush the run of characters that need no attention
+      if (i > start)
+        out.write(text, start, i - start);
+      start = i + 1;
+      if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+        out.write(c);
+        out.write(text.charAt(++i));
+        start = i + 1;
+      } else
+        writeXmlChar(out, c, attribute);
+    }
+    if (length > start)
+      out.write(text, start, length - start);
+  }
+
+  private static void writeXmlChar(final Writer out, final char c, final boolean attribute)
+      throws IOException {
+    switch (c) {
+    case '<':  out.write("&lt;");   break;
+    case '>':  out.write("&gt;");   break;
+    case '&':  out.write("&amp;");  break;
+    case '"':
+      if (attribute) out.write("&quot;"); else out.write(c);
+      break;
+    case '\t': case '\n': case '\r':
+      out.write(c);
+      break;
+    default:
+      if (c < 0x20 || (c >= 0xD800 && c < 0xE000) || c == 0xFFFE || c == 0xFFFF)
+        out.write(' ');
+      else
+        out.write(c);
+    }
+  }
+
+  /**
+   * Write the record as binary MARC21 (ISO 2709), UTF-8 encoded. The leader, directory and field
+   * data are assembled in a buffer reused by each thread, and written to out in one call. The
+   * leader is taken from the record, with its lengths, base address, character coding and entry
+   * map set to match the output. Delimiter characters in field values are replaced with spaces.
+   * @return false, with nothing written, if the record is too long to be represented in MARC21
+   */
+  public boolean writeMarc21(final OutputStream out) throws IOException {
+    final Marc21Buffer b = marc21Buffers.get();
+    final int fieldCount = this.controlFields.size() + this.dataFields.size();
+    final int baseAddress = 24 + 12 * fieldCount + 1;
+    if (baseAddress > 99999)
+      return false;
+    ByteBuffer buf = b.clear(baseAddress);
+    int entry = 24;
+    for (final ControlField f : this.controlFields) {
+      final int start = buf.position();
+      buf = b.encode(f.value);
+      buf = b.ensure(1);
+      buf.put(FIELD_TERMINATOR);
+      if (!directoryEntry(buf, entry, f.tag, start - baseAddress, buf.position() - start))
+        return false;
+      entry += 12;
+    }
+    for (final DataField f : this.dataFields) {
+      final int start = buf.position();
+      buf = b.encode(f.ind1, f.ind2);
+      for (final Subfield sf : f.subfields) {
+        buf = b.ensure(2);
+        buf.put(SUBFIELD_DELIMITER);
+        buf = b.encode(sf.code);
+        buf = b.encode(sf.value);
+      }
+      buf = b.ensure(1);
+      buf.put(FIELD_TERMINATOR);
+      if (!directoryEntry(buf, entry, f.tag, start - baseAddress, buf.position() - start))
+        return false;
+      entry += 12;
+    }
+    buf = b.ensure(1);
+    buf.put(RECORD_TERMINATOR);
+    buf.put(baseAddress - 1, FIELD_TERMINATOR);
+    final int recordLength = buf.position();
+    if (recordLength > 99999)
+      return false;
+
+    for (int i = 0; i < 24; i++)
+      buf.put(i, (byte) ((i < this.leader.length() && this.leader.charAt(i) < 0x80) ? this.leader.charAt(i) : ' '));
+    putNumber(buf, 0, 5, recordLength);
+    buf.put(9, (byte) 'a');
+    buf.put(10, (byte) '2');
+    buf.put(11, (byte) '2');
+    putNumber(buf, 12, 5, baseAddress);
+    for (int i = 20; i < 24; i++)
+      buf.put(i, (byte) "4500".charAt(i - 20));
+    out.write(buf.array(), 0, recordLength);
+    return true;
+  }
+
+  private static boolean directoryEntry(ByteBuffer buf, int entry, String tag, int start, int length) {
+    if (length > 9999 || start > 99999)
+      return false;
+    for (int i = 0; i < 3; i++)
+      buf.put(entry + i, (byte) ((i < tag.length() && tag.charAt(i) < 0x80) ? tag.charAt(i) : ' '));
+    putNumber(buf, entry + 3, 4, length);
+    putNumber(buf, entry + 7, 5, start);
+    return true;
+  }
+
+  private static void putNumber(ByteBuffer buf, int index, int digits, int value) {
+    for (int i = index + digits - 1; i >= index; i--, value /= 10)
+      buf.put(i, (byte) ('0' + value % 10));
+  }
+
+  private static final byte SUBFIELD_DELIMITER = 0x1F;
+  private static final byte FIELD_TERMINATOR = 0x1E;
+  private static final byte RECORD_TERMINATOR = 0x1D;
+
+  /**
+   * A growable ByteBuffer, with a UTF-8 encoder that writes into it directly, so field values are
+   * encoded without intermediate byte arrays.
+   */
+  private static final class Marc21Buffer {
+    private ByteBuffer buf = ByteBuffer.allocate(16384);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE)
+        .replaceWith(new byte[] { ' ' });
+
+    // Cast to Buffer, as ByteBuffer's own clear() and position(int) aren't in Java 8
+    ByteBuffer clear(int dataStart) {
+      ((Buffer) this.buf).clear();
+      ensure(dataStart);
+      ((Buffer) this.buf).position(dataStart);
+      return this.buf;
+    }
+
+    ByteBuffer ensure(int bytes) {
+      if (this.buf.remaining() < bytes) {
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(this.buf.capacity() * 2, this.buf.position() + bytes));
+        larger.put(this.buf.array(), 0, this.buf.position());
+        this.buf = larger;
+      }
+      return this.buf;
+    }
+
+    ByteBuffer encode(Character... chars) {
+      for (Character c : chars)
+        encode(c.toString());
+      return this.buf;
+    }
+
+    ByteBuffer encode(String value) {
+      // No char encodes to more than three bytes in UTF-8; a surrogate pair takes four for two
+      ensure(3 * value.length());
+      final int start = this.buf.position();
+      this.encoder.reset();
+      this.encoder.encode(CharBuffer.wrap(value), this.buf, true);
+      this.encoder.flush(this.buf);
+      for (int i = start; i < this.buf.position(); i++) {
+        byte c = this.buf.get(i);
+        if (c == SUBFIELD_DELIMITER || c == FIELD_TERMINATOR || c == RECORD_TERMINATOR)
+          this.buf.put(i, (byte) ' ');
+      }
+      return this.buf;
+    }
+  }
+  private static final ThreadLocal<Marc21Buffer> marc21Buffers = ThreadLocal.withInitial(Marc21Buffer::new);
+
   private void processRecord(XMLStreamReader r, boolean trimSubfields) throws XMLStreamException {
 
     int fid = 0;
@@ -2,10 +2,15 @@ package edu.cornell.library.integration.availability;
 
 import static edu.cornell.library.integration.db_test.TestUtil.loadResourceFile;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -25,6 +30,7 @@ import org.junit.Test;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import edu.cornell.library.integration.availability.ProcessAvailabilityQueue.BibToUpdate;
 import edu.cornell.library.integration.db_test.DbBaseTest;
 import edu.cornell.library.integration.folio.Holdings;
 import edu.cornell.library.integration.folio.Holdings.HoldingSet;
@@ -69,6 +75,47 @@ public class CallNumberBrowseTest extends DbBaseTest {
     }
   }
 
+  @Test
+  public void compareToIndexed() throws SQLException {
+    List<SolrInputDocument> docs = new ArrayList<>();
+    for (int i = 1; i <= 3; i++) {
+      SolrInputDocument doc = new SolrInputDocument();
+      doc.addField("id", "99901."+i);
+      doc.addField("callnum_display", "QA"+i);
+      docs.add(doc);
+    }
+
+    // No hashes stored yet, so the bib's browse documents are all replaced
+    BibToUpdate bib = new BibToUpdate("99901", new HashSet<>());
+    CallNumberBrowse.compareToIndexed(testDB, bib, docs);
+    assertTrue(bib.callnumReplaceAll);
+    assertEquals(3, bib.callnumDocs.size());
+    CallNumberBrowse.storeIndexedHashes(testDB, Arrays.asList(bib));
+
+    // Nothing changed, so nothing to write
+    bib = new BibToUpdate("99901", new HashSet<>());
+    CallNumberBrowse.compareToIndexed(testDB, bib, docs);
+    assertFalse(bib.callnumReplaceAll);
+    assertTrue(bib.callnumDocs.isEmpty());
+    assertTrue(bib.callnumDeletes.isEmpty());
+    assertNull(bib.callnumHashes);
+
+    docs.get(0).setField("callnum_display", "QA1 .B2");
+    docs.remove(2);
+    bib = new BibToUpdate("99901", new HashSet<>());
+    CallNumberBrowse.compareToIndexed(testDB, bib, docs);
+    assertFalse(bib.callnumReplaceAll);
+    assertEquals(1, bib.callnumDocs.size());
+    assertEquals("99901.1", bib.callnumDocs.iterator().next().getFieldValue("id"));
+    assertEquals(Arrays.asList("99901.3"), bib.callnumDeletes);
+    CallNumberBrowse.storeIndexedHashes(testDB, Arrays.asList(bib));
+
+    bib = new BibToUpdate("99901", new HashSet<>());
+    CallNumberBrowse.compareToIndexed(testDB, bib, docs);
+    assertTrue(bib.callnumDocs.isEmpty());
+    assertTrue(bib.callnumDeletes.isEmpty());
+  }
+
   @Test
   public void multipleCopies() throws SQLException, IOException, XMLStreamException, AuthenticationException {
     HoldingSet holdings = Holdings.retrieveHoldingsByInstanceHrid(testDB, locations, holdingsNoteTypes, callNumberTypes, "4442869");
@@ -4,12 +4,18 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 
 import org.junit.Test;
 
@@ -51,4 +57,108 @@ public class CallNumberToolsTest {
     }
     
   }
+
+  @Test
+  public void classificationIndex() {
+    CallNumberTools.ClassificationIndex index = new CallNumberTools.ClassificationIndex(Arrays.asList(
+        new CallNumberTools.ClassificationIndex.Range("PS","PS",1,3577,"PS1-3576 - American literature"),
+        new CallNumberTools.ClassificationIndex.Range("P","PZZ",0,100000,"P - Language & Literature"),
+        new CallNumberTools.ClassificationIndex.Range("PS","PS",3550,3577,"PS3550-3576 - 1961-2000"),
+        new CallNumberTools.ClassificationIndex.Range("PS","PS",0,100000,"PS - Americal Literature"),
+        new CallNumberTools.ClassificationIndex.Range("Q","Q",1,295.9999,"Q1-295 - General")));
+    assertEquals(Arrays.asList("P - Language & Literature","PS - Americal Literature",
+        "PS1-3576 - American literature","PS3550-3576 - 1961-2000"), index.labels("ps","000003556.5"));
+    assertEquals(Arrays.asList("P - Language & Literature","PS - Americal Literature"),
+        index.labels("ps","000004000"));
+    assertEquals(Arrays.asList("P - Language & Literature"), index.labels("pr","000000012.3.4"));
+    assertEquals(Arrays.asList("P - Language & Literature"), index.labels("pzz",""));
+    assertEquals(Arrays.asList("Q1-295 - General"), index.labels("q","000000295.5"));
+    assertTrue(index.labels("qa","000000076").isEmpty());
+    assertTrue(index.labels("a","000000001").isEmpty());
+  }
+
+  @Test
+  public void sortForm() throws IOException {
+    assertEquals("ml 000000410 m 619 g 56 2012", CallNumberTools.sortForm("ML410.M619 G56 2012"));
+    assertEquals("ml m 619 g 56 2012", CallNumberTools.sortForm("ML .M619 G56 2012"));
+    assertEquals("a 000000123 12345678.1", CallNumberTools.sortForm("A123 12345678.1"));
+    assertEquals("r 000000012.0000000005", CallNumberTools.sortForm("R12.0000000005."));
+    assertEquals("r 1234567890.5", CallNumberTools.sortForm("R0001234567890.5"));
+    assertEquals("000000001 1 1", CallNumberTools.sortForm("1-1-1"));
+    assertEquals("bx 000001935 a 23 1959", CallNumberTools.sortForm("++ Oversize BX1935 .A23 1959"));
+    assertEquals("pq 000006329 z 5 e 5", CallNumberTools.sortForm("PQ6329.Z5 É5"));
+    assertEquals("", CallNumberTools.sortForm("  "));
+  }
+
+  @Test
+  public void sortFormMatchesRegexImplementation() throws IOException {
+    List<String> prefixes = new ArrayList<>();
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(
+        Thread.currentThread().getContextClassLoader().getResourceAsStream("callnumberprefixes.txt"),
+        StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        if (line.indexOf('#') != -1) line = line.substring(0,line.indexOf('#'));
+        line = line.trim().toLowerCase();
+        if (! line.isEmpty()) prefixes.add(line);
+      }
+    }
+    List<String> fragments = new ArrayList<>(Arrays.asList(
+        "A","b","QA","x","Z","0","00","1","9","12","0000000001","123456789012",".",". ","..",
+        " ","  ","\t","\n","\u000B","\u0001",",",";","#","+","-","/","(",")","&","'",
+        "\u00e9","\u00c9","e\u0301","\u0130","\u00df","\u00bd","\u0663","\uff21"));
+    for (String prefix : prefixes.subList(0, 12)) fragments.add(prefix);
+    fragments.addAll(Arrays.asList("Oversize","Rare Books","Rare","New & Noteworthy Books","Thesis",
+        "A. D. White, "));
+
+    Random random = new Random(18);
+    for (int i = 0; i < 50_000; i++) {
+      StringBuilder call = new StringBuilder();
+      int parts = random.nextInt(10);
+      for (int j = 0; j < parts; j++)
+        call.append(fragments.get(random.nextInt(fragments.size())));
+      String callNumber = call.toString();
+      assertEquals(callNumber, regexSortForm(callNumber, prefixes),
+          CallNumberTools.sortForm(callNumber, prefixes));
+      assertEquals(callNumber, regexSortForm(callNumber, null),
+          CallNumberTools.sortForm(callNumber, (List<String>) null));
+    }
+  }
+
+  // The sort form as it was generated before the single pass scanner
+
+  private static String regexSortForm( CharSequence callNumber, List<String> prefixes ) {
+
+    String lc = Normalizer.normalize(callNumber, Normalizer.Form.NFD)
+        .toLowerCase().trim()
+        .replaceAll("\\.(?!\\d)", " ").replaceAll("\\s+"," ");
+
+    if (lc.isEmpty()) return lc;
+
+    return regexStripPrefixes(lc,prefixes)
+        .replaceAll("[^a-z\\d\\.]+", " ")
+        .replaceAll("([a-z])(\\d)", "$1 $2")
+        .replaceAll("(\\d)([a-z])", "$1 $2")
+        .replaceAll("^\\s*([a-z]*\\s*)(\\d+)", "$100000000$2")
+        .replaceAll("^([a-z]*\\s*)0*(\\d{9})", "$1$2")
+        .trim();
+  }
+
+  private static String regexStripPrefixes(String callnum, List<String> prefixes) {
+    if (prefixes == null || prefixes.isEmpty())
+      return callnum;
+    String previouscallnum;
+    do {
+      previouscallnum = callnum;
+      PREF: for (String prefix : prefixes) {
+        if (callnum.startsWith(prefix)) {
+          callnum = callnum.substring(prefix.length());
+          break PREF;
+        }
+      }
+      while (callnum.length() > 0 && -1 < " ,;#+".indexOf(callnum.charAt(0)))
+        callnum = callnum.substring(1);
+    } while (callnum.length() > 0 && ! callnum.equals(previouscallnum));
+    return callnum;
+  }
 }
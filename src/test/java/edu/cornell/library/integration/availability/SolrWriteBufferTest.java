@@ -0,0 +1,128 @@
+package edu.cornell.library.integration.availability;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.solr.client.solrj.SolrClient;
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+import edu.cornell.library.integration.availability.ProcessAvailabilityQueue.BibToUpdate;
+
+public class SolrWriteBufferTest {
+
+  @Test
+  public void callNumberDeleteQuery() {
+    assertEquals("bibid:(1234)", SolrWriteBuffer.callNumberDeleteQuery(Arrays.asList("1234")));
+    assertEquals("bibid:(1234 OR 5678 OR in00001)",
+        SolrWriteBuffer.callNumberDeleteQuery(Arrays.asList("1234","5678","in00001")));
+  }
+
+  @Test
+  public void flushOnSize() throws IOException, InterruptedException {
+    RecordingSolrClient solr = new RecordingSolrClient(false);
+    RecordingSolrClient callNumberSolr = new RecordingSolrClient(false);
+    SolrWriteBuffer buffer = new SolrWriteBuffer(solr, callNumberSolr, 2, 60_000);
+    assertFalse(buffer.isFlushDue());
+
+    buffer.add(bib("1", Arrays.asList(doc("1.1"),doc("1.2"))));
+    assertFalse(buffer.isFlushDue());
+    buffer.add(bib("2", new ArrayList<>()));
+    assertTrue(buffer.isFlushDue());
+
+    List<BibToUpdate> written = buffer.flush();
+    assertEquals(2, written.size());
+    assertEquals(0, buffer.size());
+    assertEquals(1, solr.requests.size());
+    assertEquals(2, solr.requests.get(0).getDocuments().size());
+    assertEquals(2, callNumberSolr.requests.size());
+    assertEquals(Arrays.asList("bibid:(1 OR 2)"), callNumberSolr.requests.get(0).getDeleteQuery());
+    assertEquals(2, callNumberSolr.requests.get(1).getDocuments().size());
+  }
+
+  @Test
+  public void flushChangesOnly() throws IOException, InterruptedException {
+    RecordingSolrClient callNumberSolr = new RecordingSolrClient(false);
+    SolrWriteBuffer buffer = new SolrWriteBuffer(new RecordingSolrClient(false), callNumberSolr, 3, 60_000);
+    BibToUpdate changed = bib("1", Arrays.asList(doc("1.2")));
+    changed.callnumReplaceAll = false;
+    changed.callnumDeletes = Arrays.asList("1.3");
+    BibToUpdate unchanged = bib("2", new ArrayList<>());
+    unchanged.callnumReplaceAll = false;
+    buffer.add(changed);
+    buffer.add(unchanged);
+    buffer.add(bib("3", Arrays.asList(doc("3.1"))));
+
+    assertEquals(3, buffer.flush().size());
+    assertEquals(3, callNumberSolr.requests.size());
+    assertEquals(Arrays.asList("bibid:(3)"), callNumberSolr.requests.get(0).getDeleteQuery());
+    assertEquals(Arrays.asList("1.3"), callNumberSolr.requests.get(1).getDeleteById());
+    assertEquals(2, callNumberSolr.requests.get(2).getDocuments().size());
+
+    // Bibs with no browse changes make no call number requests
+    callNumberSolr.requests.clear();
+    unchanged = bib("2", new ArrayList<>());
+    unchanged.callnumReplaceAll = false;
+    buffer.add(unchanged);
+    assertEquals(1, buffer.flush().size());
+    assertTrue(callNumberSolr.requests.isEmpty());
+  }
+
+  @Test
+  public void flushOnTime() throws InterruptedException {
+    SolrWriteBuffer buffer = new SolrWriteBuffer(
+        new RecordingSolrClient(false), new RecordingSolrClient(false), 100, 10);
+    buffer.add(bib("1", new ArrayList<>()));
+    Thread.sleep(20);
+    assertTrue(buffer.isFlushDue());
+  }
+
+  @Test
+  public void failedFlush() throws IOException, InterruptedException {
+    RecordingSolrClient callNumberSolr = new RecordingSolrClient(true);
+    SolrWriteBuffer buffer = new SolrWriteBuffer(new RecordingSolrClient(false), callNumberSolr, 1, 0);
+    buffer.add(bib("1", new ArrayList<>()));
+    assertNull(buffer.flush());
+    assertEquals(0, buffer.size());
+  }
+
+  private static BibToUpdate bib( String id, List<SolrInputDocument> callnumDocs ) {
+    BibToUpdate bib = new BibToUpdate(id,new HashSet<>());
+    bib.doc = doc(id);
+    bib.callnumDocs = callnumDocs;
+    return bib;
+  }
+
+  private static SolrInputDocument doc( String id ) {
+    SolrInputDocument doc = new SolrInputDocument();
+    doc.addField("id", id);
+    return doc;
+  }
+
+  private static class RecordingSolrClient extends SolrClient {
+    private static final long serialVersionUID = 1L;
+    List<UpdateRequest> requests = new ArrayList<>();
+    private final boolean fail;
+    RecordingSolrClient( boolean fail ) { this.fail = fail; }
+
+    @Override
+    public NamedList<Object> request(SolrRequest<?> request, String collection) throws SolrServerException {
+      if ( this.fail ) throw new SolrServerException("Solr unavailable");
+      this.requests.add((UpdateRequest)request);
+      return new NamedList<>();
+    }
+    @Override public void close() {}
+  }
+}
@@ -1,13 +1,39 @@
 package edu.cornell.library.integration.exports;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.sun.net.httpserver.HttpServer;
 
 import edu.cornell.library.integration.exports.PODExporter;
 
 public class PODTests {
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   @Test
   public void getHostFromUrlTest() {
     assertEquals("some.site.com",PODExporter.getHostFromUrl("http://some.site.com/hiya"));
@@ -15,4 +41,75 @@ public class PODTests {
     assertEquals("some.site.com",PODExporter.getHostFromUrl("http://some.site.com"));
     assertEquals("some.site.com",PODExporter.getHostFromUrl("https://some.site.com"));
   }
+
+  @Test
+  public void concatenateParts() throws IOException {
+    List<Path> parts = new ArrayList<>();
+    for (String records : new String[] {"<record>1</record>\n<record>2</record>\n", "", "<record>3</record>\n"}) {
+      Path part = this.folder.newFile().toPath();
+      try (OutputStream out = Files.newOutputStream(part)) {
+        out.write(PODFullExport.collectionStart);
+        GZIPOutputStream gz = new GZIPOutputStream(out);
+        gz.write(records.getBytes(StandardCharsets.UTF_8));
+        gz.finish();
+        out.write(PODFullExport.collectionEnd);
+      }
+      parts.add(part);
+    }
+    // Each part is a complete collection on its own
+    assertEquals("<?xml version='1.0' encoding='UTF-8'?><collection xmlns=\"http://www.loc.gov/MARC21/slim\">\n"
+        + "<record>3</record>\n</collection>\n", gunzip(parts.get(2)));
+
+    Path full = this.folder.getRoot().toPath().resolve("full.xml.gz");
+    PODFullExport.concatenateParts(parts, full);
+    assertEquals("<?xml version='1.0' encoding='UTF-8'?><collection xmlns=\"http://www.loc.gov/MARC21/slim\">\n"
+        + "<record>1</record>\n<record>2</record>\n<record>3</record>\n</collection>\n", gunzip(full));
+  }
+
+  @Test
+  public void postFile() throws IOException {
+    Path file = this.folder.getRoot().toPath().resolve("cornell-incr-2024-01-01.xml.gz");
+    byte[] content = new byte[300_000];
+    new Random(5).nextBytes(content);
+    Files.write(file, content);
+
+    Map<String,String> request = new HashMap<>();
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/upload", ex -> {
+      request.put("Transfer-Encoding", ex.getRequestHeaders().getFirst("Transfer-Encoding"));
+      request.put("Authorization", ex.getRequestHeaders().getFirst("Authorization"));
+      request.put("Content-Type", ex.getRequestHeaders().getFirst("Content-Type"));
+      try (InputStream in = ex.getRequestBody()) { IOUtils.copy(in, body); }
+      ex.sendResponseHeaders(201, -1);
+      ex.close();
+    });
+    server.start();
+    try {
+      assertEquals(201, PODExporter.postFile(
+          "http://127.0.0.1:"+server.getAddress().getPort()+"/upload", "token", file, "application/gzip"));
+    } finally {
+      server.stop(0);
+    }
+
+    // Sent chunked, as a multipart form holding the whole file
+    assertEquals("chunked", request.get("Transfer-Encoding"));
+    assertEquals("Bearer token", request.get("Authorization"));
+    String boundary = request.get("Content-Type").replaceAll(".*boundary=", "");
+    String head = "--"+boundary+"\r\n"
+        + "Content-Disposition: form-data; name=\"upload[files][]\"; filename=\"cornell-incr-2024-01-01.xml.gz\"\r\n"
+        + "Content-Type: application/gzip\r\n\r\n";
+    byte[] sent = body.toByteArray();
+    assertEquals(head, new String(sent, 0, head.length(), StandardCharsets.UTF_8));
+    assertArrayEquals(content, Arrays.copyOfRange(sent, head.length(), head.length() + content.length));
+    assertEquals("\r\n--"+boundary+"--\r\n",
+        new String(sent, head.length() + content.length, sent.length - head.length() - content.length,
+            StandardCharsets.UTF_8));
+  }
+
+  private static String gunzip( Path file ) throws IOException {
+    try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+      return IOUtils.toString(in, StandardCharsets.UTF_8);
+    }
+  }
 }
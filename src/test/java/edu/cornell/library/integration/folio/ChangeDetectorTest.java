@@ -0,0 +1,260 @@
+package edu.cornell.library.integration.folio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+import javax.naming.AuthenticationException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.cornell.library.integration.db_test.DbBaseTest;
+import edu.cornell.library.integration.folio.ChangeDetector.CachedContent;
+
+public class ChangeDetectorTest extends DbBaseTest {
+
+  static Connection testConnection = null;
+
+  @BeforeClass
+  public static void connect() throws SQLException, IOException {
+    setup();
+    testConnection = getConnection();
+  }
+
+  @AfterClass
+  public static void cleanUp() throws SQLException {
+    if (testConnection != null) testConnection.close();
+  }
+
+  @Test
+  public void contentHash() {
+    assertEquals("da39a3ee5e6b4b0d3255bfef95601890afd80709", ChangeDetector.contentHash(""));
+    assertEquals(40, ChangeDetector.contentHash("{\"hrid\":\"1184953\"}").length());
+    assertFalse(ChangeDetector.contentHash("{\"hrid\":\"1184953\"}")
+        .equals(ChangeDetector.contentHash("{\"hrid\":\"1184954\"}")));
+  }
+
+  @Test
+  public void retryDelayMillis() {
+    for (int i = 0; i < 20; i++) {
+      long first = ChangeDetector.retryDelayMillis(1);
+      assertTrue(first >= 500 && first <= 1000);
+      long second = ChangeDetector.retryDelayMillis(2);
+      assertTrue(second >= 1000 && second <= 2000);
+      long capped = ChangeDetector.retryDelayMillis(12);
+      assertTrue(capped >= 15_000 && capped <= 30_000);
+    }
+  }
+
+  @Test
+  public void cachedContent() throws SQLException {
+    String content = null;
+    try ( PreparedStatement pstmt = testConnection.prepareStatement(
+        "SELECT content FROM holdingFolio WHERE hrid = ?") ) {
+      pstmt.setString(1, "1184953");
+      try ( ResultSet rs = pstmt.executeQuery() ) { while (rs.next()) content = rs.getString(1); }
+    }
+    assertNotNull(content);
+
+    // Holdings cached before content hashes were stored are compared by content
+    Map<String,CachedContent> cached = ChangeDetector.cachedContent(
+        testConnection, "holdingFolio", "hrid", Arrays.asList("1184953","1184954","no-such-hrid"));
+    assertEquals(2, cached.size());
+    assertFalse(cached.containsKey("no-such-hrid"));
+    assertNull(cached.get("1184953").hash);
+    assertTrue(cached.get("1184953").matches(content, ChangeDetector.contentHash(content)));
+    assertFalse(cached.get("1184953").matches(content+" ", ChangeDetector.contentHash(content+" ")));
+
+    // A match on content backfills the hash, after which the content isn't read back
+    try ( PreparedStatement backfill = ChangeDetector.backfillHash(testConnection, "holdingFolio", "hrid") ) {
+      assertFalse(ChangeDetector.unchanged(cached, "1184954", content, ChangeDetector.contentHash(content), backfill));
+      assertTrue(ChangeDetector.unchanged(cached, "1184953", content, ChangeDetector.contentHash(content), backfill));
+      backfill.executeBatch();
+    }
+    assertNull(ChangeDetector.cachedContent(
+        testConnection, "holdingFolio", "hrid", Arrays.asList("1184954")).get("1184954").hash);
+    cached = ChangeDetector.cachedContent(
+        testConnection, "holdingFolio", "hrid", Arrays.asList("1184953"));
+    assertNull(cached.get("1184953").content);
+    assertTrue(cached.get("1184953").matches(content, ChangeDetector.contentHash(content)));
+    assertFalse(cached.get("1184953").matches(content+" ", ChangeDetector.contentHash(content+" ")));
+  }
+
+  @Test
+  public void eachChangedChunk() throws Exception {
+    // 1200 records served 1000 to a page, with each page's query starting after the last record
+    List<String> queries = new ArrayList<>();
+    FolioClient folio = new StaticFolioClient() {
+      @Override
+      public int queryEach(String endPoint, String query, Integer limit, RecordHandler handler)
+          throws IOException {
+        queries.add(query);
+        int first = queries.size() == 1 ? 0 : 1000;
+        int count = Math.min(limit, 1200 - first);
+        for (int i = first; i < first + count; i++) {
+          Map<String,Object> record = new HashMap<>();
+          record.put("id", String.valueOf(i));
+          record.put("metadata", Collections.singletonMap("updatedDate",
+              Instant.ofEpochSecond(1_700_000_000L + i).toString().replace("Z", "+00:00")));
+          handler.record(record);
+        }
+        return count;
+      }
+    };
+    List<Integer> chunks = new ArrayList<>();
+    ChangeDetector.eachChangedChunk(folio, "/item-storage/items",
+        new Timestamp(1_600_000_000_000L), null, 1000, records -> chunks.add(records.size()));
+    assertEquals(Arrays.asList(500, 500, 200), chunks);
+    assertEquals(2, queries.size());
+    assertTrue(queries.get(1).startsWith("metadata.updatedDate>"+Instant.ofEpochSecond(1_700_000_999L)));
+
+    // Database failures while processing a chunk are passed through as they are
+    queries.clear();
+    try {
+      ChangeDetector.eachChangedChunk(folio, "/item-storage/items",
+          new Timestamp(1_600_000_000_000L), null, 1000, records -> { throw new SQLException("failed"); });
+      fail("Expected SQLException");
+    } catch (SQLException e) {
+      assertEquals("failed", e.getMessage());
+    }
+    assertEquals(1, queries.size());
+  }
+
+  @Test
+  public void slowChunkOutlastsReadTimeout() throws Exception {
+    // A page too large to sit in the client's buffers
+    StringBuilder page = new StringBuilder("{\"items\":[");
+    String padding = String.join("", Collections.nCopies(4000, "x"));
+    for (int i = 0; i < 1000; i++)
+      page.append(i == 0 ? "" : ",").append(String.format(
+          "{\"id\":\"%d\",\"note\":\"%s\",\"metadata\":{\"updatedDate\":\"%s\"}}",
+          i, padding, Instant.ofEpochSecond(1_700_000_000L + i).toString().replace("Z", "+00:00")));
+    byte[] body = page.append("],\"totalRecords\":1000}").toString().getBytes(StandardCharsets.UTF_8);
+    HttpServer server = folioServer();
+    server.createContext("/item-storage/items", ex -> respond(ex, 200, body));
+    server.start();
+    try {
+      FolioClient folio = impatientClient(server);
+
+      // Each chunk takes longer than the read timeout to process
+      List<Integer> chunks = new ArrayList<>();
+      ChangeDetector.eachChangedChunk(folio, "/item-storage/items",
+          new Timestamp(1_600_000_000_000L), null, 5000, records -> {
+            Thread.sleep(1500);
+            chunks.add(records.size());
+          });
+      assertEquals(Arrays.asList(500, 500), chunks);
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void slowMarcFetches() throws Exception {
+    // A page of MARC instances too large to sit in the client's buffers, whose SRS records are slow
+    StringBuilder page = new StringBuilder("{\"instances\":[");
+    String padding = String.join("", Collections.nCopies(4000, "x"));
+    for (int i = 1; i <= 520; i++)
+      page.append(i == 1 ? "" : ",").append(String.format(
+          "{\"id\":\"slow-%d\",\"hrid\":\"slow%d\",\"source\":\"MARC\",\"notes\":[\"%s\"],"
+          + "\"metadata\":{\"updatedDate\":\"%s\",\"updatedByUserId\":\"user-1\"}}",
+          i, i, padding, Instant.ofEpochSecond(1_700_000_000L + i).toString().replace("Z", "+00:00")));
+    byte[] body = page.append("],\"totalRecords\":520}").toString().getBytes(StandardCharsets.UTF_8);
+    HttpServer server = folioServer();
+    server.createContext("/instance-storage/instances", ex -> respond(ex, 200, body));
+    server.createContext("/source-storage/records", ex -> {
+      try { Thread.sleep(30); } catch (@SuppressWarnings("unused") InterruptedException e) { /* */ }
+      respond(ex, 200, "{\"parsedRecord\":{},\"metadata\":{\"updatedDate\":\"2024-03-01T10:00:00.000+00:00\"}}"
+          .getBytes(StandardCharsets.UTF_8));
+    });
+    server.start();
+    try {
+      // Waiting on a chunk's fetches outlasts the read timeout
+      Map<String,Set<Change>> changes = ChangeDetector.detectChangedInstances(
+          testConnection, impatientClient(server), new Timestamp(1_600_000_000_000L), null);
+      assertEquals(520, changes.size());
+      try ( PreparedStatement pstmt = testConnection.prepareStatement(
+              "SELECT COUNT(*) FROM bibFolio WHERE instanceHrid LIKE 'slow%' AND moddate IS NOT NULL");
+          ResultSet rs = pstmt.executeQuery() ) {
+        rs.next();
+        assertEquals(520, rs.getInt(1));
+      }
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  // A local Folio that logs in anyone, answering requests concurrently
+  private static HttpServer folioServer() throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext("/authn/login-with-expiry", ex -> {
+      ex.getResponseHeaders().add("Set-Cookie", "folioAccessToken=access; Path=/");
+      ex.getResponseHeaders().add("Set-Cookie", "folioRefreshToken=refresh; Path=/");
+      respond(ex, 201, String.format("{\"accessTokenExpiration\":\"%s\",\"refreshTokenExpiration\":\"%s\"}",
+          Instant.now().plusSeconds(600), Instant.now().plusSeconds(86400)).getBytes(StandardCharsets.UTF_8));
+    });
+    return server;
+  }
+
+  // A client whose requests time out after a second without a response
+  private static FolioClient impatientClient( HttpServer server ) throws IOException, AuthenticationException {
+    Properties prop = new Properties();
+    prop.setProperty("folioUrlSLOW", "http://127.0.0.1:"+server.getAddress().getPort());
+    prop.setProperty("folioTenantSLOW", "tenant");
+    prop.setProperty("folioUserSLOW", "user");
+    prop.setProperty("folioPassSLOW", "pass");
+    prop.setProperty("folioReadTimeoutSeconds", "1");
+    return new FolioClient(prop, "SLOW");
+  }
+
+  private static void respond( HttpExchange ex, int status, byte[] body ) throws IOException {
+    ex.sendResponseHeaders(status, body.length);
+    try ( OutputStream os = ex.getResponseBody() ) { os.write(body); }
+  }
+
+  @Test
+  public void parentage() throws SQLException {
+    Map<String,String[]> holdings = ChangeDetector.holdingParentage(
+        testConnection, Arrays.asList("9f82a250-ebf9-4d65-b7ff-c7c145edab47","no-such-id"));
+    assertEquals(1, holdings.size());
+    assertEquals("833840", holdings.get("9f82a250-ebf9-4d65-b7ff-c7c145edab47")[0]);
+    assertEquals("1016218", holdings.get("9f82a250-ebf9-4d65-b7ff-c7c145edab47")[1]);
+
+    Map<String,String[]> items = ChangeDetector.itemParentage(
+        testConnection, Arrays.asList("352f3f3e-af4a-4642-a585-fdbc96e2ab8a"));
+    assertEquals("833840", items.get("352f3f3e-af4a-4642-a585-fdbc96e2ab8a")[0]);
+    assertEquals("9621977", items.get("352f3f3e-af4a-4642-a585-fdbc96e2ab8a")[1]);
+
+    assertTrue(ChangeDetector.itemParentage(testConnection, new ArrayList<>()).isEmpty());
+  }
+
+}
@@ -61,7 +61,7 @@ public class FolioClientAuthTest {
 
   private static void retrieveStatCodes(FolioClient folio, Random generator) throws IOException, AuthenticationException {
     ReferenceData statCodes = new ReferenceData(folio,"/statistical-codes","code");
-    Object[] values = statCodes.dataByName.entrySet().toArray();
+    Object[] values = statCodes.dataByName().entrySet().toArray();
     System.out.format("codes: %d; random code: %s\n", values.length,
         values[generator.nextInt(values.length)]);
 
@@ -0,0 +1,255 @@
+package edu.cornell.library.integration.folio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.rmi.NoSuchObjectException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.naming.AuthenticationException;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class FolioClientTest {
+
+  static HttpServer server = null;
+  static Set<String> clientPorts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+  static FolioClient folio = null;
+  static Properties prop = new Properties();
+  static volatile int loginMinutes = 10;
+  static AtomicInteger refreshes = new AtomicInteger();
+
+  @BeforeClass
+  public static void startServer() throws IOException, AuthenticationException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/authn/login-with-expiry", ex -> {
+      ex.getResponseHeaders().add("Set-Cookie", "folioAccessToken=access123; Path=/");
+      ex.getResponseHeaders().add("Set-Cookie", "folioRefreshToken=refresh456; Path=/");
+      Instant now = Instant.now();
+      respond(ex, 201, String.format(
+          "{\"accessTokenExpiration\":\"%s\",\"refreshTokenExpiration\":\"%s\"}",
+          now.plus(loginMinutes, ChronoUnit.MINUTES), now.plus(1, ChronoUnit.DAYS)));
+    });
+    server.createContext("/authn/refresh", ex -> {
+      refreshes.incrementAndGet();
+      try { Thread.sleep(200); } catch (@SuppressWarnings("unused") InterruptedException e) { /* */ }
+      ex.getResponseHeaders().add("Set-Cookie", "folioAccessToken=access123; Path=/");
+      ex.getResponseHeaders().add("Set-Cookie", "folioRefreshToken=refresh789; Path=/");
+      Instant now = Instant.now();
+      respond(ex, 201, String.format(
+          "{\"accessTokenExpiration\":\"%s\",\"refreshTokenExpiration\":\"%s\"}",
+          now.plus(10, ChronoUnit.MINUTES), now.plus(1, ChronoUnit.DAYS)));
+    });
+    server.createContext("/locations", ex -> {
+      clientPorts.add(String.valueOf(ex.getRemoteAddress().getPort()));
+      if ( ! "access123".equals(ex.getRequestHeaders().getFirst("X-Okapi-Token")) ) {
+        respond(ex, 401, "no token");
+        return;
+      }
+      String body = "{\"locations\":[{\"id\":\"l1\",\"code\":\"olin\"}],\"totalRecords\":1}";
+      if ( ex.getRequestURI().getPath().equals("/locations/missing") ) {
+        respond(ex, 404, "Not found");
+        return;
+      }
+      if ( String.valueOf(ex.getRequestHeaders().getFirst("Accept-Encoding")).contains("gzip") ) {
+        ByteArrayOutputStream gz = new ByteArrayOutputStream();
+        try ( GZIPOutputStream out = new GZIPOutputStream(gz) ) { out.write(body.getBytes(StandardCharsets.UTF_8)); }
+        ex.getResponseHeaders().add("Content-Encoding", "gzip");
+        ex.sendResponseHeaders(200, gz.size());
+        try ( OutputStream os = ex.getResponseBody() ) { os.write(gz.toByteArray()); }
+        return;
+      }
+      respond(ex, 200, body);
+    });
+    server.createContext("/echo", ex -> {
+      if ( ! "POST".equals(ex.getRequestMethod())
+          || ! "access123".equals(ex.getRequestHeaders().getFirst("X-Okapi-Token")) ) {
+        respond(ex, 400, "bad request");
+        return;
+      }
+      try ( InputStream is = ex.getRequestBody() ) {
+        respond(ex, 201, new String(IOUtils.toByteArray(is), StandardCharsets.UTF_8));
+      }
+    });
+    server.start();
+
+    prop.setProperty("folioUrlTEST", "http://127.0.0.1:"+server.getAddress().getPort());
+    prop.setProperty("folioTenantTEST", "tenant");
+    prop.setProperty("folioUserTEST", "user");
+    prop.setProperty("folioPassTEST", "pass");
+    folio = new FolioClient(prop, "TEST");
+  }
+
+  @AfterClass
+  public static void stopServer() {
+    if (server != null) server.stop(0);
+  }
+
+  @Test
+  public void queryGzipped() throws IOException, AuthenticationException {
+    assertEquals("olin", folio.queryAsList("/locations", "code==olin", 10).get(0).get("code"));
+  }
+
+  @Test
+  public void connectionsReused() throws IOException, AuthenticationException {
+    folio.query("/locations", null, 100);
+    clientPorts.clear();
+    for (int i = 0; i < 5; i++) folio.query("/locations", null, 100);
+    for (int i = 0; i < 5; i++) folio.queryAsList("/locations", null, 100);
+    assertEquals(1, clientPorts.size());
+  }
+
+  @Test
+  public void concurrentRenewal() throws IOException, AuthenticationException, InterruptedException {
+    loginMinutes = 1;
+    FolioClient shortLived = new FolioClient(prop, "TEST");
+    loginMinutes = 10;
+    int before = refreshes.get();
+
+    // Eight threads find the token about to expire at once, but only one refresh is made
+    ExecutorService threads = Executors.newFixedThreadPool(8);
+    List<Future<String>> results = new ArrayList<>();
+    for (int i = 0; i < 8; i++)
+      results.add(threads.submit(() -> shortLived.query("/locations", null, 1)));
+    threads.shutdown();
+    for (Future<String> result : results)
+      try { result.get(); } catch (ExecutionException e) { fail(e.getCause().getMessage()); }
+    assertEquals(before + 1, refreshes.get());
+    assertTrue(shortLived.getRemainingAuthSeconds() > 500);
+  }
+
+  @Test
+  public void endpointFamily() {
+    assertEquals("/holdings-storage", FolioClient.endpointFamily("/holdings-storage/holdings?query=x%2Fy"));
+    assertEquals("/locations", FolioClient.endpointFamily("/locations?limit=500"));
+    assertEquals("/locations", FolioClient.endpointFamily("/locations"));
+  }
+
+  @Test
+  public void rateLimiter() {
+    FolioClient.RateLimiter rate = new FolioClient.RateLimiter(10);
+    long now = System.nanoTime() + 1_000_000_000L;
+    // A full bucket lets a burst of ten through, then callers queue 100ms apart
+    for (int i = 0; i < 10; i++) assertEquals(0, rate.reserve(now));
+    assertEquals(100_000_000L, rate.reserve(now), 1000);
+    assertEquals(200_000_000L, rate.reserve(now), 1000);
+    assertEquals(0, rate.reserve(now + 1_000_000_000L));
+  }
+
+  @Test
+  public void circuitBreaker() {
+    FolioClient.CircuitBreaker breaker = new FolioClient.CircuitBreaker(3, 30_000);
+    breaker.failure(0);
+    breaker.failure(0);
+    breaker.success();
+    breaker.failure(0);
+    breaker.failure(0);
+    assertTrue(breaker.allow(0));
+    breaker.failure(1000);
+    assertFalse(breaker.allow(2000));
+    assertFalse(breaker.allow(30_999));
+
+    // After the open period, one trial request is let through
+    assertTrue(breaker.allow(31_000));
+    assertFalse(breaker.allow(31_000));
+    breaker.failure(32_000);
+    assertFalse(breaker.allow(33_000));
+    assertTrue(breaker.allow(62_000));
+    breaker.success();
+    assertTrue(breaker.allow(62_000));
+    assertTrue(breaker.allow(62_000));
+
+    // A trial request that times out lets another trial through, without closing the circuit
+    for (int i = 0; i < 3; i++) breaker.failure(70_000);
+    assertTrue(breaker.allow(100_000));
+    breaker.abandon();
+    assertTrue(breaker.allow(100_000));
+    assertFalse(breaker.allow(100_000));
+  }
+
+  @Test
+  public void throttleOutcomes() throws IOException {
+    Properties throttleProp = new Properties();
+    throttleProp.setProperty("folioCircuitFailures", "1");
+    FolioClient.Throttle throttle = new FolioClient.Throttle(throttleProp);
+
+    // Timeouts and interrupts aren't server failures
+    throttle.acquire("/locations", "GET /locations");
+    throttle.release("/locations", FolioClient.Outcome.TIMEOUT);
+    throttle.acquire("/locations", "GET /locations");
+    throttle.release("/locations", FolioClient.Outcome.INTERRUPTED);
+    throttle.acquire("/locations", "GET /locations");
+    throttle.release("/locations", FolioClient.Outcome.FAILURE);
+    try {
+      throttle.acquire("/locations", "GET /locations");
+      fail("Expected the circuit to be open");
+    } catch (@SuppressWarnings("unused") IOException e) { /* expected */ }
+  }
+
+  @Test
+  public void post() throws IOException, AuthenticationException {
+    assertEquals("{\"id\":\"p1\"}", folio.post("/echo", "{\"id\":\"p1\"}"));
+  }
+
+  @Test
+  public void eachRecord() throws IOException {
+    List<Object> ids = new ArrayList<>();
+    assertEquals(2, FolioClient.eachRecord(stream(
+        "{\"resultInfo\":{\"facets\":[]},\"items\":[{\"id\":\"a\",\"notes\":[{\"note\":\"x\"}]},"+
+        "{\"id\":\"b\"}],\"totalRecords\":2}"), r -> ids.add(r.get("id"))));
+    assertEquals(Arrays.asList("a","b"), ids);
+
+    ids.clear();
+    assertEquals(1, FolioClient.eachRecord(stream("[{\"id\":\"c\"}]"), r -> ids.add(r.get("id"))));
+    assertEquals(Arrays.asList("c"), ids);
+
+    assertEquals(0, FolioClient.eachRecord(stream("{\"loans\":[],\"totalRecords\":0}"), r -> ids.add(r)));
+  }
+
+  @Test
+  public void missingRecord() throws IOException, AuthenticationException {
+    try {
+      folio.getRecord("/locations", "missing");
+      fail("Expected NoSuchObjectException");
+    } catch (@SuppressWarnings("unused") NoSuchObjectException e) { /* expected */ }
+  }
+
+  private static InputStream stream( String json ) {
+    return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static void respond( HttpExchange ex, int status, String body ) throws IOException {
+    byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+    ex.sendResponseHeaders(status, bytes.length);
+    try ( OutputStream os = ex.getResponseBody() ) { os.write(bytes); }
+  }
+}
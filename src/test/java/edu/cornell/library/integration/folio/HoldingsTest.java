@@ -10,7 +10,9 @@ import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
 
@@ -173,6 +175,21 @@ public class HoldingsTest extends DbBaseTest {
 
 
   }
+
+  @Test
+  public void snapshotOfSeveralInstances() throws SQLException, IOException, AuthenticationException {
+    List<String> hrids = Arrays.asList("10055679","2805041","4442869","15607108");
+    InventorySnapshot snapshot = InventorySnapshot.load(testConnection, hrids);
+    for (String hrid : hrids) {
+      HoldingSet fromSnapshot = Holdings.retrieveHoldingsByInstanceHrid(
+          snapshot, locations, holdingsNoteTypes, callNumberTypes, hrid);
+      HoldingSet byInstance = Holdings.retrieveHoldingsByInstanceHrid(
+          testConnection, locations, holdingsNoteTypes, callNumberTypes, hrid);
+      assertEquals(byInstance.toJson(), fromSnapshot.toJson());
+      assertEquals(Items.retrieveItemsForHoldings(testFolioClient, testConnection, hrid, byInstance).toJson(),
+          Items.retrieveItemsForHoldings(testFolioClient, testConnection, hrid, fromSnapshot).toJson());
+    }
+  }
 //
 //    h = Holdings.retrieveHoldingsByHoldingId(voyagerTest, 1055);
 //    for (int mfhdId : h.getMfhdIds()) {
@@ -0,0 +1,135 @@
+package edu.cornell.library.integration.folio;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.naming.AuthenticationException;
+
+import edu.cornell.library.integration.folio.Locations.Location;
+
+/**
+ * Times Locations.facetValues against the rule list walk it replaced, over a mix of holdings in
+ * the test locations that have facet rules. Both are first checked to give the same facet values
+ * for every holding. Run as a main class; it isn't a unit test.
+ */
+public class LocationFacetBenchmark {
+
+  public static void main(String[] args) throws IOException, AuthenticationException {
+
+    new Locations(new StaticFolioClient());
+    // As before, each location's rules are found in a TreeMap
+    Map<Location,List<LegacyRule>> legacyRules = new TreeMap<>();
+    List<LegacyRule> allRules = loadLegacyRules();
+    // Test locations without facet rules would only time the "Failed to map" message
+    List<Location> locations = new ArrayList<>();
+    for (Location l : Locations.allLocations(Locations.Sort.CODE)) {
+      List<LegacyRule> rules = new ArrayList<>();
+      for (LegacyRule r : allRules) if (r.displayName.equals(l.name)) rules.add(r);
+      legacyRules.put(l, rules);
+      if ( ! rules.isEmpty() ) locations.add(l);
+    }
+
+    List<String> calls = Arrays.asList("QA76.73.J38 B57 2018", "HK1234 .R56", null,
+        "New & Noteworthy Books PS3552 .E5", "ELLIS TX715 .J65", "Curriculum Material LB1050",
+        "Artist N7433.4 .B3", "Labor Law KF3319 .A5", "DS557 .A6 (SEA)", "PN1997 (Jpn) no.12",
+        "Thesis 2005 M123", "Oversize QH541 .E3 +", "Film 4-2093");
+    List<String> notes = Arrays.asList(null, null, null, "New Books Shelf", "Gift of the author",
+        "Library has: v.1-v.20 (1990-2010)");
+
+    Random random = new Random(17);
+    int holdingCount = 200_000;
+    Location[] hLocations = new Location[holdingCount];
+    String[] hCalls = new String[holdingCount];
+    String[] hNotes = new String[holdingCount];
+    for (int i = 0; i < holdingCount; i++) {
+      hLocations[i] = locations.get(random.nextInt(locations.size()));
+      hCalls[i] = calls.get(random.nextInt(calls.size()));
+      hNotes[i] = notes.get(random.nextInt(notes.size()));
+    }
+
+    for (int i = 0; i < holdingCount; i++)
+      if ( ! Locations.facetValues(hLocations[i], hCalls[i], hNotes[i])
+          .equals(legacyFacetValues(legacyRules, hLocations[i], hCalls[i], hNotes[i])))
+        throw new IllegalStateException(String.format("Mismatch for %s / %s / %s",
+            hLocations[i].code, hCalls[i], hNotes[i]));
+    System.out.printf("%d holdings across %d locations give the same facet values\n",
+        holdingCount, locations.size());
+
+    for (int round = 1; round <= 5; round++) {
+      long start = System.nanoTime();
+      int sink = 0;
+      for (int i = 0; i < holdingCount; i++)
+        sink += legacyFacetValues(legacyRules, hLocations[i], hCalls[i], hNotes[i]).size();
+      long legacy = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < holdingCount; i++)
+        sink += Locations.facetValues(hLocations[i], hCalls[i], hNotes[i]).size();
+      long compiled = System.nanoTime() - start;
+
+      System.out.printf("round %d: rule list %.1f ns/holding; compiled %.1f ns/holding; %.1fx (%d)\n",
+          round, (double) legacy / holdingCount, (double) compiled / holdingCount,
+          (double) legacy / compiled, sink);
+    }
+  }
+
+  // The matching as it was done before the rules were compiled
+
+  private static Set<String> legacyFacetValues(
+      Map<Location,List<LegacyRule>> rules, final Location l, String call, String holdingNote ) {
+    String lcCall = (call == null)        ? null : call.toLowerCase();
+    String lcNote = (holdingNote == null) ? null : holdingNote.toLowerCase();
+    for (LegacyRule rule : rules.get(l)) {
+      if (( rule.call == null        || (lcCall != null && lcCall.contains( rule.call )) ) &&
+          ( rule.holdingNote == null || (lcNote != null && lcNote.contains( rule.holdingNote )) ) ) {
+        if ( ! rule.suppress )
+          return rule.facetValues;
+        return new LinkedHashSet<>();
+      }
+    }
+    return new LinkedHashSet<>();
+  }
+
+  private static List<LegacyRule> loadLegacyRules() throws IOException {
+    List<LegacyRule> rules = new ArrayList<>();
+    try (BufferedReader in = new BufferedReader(new InputStreamReader(
+        Thread.currentThread().getContextClassLoader().getResourceAsStream("LocationFacetMapping.txt"),
+        StandardCharsets.UTF_8))) {
+      String line;
+      while ((line = in.readLine()) != null) {
+        String[] parts = line.split("\\t", 5);
+        if (parts.length < 5) continue;
+        rules.add(new LegacyRule(parts));
+      }
+    }
+    return rules;
+  }
+
+  private static class LegacyRule {
+    final String displayName;
+    final boolean suppress;
+    final String call;
+    final String holdingNote;
+    final Set<String> facetValues = new LinkedHashSet<>();
+
+    LegacyRule( String[] parts ) {
+      this.displayName = parts[0].trim().replaceAll("\"", "");
+      this.suppress = parts[1].contains("X");
+      this.call = parts[2].isEmpty() ? null : parts[2].toLowerCase();
+      this.holdingNote = parts[3].isEmpty() ? null : parts[3].toLowerCase();
+      List<String> levels = Arrays.asList(parts[4].replaceAll("\"","").split(" > "));
+      for (int i = 1; i <= levels.size(); i++)
+        this.facetValues.add(String.join(" > ", levels.subList(0, i)));
+    }
+  }
+}
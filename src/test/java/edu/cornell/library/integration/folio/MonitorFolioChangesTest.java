@@ -0,0 +1,43 @@
+package edu.cornell.library.integration.folio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MonitorFolioChangesTest {
+
+  private static final long hour = 60*60*1000;
+
+  @Test
+  public void caughtUp() {
+    Timestamp since = Timestamp.valueOf("2024-03-01 10:00:00");
+    assertTrue(MonitorFolioChanges.catchUpWindows(
+        since, Timestamp.valueOf("2024-03-01 10:00:12"), hour, 4).isEmpty());
+    assertTrue(MonitorFolioChanges.catchUpWindows(
+        since, Timestamp.valueOf("2024-03-01 11:00:00"), hour, 4).isEmpty());
+  }
+
+  @Test
+  public void catchUpWindows() {
+    Timestamp since = Timestamp.valueOf("2024-03-01 10:00:00");
+
+    List<Timestamp[]> windows = MonitorFolioChanges.catchUpWindows(
+        since, Timestamp.valueOf("2024-03-01 12:30:00"), hour, 4);
+    assertEquals(3, windows.size());
+    assertEquals(since, windows.get(0)[0]);
+    assertEquals(Timestamp.valueOf("2024-03-01 11:00:00"), windows.get(0)[1]);
+    assertEquals(Timestamp.valueOf("2024-03-01 11:00:00"), windows.get(1)[0]);
+    assertEquals(Timestamp.valueOf("2024-03-01 12:30:00"), windows.get(2)[1]);
+
+    // Only maxWindows are fetched at once; the rest is left for the next poll
+    windows = MonitorFolioChanges.catchUpWindows(
+        since, Timestamp.valueOf("2024-03-02 10:00:00"), hour, 4);
+    assertEquals(4, windows.size());
+    assertEquals(Timestamp.valueOf("2024-03-01 14:00:00"), windows.get(3)[1]);
+  }
+
+}
@@ -0,0 +1,72 @@
+package edu.cornell.library.integration.folio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.naming.AuthenticationException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReferenceDataRegistryTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void startFromFolio() throws IOException, AuthenticationException {
+    Properties prop = new Properties();
+    prop.setProperty("referenceDataRefreshMinutes", "0");
+    ReferenceDataRegistry registry = ReferenceDataRegistry.start(new StaticFolioClient(), prop);
+
+    assertEquals("Olin Library", registry.locations().getByCode("olin").library);
+    assertEquals("no-pod", registry.statisticalCodes().getName("b1ff2d23-ba9e-4a7e-b4dd-2b3e6a3d5c0e"));
+    assertNotNull(registry.callNumberTypes().getUuid("UDC"));
+    assertNotNull(LoanTypes.getByName("1 Day Loan"));
+  }
+
+  @Test
+  public void startFromSnapshot() throws IOException, AuthenticationException {
+    File snapshot = new File(this.folder.getRoot(), "referenceData.json");
+    Properties prop = new Properties();
+    prop.setProperty("referenceDataRefreshMinutes", "0");
+    prop.setProperty("referenceDataSnapshot", snapshot.getPath());
+    ReferenceDataRegistry.start(new StaticFolioClient(), prop);
+    assertTrue(snapshot.exists());
+
+    // With a snapshot on disk, startup doesn't need Folio at all
+    ReferenceDataRegistry registry = ReferenceDataRegistry.start(new UnavailableFolioClient(), prop);
+    assertEquals("Olin Library", registry.locations().getByCode("olin").library);
+    assertNotNull(registry.holdingsNoteTypes().getUuid("Action note"));
+    assertTrue(new String(Files.readAllBytes(snapshot.toPath())).contains("\"/statistical-codes\""));
+  }
+
+  @Test
+  public void replaceReferenceData() throws IOException, AuthenticationException {
+    ReferenceData statCodes = new ReferenceData(new StaticFolioClient(), "/statistical-codes", "code");
+    assertEquals("no-pod", statCodes.getName("b1ff2d23-ba9e-4a7e-b4dd-2b3e6a3d5c0e"));
+    Map<String,Object> code = new HashMap<>();
+    code.put("id", "0a1b2c3d-0000-0000-0000-000000000000");
+    code.put("code", "new-code");
+    statCodes.replace(Arrays.asList(code));
+    assertEquals(null, statCodes.getName("b1ff2d23-ba9e-4a7e-b4dd-2b3e6a3d5c0e"));
+    assertEquals("0a1b2c3d-0000-0000-0000-000000000000", statCodes.getUuid("NEW-CODE"));
+  }
+
+  private static class UnavailableFolioClient extends StaticFolioClient {
+    @Override
+    public String query(final String endPoint, final String query, final Integer limit) throws IOException {
+      throw new IOException("Folio unavailable");
+    }
+  }
+}
@@ -1,15 +1,16 @@
 package edu.cornell.library.integration.folio;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
-import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
 
 import edu.cornell.library.integration.db_test.TestUtil;
 
 public class StaticFolioClient extends FolioClient {
   @Override
-  public HttpURLConnection post(final String endPoint, final String json) throws IOException {
-    return null;
+  public String post(final String endPoint, final String json) throws IOException {
+    return "";
   }
 
   @Override
@@ -44,6 +45,13 @@ public class StaticFolioClient extends FolioClient {
     }
   }
 
+  @Override
+  public int queryEach(final String endPoint, final String query, final Integer limit, final RecordHandler handler)
+      throws IOException {
+    return eachRecord(new ByteArrayInputStream(
+        query(endPoint, query, limit).getBytes(StandardCharsets.UTF_8)), handler);
+  }
+
   @Override
   public String query(final String endPointQuery) throws IOException {
     String data = "static_folio_data" + endPointQuery.replace("/", File.separator) + ".json";
@@ -0,0 +1,159 @@
+package edu.cornell.library.integration.marc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+import edu.cornell.library.integration.marc.MarcRecord.RecordType;
+
+/**
+ * Times the binary MARC21 MarcRecord constructor against the parser it replaced. The corpus is
+ * read from a file of binary MARC records named as the first argument, such as a CC0Export run
+ * with exportFormat=marc, or else generated. Both parsers are first checked to give the same
+ * records. Run as a main class; it isn't a unit test.
+ */
+public class MarcParserBenchmark {
+
+  public static void main(String[] args) throws IOException {
+
+    List<byte[]> corpus = ( args.length > 0 ) ? readCorpus(args[0]) : generateCorpus(50_000);
+    long bytes = 0;
+    for (byte[] raw : corpus) {
+      bytes += raw.length;
+      if ( ! new MarcRecord(RecordType.BIBLIOGRAPHIC, raw).toString()
+          .equals(legacyParse(RecordType.BIBLIOGRAPHIC, raw).toString()))
+        throw new IllegalStateException("Mismatch for record "+new String(raw, StandardCharsets.UTF_8));
+    }
+    System.out.printf("%d records (%d bytes) parse the same\n", corpus.size(), bytes);
+
+    for (int round = 1; round <= 5; round++) {
+      long start = System.nanoTime();
+      int sink = 0;
+      for (byte[] raw : corpus)
+        sink += legacyParse(RecordType.BIBLIOGRAPHIC, raw).dataFields.size();
+      long legacy = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (byte[] raw : corpus)
+        sink += new MarcRecord(RecordType.BIBLIOGRAPHIC, raw).dataFields.size();
+      long lean = System.nanoTime() - start;
+
+      System.out.printf("round %d: legacy %.1f us/record; lean %.1f us/record; %.1fx (%d)\n",
+          round, legacy / 1000d / corpus.size(), lean / 1000d / corpus.size(),
+          (double) legacy / lean, sink);
+    }
+  }
+
+  private static List<byte[]> readCorpus( String file ) throws IOException {
+    byte[] all = Files.readAllBytes(Paths.get(file));
+    List<byte[]> records = new ArrayList<>();
+    int start = 0;
+    for (int i = 0; i < all.length; i++)
+      if (all[i] == 0x1D) {
+        records.add(Arrays.copyOfRange(all, start, i + 1));
+        start = i + 1;
+      }
+    return records;
+  }
+
+  private static List<byte[]> generateCorpus( int count ) throws IOException {
+    List<String> values = Arrays.asList("Crime and punishment /", "Dostoyevsky, Fyodor,",
+        "1821-1881,", "author.", "New York :", "Penguin Books,", "2003.", "xxxvi, 656 pages ;",
+        "20 cm", "Translated from the Russian.", "Prestuplenie i nakazanie.", "Преступление и наказание",
+        "Достоевский, Фёдор Михайлович", "罪と罰", "Sáenz-Badillos, Ángel", "Murderers",
+        "Fiction.", "Saint Petersburg (Russia)", "Includes bibliographical references\r\n(p. 640-656).");
+    List<String> tags = Arrays.asList("020","035","040","100","240","245","250","264","300","336",
+        "500","504","546","600","650","651","700","880","948");
+    Random random = new Random(25);
+    List<byte[]> corpus = new ArrayList<>();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int r = 0; r < count; r++) {
+      MarcRecord rec = new MarcRecord(RecordType.BIBLIOGRAPHIC);
+      rec.leader = "01234cam a2200289 i 4500";
+      rec.controlFields.add(new ControlField(1, "001", String.valueOf(r)));
+      rec.controlFields.add(new ControlField(2, "008", "170512s2017    nyu           000 0 eng d"));
+      int fieldCount = 10 + random.nextInt(30);
+      for (int f = 0; f < fieldCount; f++) {
+        TreeSet<Subfield> subfields = new TreeSet<>();
+        int subfieldCount = 1 + random.nextInt(4);
+        for (int s = 0; s < subfieldCount; s++)
+          subfields.add(new Subfield(s+1, (char)('a'+random.nextInt(8)), values.get(random.nextInt(values.size()))));
+        rec.dataFields.add(new DataField(f+3, tags.get(random.nextInt(tags.size())), '1', ' ', subfields));
+      }
+      out.reset();
+      rec.writeMarc21(out);
+      corpus.add(out.toByteArray());
+    }
+    return corpus;
+  }
+
+  // The parser as it was before being reworked to read the record in place
+
+  private static MarcRecord legacyParse( RecordType type, byte[] rawMarc ) {
+    MarcRecord rec = new MarcRecord(type);
+    rec.leader = new String(Arrays.copyOfRange(rawMarc, 0, 24), StandardCharsets.UTF_8);
+    int dataBaseAddress = Integer.valueOf(new String(Arrays.copyOfRange(rawMarc, 12, 17)));
+    byte[] directory = Arrays.copyOfRange(rawMarc, 24, dataBaseAddress);
+    byte[] data = Arrays.copyOfRange(rawMarc, dataBaseAddress, rawMarc.length + 1);
+    int directoryPos = 0;
+    int fieldId = 1;
+    while (directoryPos < directory.length - 1) {
+      String tag = new String(Arrays.copyOfRange(directory, directoryPos, directoryPos + 3));
+      int fieldLength = Integer.valueOf(new String(Arrays.copyOfRange(directory, directoryPos + 3, directoryPos + 7)));
+      int fieldStartPos = Integer
+          .valueOf(new String(Arrays.copyOfRange(directory, directoryPos + 7, directoryPos + 12)));
+      byte[] fieldValue = Arrays.copyOfRange(data, fieldStartPos, fieldStartPos + fieldLength);
+      directoryPos += 12;
+      if (tag.startsWith("00"))
+        rec.controlFields.add(new ControlField(100 * fieldId++, tag,
+            new String(Arrays.copyOfRange(fieldValue, 0, fieldValue.length - 1), StandardCharsets.UTF_8)));
+      else {
+        char ind1 = (char) fieldValue[0];
+        char ind2 = (char) fieldValue[1];
+        TreeSet<Subfield> subfields = new TreeSet<>();
+        List<Integer> subfieldSeparatorPositions = new ArrayList<>();
+        if (fieldValue[2] != (byte) 0x1F)
+          subfieldSeparatorPositions.add(1);
+        for (int i = 2; i < fieldValue.length; i++)
+          if (fieldValue[i] == (byte) 0x1E || fieldValue[i] == (byte) 0x1F)
+            subfieldSeparatorPositions.add(i);
+        for (int i = 0; i < subfieldSeparatorPositions.size() - 1; i++) {
+          int startpos = subfieldSeparatorPositions.get(i) + 1;
+          int endpos = subfieldSeparatorPositions.get(i + 1);
+          if (startpos >= endpos)
+            continue;
+          subfields.add(new Subfield(startpos, (char) fieldValue[startpos],
+              Normalizer
+                  .normalize(new String(Arrays.copyOfRange(fieldValue, startpos + 1, endpos), StandardCharsets.UTF_8)
+                      .replaceAll("[\n\r]", " "), Normalizer.Form.NFC)));
+        }
+        rec.dataFields.add(new DataField(100 * fieldId++, tag, ind1, ind2, subfields));
+      }
+    }
+    F: for (DataField f : rec.dataFields)
+      for (Subfield sf : f.subfields)
+        if (sf.code.equals('6'))
+          if (subfield6Pattern.matcher(sf.value).matches()) {
+            if (f.tag.equals("880"))
+              f.mainTag = sf.value.substring(0, 3);
+            f.linkNumber = Integer.valueOf(sf.value.substring(4, 6));
+            continue F;
+          }
+    for (ControlField f : rec.controlFields)
+      if (f.tag.equals("001")) {
+        rec.id = f.value;
+        break;
+      }
+    return rec;
+  }
+  private static Pattern subfield6Pattern = Pattern.compile("[0-9]{3}-[0-9]{2}.*");
+}
@@ -0,0 +1,136 @@
+package edu.cornell.library.integration.marc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import edu.cornell.library.integration.marc.MarcRecord.RecordType;
+
+public class MarcRecordTest {
+
+  @Test
+  public void writeXml() throws IOException {
+    MarcRecord rec = new MarcRecord(RecordType.BIBLIOGRAPHIC);
+    rec.leader = "01234cam a2200289 i 4500";
+    rec.controlFields.add(new ControlField(1, "001", "1234"));
+    rec.controlFields.add(new ControlField(2, "008", "<&>\"' \u0001\t"));
+    rec.dataFields.add(new DataField(3, "245", '1', '0', "‡a Crime & punishment <a novel> / ‡c \"Dostoyevsky\""));
+    rec.dataFields.add(new DataField(4, "880", ' ', '"', "‡a 罪と罰 𝔄 \uD800 \uFFFE end‡6 245-01"));
+    rec.dataFields.add(new DataField(5, "500", ' ', ' ', "‡a line\r\nbreak ‡b"));
+
+    assertEquals(
+        "<record><leader>01234cam a2200289 i 4500</leader>"
+        + "<controlfield tag=\"001\">1234</controlfield>"
+        + "<controlfield tag=\"008\">&lt;&amp;&gt;\"'  \t</controlfield>"
+        + "<datafield tag=\"245\" ind1=\"1\" ind2=\"0\">"
+        + "<subfield code=\"a\">Crime &amp; punishment &lt;a novel&gt; /</subfield>"
+        + "<subfield code=\"c\">\"Dostoyevsky\"</subfield></datafield>"
+        + "<datafield tag=\"880\" ind1=\" \" ind2=\"&quot;\">"
+        + "<subfield code=\"a\">罪と罰 𝔄     end</subfield>"
+        + "<subfield code=\"6\">245-01</subfield></datafield>"
+        + "<datafield tag=\"500\" ind1=\" \" ind2=\" \">"
+        + "<subfield code=\"a\">line\r\nbreak</subfield><subfield code=\"b\"></subfield></datafield>"
+        + "</record>",
+        xml(rec));
+  }
+
+  @Test
+  public void writeXmlParsesAsToXML() throws IOException, XMLStreamException {
+    MarcRecord rec = new MarcRecord(RecordType.BIBLIOGRAPHIC);
+    rec.leader = "01234cam a2200289 i 4500";
+    rec.controlFields.add(new ControlField(1, "001", "1234"));
+    rec.dataFields.add(new DataField(2, "245", '1', '0', "‡a Crime & punishment <a novel> / ‡c \"F.D.\""));
+    rec.dataFields.add(new DataField(3, "880", ' ', ' ', "‡a 罪と罰 𝔄 \u0002 end"));
+
+    // Both forms read back to the same record
+    String wrapped = "<collection xmlns=\"http://www.loc.gov/MARC21/slim\">"+xml(rec)+"</collection>";
+    assertEquals(new MarcRecord(RecordType.BIBLIOGRAPHIC, rec.toXML(), false).toString(),
+        new MarcRecord(RecordType.BIBLIOGRAPHIC, wrapped, false).toString());
+  }
+
+  @Test
+  public void writeMarc21() throws IOException, InterruptedException, ExecutionException {
+    MarcRecord rec = new MarcRecord(RecordType.BIBLIOGRAPHIC);
+    rec.leader = "01234cam  2200289 i 4500";
+    rec.controlFields.add(new ControlField(1, "001", "1234"));
+    rec.controlFields.add(new ControlField(2, "008", "170512s2017    nyu           000 0 eng d"));
+    rec.dataFields.add(new DataField(3, "245", '1', '0', "‡a Crime & punishment / ‡c Dostoyevsky."));
+    rec.dataFields.add(new DataField(4, "880", ' ', ' ', "‡6 245-01 ‡a 罪と罰 𝔄 \u001E end"));
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertTrue(rec.writeMarc21(out));
+    byte[] marc = out.toByteArray();
+    assertEquals(
+        "00192cam a2200073 i 4500"
+        + "001000500000008004100005245003900046880003300085\u001E"
+        + "1234\u001E170512s2017    nyu           000 0 eng d\u001E"
+        + "10\u001FaCrime & punishment /\u001FcDostoyevsky.\u001E"
+        + "  \u001F6245-01\u001Fa罪と罰 𝔄   end\u001E\u001D",
+        new String(marc, StandardCharsets.UTF_8));
+    assertEquals(192, marc.length);
+
+    // Reads back as the same record, but for the delimiter character
+    MarcRecord read = new MarcRecord(RecordType.BIBLIOGRAPHIC, marc);
+    rec.leader = read.leader;
+    rec.id = "1234";
+    assertEquals(rec.toString().replace('\u001E', ' '), read.toString());
+
+    // A field can't be longer than 9999 bytes
+    rec.dataFields.add(new DataField(5, "500", ' ', ' ', "‡a "+String.join("", Collections.nCopies(10000, "x"))));
+    out.reset();
+    assertFalse(rec.writeMarc21(out));
+    assertEquals(0, out.size());
+
+    // Even when a control field's UTF-8 fills a new thread's buffer, leaving no room for the terminator
+    MarcRecord cjk = new MarcRecord(RecordType.BIBLIOGRAPHIC);
+    cjk.leader = "01234cam  2200289 i 4500";
+    cjk.controlFields.add(new ControlField(1, "009", String.join("", Collections.nCopies(5449, "罪"))));
+    FutureTask<Boolean> freshBuffer = new FutureTask<>(() -> cjk.writeMarc21(out));
+    new Thread(freshBuffer).start();
+    assertFalse(freshBuffer.get());
+    assertEquals(0, out.size());
+  }
+
+  @Test
+  public void parseMarc21() throws IOException {
+    MarcRecord rec = new MarcRecord(RecordType.BIBLIOGRAPHIC);
+    rec.leader = "01234cam a2200289 i 4500";
+    rec.controlFields.add(new ControlField(1, "001", "1234"));
+    rec.dataFields.add(new DataField(2, "100", '1', ' ', "‡a Sa\u0301enz-Badillos, A\u0301ngel."));
+    rec.dataFields.add(new DataField(3, "500", ' ', ' ', "‡a Includes index.\r\nBibliography: p. 640."));
+    rec.dataFields.add(new DataField(4, "880", '1', ' ', "‡6 100-01 ‡a Достоевский"));
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    rec.writeMarc21(out);
+    byte[] marc = out.toByteArray();
+    // Lose the delimiter before the 880's first subfield code
+    marc[new String(marc, StandardCharsets.ISO_8859_1).indexOf("1 \u001F6100-01") + 2] = 'x';
+
+    MarcRecord read = new MarcRecord(RecordType.BIBLIOGRAPHIC, marc);
+    assertEquals("1234", read.id);
+    assertEquals("100 1  ‡a Sáenz-Badillos, Ángel.", read.dataFields.first().toString());
+    List<DataField> fields = new ArrayList<>(read.dataFields);
+    assertEquals("500    ‡a Includes index.  Bibliography: p. 640.", fields.get(1).toString());
+    assertEquals("880 1  ‡x 6100-01 ‡a Достоевский", fields.get(2).toString());
+    assertEquals("880", fields.get(2).mainTag);
+  }
+
+  private static String xml( MarcRecord rec ) throws IOException {
+    StringWriter out = new StringWriter();
+    rec.writeXml(out);
+    return out.toString();
+  }
+}
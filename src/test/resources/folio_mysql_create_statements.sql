@@ -1,12 +1,15 @@
-CREATE TABLE `holdingFolio` (   `id` varchar(37) NOT NULL,   `hrid` varchar(12) NOT NULL,   `instanceId` varchar(37) NOT NULL,   `instanceHrid` varchar(12) NOT NULL,   `active` int(1) unsigned NOT NULL,   `moddate` timestamp NULL DEFAULT NULL,   `content` longtext,   `podCurrent` tinyint(1) DEFAULT '0',   UNIQUE KEY `id` (`id`),   UNIQUE KEY `hrid` (`hrid`),   KEY `instanceHrid` (`instanceHrid`),   KEY `podCurrent` (`podCurrent`),   KEY `instanceId` (`instanceId`) ) ENGINE=MyISAM DEFAULT CHARSET=utf8
-CREATE TABLE `itemFolio` (  `id` varchar(37) NOT NULL,  `hrid` varchar(12) NOT NULL,  `holdingId` varchar(37) NOT NULL,  `holdingHrid` varchar(12) NOT NULL,  `sequence` smallint(5) unsigned DEFAULT NULL,  `barcode` varchar(15) DEFAULT NULL,  `moddate` timestamp NULL DEFAULT NULL,  `content` longtext,  UNIQUE KEY `hrid` (`hrid`),  UNIQUE KEY `id` (`id`),  KEY `holdingHrid` (`holdingHrid`),  KEY `barcode` (`barcode`),  KEY `holdingId` (`holdingId`)) ENGINE=MyISAM DEFAULT CHARSET=utf8
+CREATE TABLE `holdingFolio` (   `id` varchar(37) NOT NULL,   `hrid` varchar(12) NOT NULL,   `instanceId` varchar(37) NOT NULL,   `instanceHrid` varchar(12) NOT NULL,   `active` int(1) unsigned NOT NULL,   `moddate` timestamp NULL DEFAULT NULL,   `content` longtext,  `contentHash` char(40) DEFAULT NULL,   `podCurrent` tinyint(1) DEFAULT '0',   UNIQUE KEY `id` (`id`),   UNIQUE KEY `hrid` (`hrid`),   KEY `instanceHrid` (`instanceHrid`),   KEY `podCurrent` (`podCurrent`),   KEY `instanceId` (`instanceId`) ) ENGINE=MyISAM DEFAULT CHARSET=utf8
+CREATE TABLE `itemFolio` (  `id` varchar(37) NOT NULL,  `hrid` varchar(12) NOT NULL,  `holdingId` varchar(37) NOT NULL,  `holdingHrid` varchar(12) NOT NULL,  `sequence` smallint(5) unsigned DEFAULT NULL,  `barcode` varchar(15) DEFAULT NULL,  `moddate` timestamp NULL DEFAULT NULL,  `content` longtext,  `contentHash` char(40) DEFAULT NULL,  UNIQUE KEY `hrid` (`hrid`),  UNIQUE KEY `id` (`id`),  KEY `holdingHrid` (`holdingHrid`),  KEY `barcode` (`barcode`),  KEY `holdingId` (`holdingId`)) ENGINE=MyISAM DEFAULT CHARSET=utf8
 CREATE TABLE `itemSequence` (  `hrid` varchar(12) NOT NULL,  `sequence` smallint(5) unsigned DEFAULT NULL,  PRIMARY KEY (`hrid`)) ENGINE=MyISAM DEFAULT CHARSET=utf8
 CREATE TABLE `itemDueDates` (  `bib_id` int(10) unsigned NOT NULL,  `change_date` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,  `json` text,  PRIMARY KEY (`bib_id`)) ENGINE=MyISAM DEFAULT CHARSET=utf8
 CREATE TABLE `itemRequests` (  `bib_id` int(10) unsigned NOT NULL,  `change_date` timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP ON UPDATE CURRENT_TIMESTAMP,  `json` text,  PRIMARY KEY (`bib_id`)) ENGINE=MyISAM DEFAULT CHARSET=utf8
-CREATE TABLE `loanFolio` (  `id` varchar(37) NOT NULL,  `holdingId` varchar(37) NOT NULL,  `itemHrid` varchar(12) NOT NULL,  `moddate` timestamp NULL DEFAULT NULL,  `content` longtext DEFAULT NULL,  UNIQUE KEY `id` (`id`),  KEY `itemHrid` (`itemHrid`),  KEY `holdingId` (`holdingId`)) ENGINE=MyISAM DEFAULT CHARSET=utf8 COLLATE=utf8_general_ci
-CREATE TABLE `requestFolio` (  `id` varchar(37) NOT NULL,  `itemId` varchar(37) NOT NULL,  `itemHrid` varchar(12) NOT NULL,  `moddate` timestamp NULL DEFAULT NULL,  `content` longtext DEFAULT NULL,  PRIMARY KEY (`id`),  KEY `itemId` (`itemId`),  KEY `itemHrid` (`itemHrid`)) ENGINE=MyISAM DEFAULT CHARSET=utf8 COLLATE=utf8_general_ci
+CREATE TABLE `loanFolio` (  `id` varchar(37) NOT NULL,  `holdingId` varchar(37) NOT NULL,  `itemHrid` varchar(12) NOT NULL,  `moddate` timestamp NULL DEFAULT NULL,  `content` longtext DEFAULT NULL,  `contentHash` char(40) DEFAULT NULL,  UNIQUE KEY `id` (`id`),  KEY `itemHrid` (`itemHrid`),  KEY `holdingId` (`holdingId`)) ENGINE=MyISAM DEFAULT CHARSET=utf8 COLLATE=utf8_general_ci
+CREATE TABLE `requestFolio` (  `id` varchar(37) NOT NULL,  `itemId` varchar(37) NOT NULL,  `itemHrid` varchar(12) NOT NULL,  `moddate` timestamp NULL DEFAULT NULL,  `content` longtext DEFAULT NULL,  `contentHash` char(40) DEFAULT NULL,  PRIMARY KEY (`id`),  KEY `itemId` (`itemId`),  KEY `itemHrid` (`itemHrid`)) ENGINE=MyISAM DEFAULT CHARSET=utf8 COLLATE=utf8_general_ci
 CREATE TABLE `classification` (  `low_letters` char(3) NOT NULL,  `high_letters` char(3) NOT NULL,  `low_numbers` float(16) NOT NULL,  `high_numbers` float(16) NOT NULL,  `label` varchar(256) CHARACTER SET utf8 COLLATE utf8_general_ci NOT NULL,  KEY `low_letters` (`low_letters`,`high_letters`,`low_numbers`,`high_numbers`)) ENGINE=MyISAM DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_general_ci
+CREATE TABLE `callNumberBrowseHash` (  `id` varchar(20) NOT NULL,  `hrid` varchar(12) NOT NULL,  `contentHash` char(40) NOT NULL,  PRIMARY KEY (`id`),  KEY `hrid` (`hrid`)) ENGINE=MyISAM DEFAULT CHARSET=utf8 COLLATE=utf8_general_ci
 CREATE TABLE `bib2work` (  `hrid` varchar(12) NOT NULL,  `oclc_id` int(10) unsigned NOT NULL,  `work_id` int(10) unsigned NOT NULL,  `active` int(1) DEFAULT 1,  `mod_date` timestamp NOT NULL DEFAULT current_timestamp() ON UPDATE current_timestamp(),  PRIMARY KEY (`hrid`,`oclc_id`,`work_id`),  KEY `work_id` (`work_id`)) ENGINE=MyISAM DEFAULT CHARSET=utf8 COLLATE=utf8_general_ci
 CREATE TABLE `processedMarcData` (  `hrid` varchar(15) NOT NULL,  `visit_date` timestamp NOT NULL DEFAULT current_timestamp() ON UPDATE current_timestamp(),  `record_dates` text DEFAULT NULL,  `authortitle_marc_segment` text DEFAULT NULL,  `authortitle_solr_fields` longtext DEFAULT NULL,  `authortitle_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `title130_marc_segment` text DEFAULT NULL,  `title130_solr_fields` longtext DEFAULT NULL,  `title130_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `subject_marc_segment` text DEFAULT NULL,  `subject_solr_fields` longtext DEFAULT NULL,  `subject_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `pubinfo_marc_segment` text DEFAULT NULL,  `pubinfo_solr_fields` longtext DEFAULT NULL,  `pubinfo_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `format_marc_segment` longtext DEFAULT NULL,  `format_solr_fields` longtext DEFAULT NULL,  `format_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `factfiction_marc_segment` text DEFAULT NULL,  `factfiction_solr_fields` longtext DEFAULT NULL,  `factfiction_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `language_marc_segment` text DEFAULT NULL,  `language_solr_fields` longtext DEFAULT NULL,  `language_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `isbn_marc_segment` text DEFAULT NULL,  `isbn_solr_fields` longtext DEFAULT NULL,  `isbn_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `series_marc_segment` text DEFAULT NULL,  `series_solr_fields` longtext DEFAULT NULL,  `series_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `titlechange_marc_segment` text DEFAULT NULL,  `titlechange_solr_fields` longtext DEFAULT NULL,  `titlechange_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `toc_marc_segment` longtext DEFAULT NULL,  `toc_solr_fields` longtext DEFAULT NULL,  `toc_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `instruments_marc_segment` text DEFAULT NULL,  `instruments_solr_fields` longtext DEFAULT NULL,  `instruments_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `marc_marc_segment` longtext DEFAULT NULL,  `marc_solr_fields` longtext DEFAULT NULL,  `marc_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `simpleproc_marc_segment` longtext DEFAULT NULL,  `simpleproc_solr_fields` longtext DEFAULT NULL,  `simpleproc_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `findingaids_marc_segment` text DEFAULT NULL,  `findingaids_solr_fields` longtext DEFAULT NULL,  `findingaids_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `citationref_marc_segment` text DEFAULT NULL,  `citationref_solr_fields` longtext DEFAULT NULL,  `citationref_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `url_marc_segment` longtext DEFAULT NULL,  `url_solr_fields` longtext DEFAULT NULL,  `url_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `hathilinks_marc_segment` longtext DEFAULT NULL,  `hathilinks_solr_fields` longtext DEFAULT NULL,  `hathilinks_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `newbooks_marc_segment` longtext DEFAULT NULL,  `newbooks_solr_fields` longtext DEFAULT NULL,  `newbooks_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `recordtype_marc_segment` longtext DEFAULT NULL,  `recordtype_solr_fields` longtext DEFAULT NULL,  `recordtype_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `recordboost_marc_segment` text DEFAULT NULL,  `recordboost_solr_fields` longtext DEFAULT NULL,  `recordboost_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `callnumber_marc_segment` longtext DEFAULT NULL,  `callnumber_solr_fields` longtext DEFAULT NULL,  `callnumber_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `otherids_marc_segment` text DEFAULT NULL,  `otherids_solr_fields` longtext DEFAULT NULL,  `otherids_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  PRIMARY KEY (`hrid`),  KEY `visit_date` (`visit_date`)) ENGINE=MyISAM DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_general_ci
 CREATE TABLE `bibRecsSolr` (  `bib_id` int(10) unsigned NOT NULL,  `index_date` timestamp  NULL DEFAULT NULL,  `linking_mod_date` timestamp  NULL DEFAULT NULL,  `record_date` timestamp NULL DEFAULT NULL,  `active` int(1) DEFAULT 1,  `title` text DEFAULT NULL,  `oclc` text DEFAULT NULL,  `format` varchar(256) DEFAULT NULL,  `pub_date` text DEFAULT NULL,  `language` text DEFAULT NULL,  `edition` text DEFAULT NULL,  `online` tinyint(1) DEFAULT NULL,  `print` tinyint(1) DEFAULT NULL,  PRIMARY KEY (`bib_id`),  KEY `index_date` (`index_date`),  KEY `oclc` (`oclc`(50))) ENGINE=MyISAM DEFAULT CHARSET=utf8 COLLATE=utf8_general_ci
- 
\ No newline at end of file
+ CREATE TABLE `instanceFolio` (  `id` varchar(37) NOT NULL,  `hrid` varchar(12) NOT NULL,  `active` int(1) unsigned NOT NULL,  `source` varchar(20) DEFAULT NULL,  `moddate` timestamp NULL DEFAULT NULL,  `content` longtext,  `contentHash` char(40) DEFAULT NULL,  UNIQUE KEY `id` (`id`),  UNIQUE KEY `hrid` (`hrid`)) ENGINE=MyISAM DEFAULT CHARSET=utf8
+CREATE TABLE `bibFolio` (  `instanceHrid` varchar(12) NOT NULL,  `moddate` timestamp NULL DEFAULT NULL,  `content` longtext,  `contentHash` char(40) DEFAULT NULL,  PRIMARY KEY (`instanceHrid`)) ENGINE=MyISAM DEFAULT CHARSET=utf8
+CREATE TABLE `userChanges` (  `id` varchar(37) NOT NULL,  KEY `id` (`id`)) ENGINE=MyISAM DEFAULT CHARSET=utf8
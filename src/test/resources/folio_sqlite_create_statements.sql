@@ -1,9 +1,9 @@
-CREATE TABLE `holdingFolio` ( `id` varchar(37) NOT NULL,  `hrid` varchar(12) NOT NULL,  `instanceId` varchar(37) NOT NULL,  `instanceHrid` varchar(12) NOT NULL,  `active` integer  NOT NULL,  `moddate` timestamp NULL DEFAULT NULL,  `content` longtext,  `podCurrent` integer DEFAULT '0',  UNIQUE (`id`),  UNIQUE (`hrid`) )
+CREATE TABLE `holdingFolio` ( `id` varchar(37) NOT NULL,  `hrid` varchar(12) NOT NULL,  `instanceId` varchar(37) NOT NULL,  `instanceHrid` varchar(12) NOT NULL,  `active` integer  NOT NULL,  `moddate` timestamp NULL DEFAULT NULL,  `content` longtext,  `contentHash` char(40) DEFAULT NULL,  `podCurrent` integer DEFAULT '0',  UNIQUE (`id`),  UNIQUE (`hrid`) )
 CREATE INDEX "idx_holdingFolio_instanceHrid" ON "holdingFolio" (`instanceHrid`)
 CREATE INDEX "idx_holdingFolio_podCurrent" ON "holdingFolio" (`podCurrent`)
 CREATE INDEX "idx_holdingFolio_instanceId" ON "holdingFolio" (`instanceId`)
 
-CREATE TABLE `itemFolio` (  `id` varchar(37) NOT NULL,  `hrid` varchar(12) NOT NULL,  `holdingId` varchar(37) NOT NULL,  `holdingHrid` varchar(12) NOT NULL,  `sequence` integer  DEFAULT NULL,  `barcode` varchar(15) DEFAULT NULL,  `moddate` timestamp NULL DEFAULT NULL,  `content` longtext,  UNIQUE (`hrid`),  UNIQUE (`id`))
+CREATE TABLE `itemFolio` (  `id` varchar(37) NOT NULL,  `hrid` varchar(12) NOT NULL,  `holdingId` varchar(37) NOT NULL,  `holdingHrid` varchar(12) NOT NULL,  `sequence` integer  DEFAULT NULL,  `barcode` varchar(15) DEFAULT NULL,  `moddate` timestamp NULL DEFAULT NULL,  `content` longtext,  `contentHash` char(40) DEFAULT NULL,  UNIQUE (`hrid`),  UNIQUE (`id`))
 CREATE INDEX "idx_itemFolio_holdingHrid" ON "itemFolio" (`holdingHrid`)
 CREATE INDEX "idx_itemFolio_barcode" ON "itemFolio" (`barcode`)
 CREATE INDEX "idx_itemFolio_holdingId" ON "itemFolio" (`holdingId`)
@@ -17,14 +17,20 @@ CREATE INDEX "idx_itemDueDates_bib_id" ON "itemDueDates" (`bib_id`)
 CREATE TABLE `itemRequests` (  `bib_id` integer NOT NULL, `change_date` timestamp NULL DEFAULT NULL, json TEXT)
 CREATE INDEX "idx_itemRequests_bib_id" ON "itemRequests" (`bib_id`)
 
-CREATE TABLE `loanFolio` (  `id` varchar(37) NOT NULL,  `holdingId` varchar(37) NOT NULL,  `itemHrid` varchar(12) NOT NULL,  `moddate` timestamp NULL DEFAULT NULL,  `content` longtext DEFAULT NULL)
-CREATE TABLE `requestFolio` (  `id` varchar(37) NOT NULL,  `itemId` varchar(37) NOT NULL,  `itemHrid` varchar(12) NOT NULL,  `moddate` timestamp NULL DEFAULT NULL,  `content` longtext DEFAULT NULL)
+CREATE TABLE `loanFolio` (  `id` varchar(37) NOT NULL,  `holdingId` varchar(37) NOT NULL,  `itemHrid` varchar(12) NOT NULL,  `moddate` timestamp NULL DEFAULT NULL,  `content` longtext DEFAULT NULL,  `contentHash` char(40) DEFAULT NULL)
+CREATE TABLE `requestFolio` (  `id` varchar(37) NOT NULL,  `itemId` varchar(37) NOT NULL,  `itemHrid` varchar(12) NOT NULL,  `moddate` timestamp NULL DEFAULT NULL,  `content` longtext DEFAULT NULL,  `contentHash` char(40) DEFAULT NULL)
 CREATE INDEX "idx_requestFolio_id" ON "requestFolio" (`id`)
 CREATE INDEX "idx_requestFolio_itemId" ON "requestFolio" (`itemId`)
 CREATE INDEX "idx_requestFolio_itemHrid" ON "requestFolio" (`itemHrid`)
 
 CREATE TABLE `classification` (`low_letters` char(3) NOT NULL collate nocase, `high_letters` char(3) NOT NULL collate nocase,  `low_numbers` float(9,4) NOT NULL,  `high_numbers` float(9,4) NOT NULL,  `label` varchar(256) NOT NULL )
 
+CREATE TABLE `callNumberBrowseHash` (  `id` varchar(20) NOT NULL,  `hrid` varchar(12) NOT NULL,  `contentHash` char(40) NOT NULL)
+CREATE INDEX "idx_callNumberBrowseHash_hrid" ON "callNumberBrowseHash" (`hrid`)
+
 CREATE TABLE `bib2work` (  `hrid` varchar(12) NOT NULL,  `oclc_id` int(10) NOT NULL,  `work_id` int(10) NOT NULL,  `active` int(1) DEFAULT 1,  `mod_date` timestamp NOT NULL)
 CREATE TABLE `processedMarcData` (  `hrid` varchar(15) NOT NULL,  `visit_date` timestamp DEFAULT NULL,  `record_dates` text DEFAULT NULL,  `authortitle_marc_segment` text DEFAULT NULL,  `authortitle_solr_fields` longtext DEFAULT NULL,  `authortitle_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `title130_marc_segment` text DEFAULT NULL,  `title130_solr_fields` longtext DEFAULT NULL,  `title130_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `subject_marc_segment` text DEFAULT NULL,  `subject_solr_fields` longtext DEFAULT NULL,  `subject_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `pubinfo_marc_segment` text DEFAULT NULL,  `pubinfo_solr_fields` longtext DEFAULT NULL,  `pubinfo_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `format_marc_segment` longtext DEFAULT NULL,  `format_solr_fields` longtext DEFAULT NULL,  `format_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `factfiction_marc_segment` text DEFAULT NULL,  `factfiction_solr_fields` longtext DEFAULT NULL,  `factfiction_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `language_marc_segment` text DEFAULT NULL,  `language_solr_fields` longtext DEFAULT NULL,  `language_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `isbn_marc_segment` text DEFAULT NULL,  `isbn_solr_fields` longtext DEFAULT NULL,  `isbn_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `series_marc_segment` text DEFAULT NULL,  `series_solr_fields` longtext DEFAULT NULL,  `series_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `titlechange_marc_segment` text DEFAULT NULL,  `titlechange_solr_fields` longtext DEFAULT NULL,  `titlechange_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `toc_marc_segment` longtext DEFAULT NULL,  `toc_solr_fields` longtext DEFAULT NULL,  `toc_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `instruments_marc_segment` text DEFAULT NULL,  `instruments_solr_fields` longtext DEFAULT NULL,  `instruments_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `marc_marc_segment` longtext DEFAULT NULL,  `marc_solr_fields` longtext DEFAULT NULL,  `marc_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `simpleproc_marc_segment` longtext DEFAULT NULL,  `simpleproc_solr_fields` longtext DEFAULT NULL,  `simpleproc_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `findingaids_marc_segment` text DEFAULT NULL,  `findingaids_solr_fields` longtext DEFAULT NULL,  `findingaids_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `citationref_marc_segment` text DEFAULT NULL,  `citationref_solr_fields` longtext DEFAULT NULL,  `citationref_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `url_marc_segment` longtext DEFAULT NULL,  `url_solr_fields` longtext DEFAULT NULL,  `url_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `hathilinks_marc_segment` longtext DEFAULT NULL,  `hathilinks_solr_fields` longtext DEFAULT NULL,  `hathilinks_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `newbooks_marc_segment` longtext DEFAULT NULL,  `newbooks_solr_fields` longtext DEFAULT NULL,  `newbooks_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `recordtype_marc_segment` longtext DEFAULT NULL,  `recordtype_solr_fields` longtext DEFAULT NULL,  `recordtype_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `recordboost_marc_segment` text DEFAULT NULL,  `recordboost_solr_fields` longtext DEFAULT NULL,  `recordboost_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `callnumber_marc_segment` longtext DEFAULT NULL,  `callnumber_solr_fields` longtext DEFAULT NULL,  `callnumber_solr_fields_gen_date` timestamp NULL DEFAULT NULL,  `otherids_marc_segment` text DEFAULT NULL,  `otherids_solr_fields` longtext DEFAULT NULL,  `otherids_solr_fields_gen_date` timestamp NULL DEFAULT NULL)
 CREATE TABLE `bibRecsSolr` (  `bib_id` int(10)  NOT NULL,  `index_date` timestamp NULL DEFAULT NULL,  `linking_mod_date` timestamp NULL DEFAULT NULL ,  `record_date` timestamp NULL DEFAULT NULL,  `active` int(1) DEFAULT 1,  `title` text DEFAULT NULL,  `oclc` text DEFAULT NULL,  `format` varchar(256) DEFAULT NULL,  `pub_date` text DEFAULT NULL,  `language` text DEFAULT NULL,  `edition` text DEFAULT NULL,  `online` tinyint(1) DEFAULT NULL,  `print` tinyint(1) DEFAULT NULL)
+CREATE TABLE `instanceFolio` (  `id` varchar(37) NOT NULL,  `hrid` varchar(12) NOT NULL,  `active` integer NOT NULL,  `source` varchar(20) DEFAULT NULL,  `moddate` timestamp NULL DEFAULT NULL,  `content` longtext,  `contentHash` char(40) DEFAULT NULL,  UNIQUE (`id`),  UNIQUE (`hrid`))
+CREATE TABLE `bibFolio` (  `instanceHrid` varchar(12) NOT NULL,  `moddate` timestamp NULL DEFAULT NULL,  `content` longtext,  `contentHash` char(40) DEFAULT NULL,  UNIQUE (`instanceHrid`))
+CREATE TABLE `userChanges` (  `id` varchar(37) NOT NULL)